@@ -0,0 +1,130 @@
+package com.robinterry.fencingboxapp;
+
+import android.graphics.Typeface;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import com.robinterry.constants.C;
+
+import static org.junit.Assert.*;
+
+/**
+ * Time to draw and encode a video overlay frame, on the device, and the
+ * limit on the number of clients served at once.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OverlayStreamerBenchmark {
+    private static final String TAG = OverlayStreamerBenchmark.class.getSimpleName();
+    private static final int WARMUP = 20;
+    private static final int FRAMES = 200;
+
+    private static class TestSource implements ScoreboardSource {
+        final Box box = new Box(1);
+
+        @Override
+        public Box getShownBox() {
+            return box;
+        }
+
+        @Override
+        public RemoteClock getShownClock(Box b) {
+            return null;
+        }
+
+        @Override
+        public boolean isShownOffline(Box b, long now) {
+            return false;
+        }
+    }
+
+    @Test
+    public void encodeTimePerFrame() {
+        TestSource source = new TestSource();
+        OverlayStreamer overlay = new OverlayStreamer(source, Typeface.DEFAULT,
+                C.OVERLAY_WIDTH, C.OVERLAY_HEIGHT, C.OVERLAY_FPS, C.OVERLAY_PORT);
+
+        /* The clock counts down a second each frame, so each one is encoded */
+        for (int i = 0; i < WARMUP + FRAMES; i++) {
+            if (i == WARMUP) {
+                overlay = new OverlayStreamer(source, Typeface.DEFAULT,
+                        C.OVERLAY_WIDTH, C.OVERLAY_HEIGHT, C.OVERLAY_FPS, C.OVERLAY_PORT);
+            }
+            int t = 180 - (i % 180);
+            source.box.timeMins = FrameParser.twoDigits(t/60);
+            source.box.timeSecs = FrameParser.twoDigits(t % 60);
+            source.box.hitA = ((i & 8) != 0) ? Box.Hit.OnTarget : Box.Hit.None;
+            assertTrue(overlay.render());
+        }
+        assertEquals(FRAMES, overlay.getFramesEncoded());
+
+        /* Nothing is encoded again when nothing has changed */
+        assertFalse(overlay.render());
+        assertEquals(FRAMES, overlay.getFramesEncoded());
+
+        long micros = overlay.getMeanEncodeMicros();
+        Log.i(TAG, "Mean encode time " + micros + "us per " + C.OVERLAY_WIDTH + "x" + C.OVERLAY_HEIGHT + " frame");
+        assertTrue("Encoding takes longer than a frame", micros < 1000000/C.OVERLAY_FPS);
+    }
+
+    private static Socket request(int port, String path) throws IOException {
+        Socket s = new Socket("127.0.0.1", port);
+        s.setSoTimeout(C.OVERLAY_REQUEST_TIMEOUT);
+        s.getOutputStream().write(("GET " + path + " HTTP/1.0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        return s;
+    }
+
+    private static String status(Socket s) throws IOException {
+        return new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+    }
+
+    @Test
+    public void refusesClientsOverTheLimit() throws IOException {
+        TestSource source = new TestSource();
+        OverlayStreamer overlay = new OverlayStreamer(source, Typeface.DEFAULT,
+                C.OVERLAY_WIDTH, C.OVERLAY_HEIGHT, C.OVERLAY_FPS, C.OVERLAY_PORT + 1);
+        overlay.start();
+        Socket[] streams = new Socket[C.OVERLAY_MAX_CLIENTS];
+        try {
+            /* Each stream holds its place until it is closed */
+            for (int i = 0; i < streams.length; i++) {
+                streams[i] = request(overlay.getPort(), "/mjpeg");
+                assertEquals("HTTP/1.0 200 OK", status(streams[i]));
+            }
+            Socket extra = request(overlay.getPort(), "/frame.rgba");
+            try {
+                assertEquals("HTTP/1.0 503 Service Unavailable", status(extra));
+            } finally {
+                extra.close();
+            }
+
+            /* Once one goes, the next is served */
+            streams[0].close();
+            streams[0] = null;
+            SystemClock.sleep(3*C.OVERLAY_KEEPALIVE);
+            Socket next = request(overlay.getPort(), "/frame.rgba");
+            try {
+                assertEquals("HTTP/1.0 200 OK", status(next));
+            } finally {
+                next.close();
+            }
+        } finally {
+            for (Socket s : streams) {
+                if (s != null) {
+                    s.close();
+                }
+            }
+            overlay.stop();
+        }
+    }
+}
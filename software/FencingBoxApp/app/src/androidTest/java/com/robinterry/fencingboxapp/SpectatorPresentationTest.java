@@ -0,0 +1,171 @@
+package com.robinterry.fencingboxapp;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.PixelFormat;
+import android.graphics.Typeface;
+import android.hardware.display.DisplayManager;
+import android.hardware.display.VirtualDisplay;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Shows the spectator scoreboard on a virtual display, read back through an
+ * ImageReader, and checks that it keeps drawing while the main thread is busy.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SpectatorPresentationTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int TIMEOUT = 2000;
+
+    private static class TestSource implements ScoreboardSource {
+        volatile Box box = new Box(1);
+
+        @Override
+        public Box getShownBox() {
+            return box;
+        }
+
+        @Override
+        public RemoteClock getShownClock(Box b) {
+            return null;
+        }
+
+        @Override
+        public boolean isShownOffline(Box b, long now) {
+            return false;
+        }
+    }
+
+    private Context context;
+    private ImageReader reader;
+    private VirtualDisplay display;
+    private SpectatorPresentation presentation;
+    private final TestSource source = new TestSource();
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        reader = ImageReader.newInstance(WIDTH, HEIGHT, PixelFormat.RGBA_8888, 2);
+        DisplayManager dm = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        display = dm.createVirtualDisplay("spectator-test", WIDTH, HEIGHT, 160, reader.getSurface(),
+                DisplayManager.VIRTUAL_DISPLAY_FLAG_PRESENTATION | DisplayManager.VIRTUAL_DISPLAY_FLAG_OWN_CONTENT_ONLY);
+        assertNotNull(display);
+
+        source.box.hitA = Box.Hit.OnTarget;
+        source.box.scoreA = "01";
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                presentation = new SpectatorPresentation(context, display.getDisplay(), source, Typeface.DEFAULT);
+                presentation.show();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                presentation.dismiss();
+            }
+        });
+        display.release();
+        reader.close();
+    }
+
+    private boolean waitForFrames(int n) {
+        long end = SystemClock.elapsedRealtime() + TIMEOUT;
+        while (presentation.getFrames() < n) {
+            if (SystemClock.elapsedRealtime() > end) {
+                return false;
+            }
+            SystemClock.sleep(5);
+        }
+        return true;
+    }
+
+    private int pixel(Image image, int x, int y) {
+        Image.Plane plane = image.getPlanes()[0];
+        ByteBuffer buf = plane.getBuffer();
+        int i = y*plane.getRowStride() + x*plane.getPixelStride();
+        return Color.rgb(buf.get(i) & 0xff, buf.get(i + 1) & 0xff, buf.get(i + 2) & 0xff);
+    }
+
+    @Test
+    public void drawsScoreboard() {
+        assertTrue("No frame drawn", waitForFrames(1));
+        Image image = null;
+        long end = SystemClock.elapsedRealtime() + TIMEOUT;
+        while (image == null && SystemClock.elapsedRealtime() < end) {
+            image = reader.acquireLatestImage();
+            SystemClock.sleep(5);
+        }
+        assertNotNull("No frame reached the display", image);
+        try {
+            /* Middle of fencer A's hit light */
+            assertEquals(Color.RED, pixel(image, WIDTH/4, HEIGHT/3));
+        } finally {
+            image.close();
+        }
+
+        /* Nothing is drawn again while nothing changes */
+        int frames = presentation.getFrames();
+        SystemClock.sleep(200);
+        assertEquals(frames, presentation.getFrames());
+    }
+
+    @Test
+    public void drawsWhileMainThreadBusy() throws InterruptedException {
+        assertTrue("No frame drawn", waitForFrames(1));
+        int frames = presentation.getFrames();
+
+        /* Hold up the main thread, as a slow dialog or layout on the operator's screen would */
+        final Object lock = new Object();
+        final boolean[] busy = new boolean[] { false };
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    busy[0] = true;
+                    lock.notifyAll();
+                }
+                SystemClock.sleep(TIMEOUT);
+                busy[0] = false;
+            }
+        });
+        synchronized (lock) {
+            while (!busy[0]) {
+                lock.wait();
+            }
+        }
+
+        Box b = new Box(1);
+        b.hitB = Box.Hit.OnTarget;
+        b.scoreB = "01";
+        source.box = b;
+        long start = SystemClock.elapsedRealtime();
+        while (presentation.getFrames() == frames && SystemClock.elapsedRealtime() - start < TIMEOUT/2) {
+            SystemClock.sleep(5);
+        }
+        assertTrue("Not drawn while the main thread was busy", presentation.getFrames() > frames);
+        assertTrue(busy[0]);
+    }
+}
@@ -0,0 +1,127 @@
+package com.robinterry.fencingboxapp;
+
+import android.app.Presentation;
+import android.content.Context;
+import android.graphics.PixelFormat;
+import android.graphics.Typeface;
+import android.hardware.display.DisplayManager;
+import android.hardware.display.VirtualDisplay;
+import android.media.ImageReader;
+import android.os.SystemClock;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+
+import com.robinterry.constants.C;
+
+import static org.junit.Assert.*;
+
+/**
+ * Shows the wall display on a virtual display and counts how often it checks
+ * its tiles - while nothing is received, and while a piste sends at the
+ * active rate - against the frames it would have checked on every vsync.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WallDisplayViewTest {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int PISTES = 4;
+    private static final int PERIOD = 3000;
+
+    private Context context;
+    private ImageReader reader;
+    private VirtualDisplay display;
+    private Presentation presentation;
+    private WallDisplayView wall;
+    private final FencingBoxList boxList = new FencingBoxList(null, new Box(), 0);
+    private final int[] index = new int[PISTES+1];
+
+    private void send(int piste, int scoreA) {
+        byte[] msg = String.format("%04d|%02d|1|S--:%02d:00T03:00:00P-:-C---:---V-:-K-",
+                index[piste]++, piste, scoreA).getBytes(StandardCharsets.US_ASCII);
+        boxList.updateBox(msg, 0, msg.length, null);
+    }
+
+    private int updates() {
+        final int[] n = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                n[0] = wall.getUpdates();
+            }
+        });
+        return n[0];
+    }
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        reader = ImageReader.newInstance(WIDTH, HEIGHT, PixelFormat.RGBA_8888, 2);
+        DisplayManager dm = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        display = dm.createVirtualDisplay("wall-test", WIDTH, HEIGHT, 160, reader.getSurface(),
+                DisplayManager.VIRTUAL_DISPLAY_FLAG_PRESENTATION | DisplayManager.VIRTUAL_DISPLAY_FLAG_OWN_CONTENT_ONLY);
+        assertNotNull(display);
+        for (int piste = 1; piste <= PISTES; piste++) {
+            send(piste, 0);
+        }
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                presentation = new Presentation(context, display.getDisplay());
+                wall = new WallDisplayView(presentation.getContext(), boxList, Typeface.DEFAULT);
+                presentation.setContentView(wall);
+                presentation.show();
+                wall.start();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                wall.stop();
+                presentation.dismiss();
+            }
+        });
+        display.release();
+        reader.close();
+    }
+
+    @Test
+    public void checksOnChangesAndTicks() {
+        /* Let it lay out and draw */
+        SystemClock.sleep(500);
+
+        /* Nothing received - only the ticks */
+        int before = updates();
+        SystemClock.sleep(PERIOD);
+        int quiet = updates() - before;
+
+        /* One piste sending at the active rate, with the score changing */
+        int messages = 0;
+        before = updates();
+        long end = SystemClock.elapsedRealtime() + PERIOD;
+        while (SystemClock.elapsedRealtime() < end) {
+            send(1, ++messages % 16);
+            SystemClock.sleep(C.TX_INTERVAL_ACTIVE);
+        }
+        int busy = updates() - before;
+
+        int vsyncs = PERIOD*60/1000;
+        System.out.println(String.format("Wall display checks in %dms: %d with nothing received, %d with %d messages (%d on every vsync at 60Hz)",
+                PERIOD, quiet, busy, messages, vsyncs));
+
+        assertTrue(quiet <= PERIOD/C.WALL_TICK_INTERVAL + 1);
+        assertTrue(busy >= 1);
+        assertTrue(busy <= messages + PERIOD/C.WALL_TICK_INTERVAL + 1);
+    }
+}
@@ -21,24 +21,155 @@ public final class C {
     public static final int MAX_PISTE = 30;
     /* The fling distance as a proportion of X or Y axis */
     public static final int FLING_RATIO = 5;
-    /* Enables quantisation of the clock in network messages */
-    public static final boolean QUANTISE_CLOCK = true;
-    /* Clock quantisation factor in seconds */
-    public static final int QUANTISE_FACTOR_SECS = 1;
-    /* Network receive timeout in milliseconds */
-    public static final int RX_TIMEOUT = 2000;
-    /* IP multicast message transmit interval in milliseconds */
-    public static final int TX_INTERVAL = 250;
-    /* Multicast IP address */
-    public static final String IPMCADDR = "224.0.0.1";
+    /* Clock value in milliseconds below which the clock is shown in hundredths */
+    public static final int CLOCK_HUND_LIMIT = 10000;
+    /* Difference in milliseconds between a remote clock and its message beyond which the clock is set straight away */
+    public static final int CLOCK_MAX_ERROR = 2000;
+    /* Largest correction in milliseconds made to a remote clock on each message */
+    public static final int CLOCK_MAX_CORRECTION = 250;
+    /* Shortest interval in milliseconds at which a running remote clock is redrawn */
+    public static final int CLOCK_REFRESH_INTERVAL = 40;
+    /* Longest time in milliseconds between checks of a remote clock which is not due to change */
+    public static final int CLOCK_TICK_INTERVAL = 1000;
+    /* Longest time in milliseconds between checks of the wall display for pistes which have gone offline */
+    public static final int WALL_TICK_INTERVAL = 1000;
+    /* Number of typeface sizes for which the scoreboard digits are kept drawn */
+    public static final int GLYPH_CACHE_SIZE = 8;
+    /* Interval in milliseconds at which the scoreboard on a spectator screen is checked for changes */
+    public static final int SPECTATOR_REFRESH_INTERVAL = 20;
+    /* Size in pixels of the scoreboard served for video overlays */
+    public static final int OVERLAY_WIDTH = 640;
+    public static final int OVERLAY_HEIGHT = 480;
+    /* Frame rate at which the video overlay is checked for changes */
+    public static final int OVERLAY_FPS = 25;
+    /* TCP port on which the video overlay is served */
+    public static final int OVERLAY_PORT = 8080;
+    /* JPEG quality (0-100) of the video overlay frames */
+    public static final int OVERLAY_JPEG_QUALITY = 85;
+    /* Time in milliseconds after which an unchanged video overlay frame is sent again */
+    public static final int OVERLAY_KEEPALIVE = 1000;
+    /* Maximum number of video overlay clients served at once */
+    public static final int OVERLAY_MAX_CLIENTS = 4;
+    /* Time in milliseconds that a video overlay client has to send its request */
+    public static final int OVERLAY_REQUEST_TIMEOUT = 5000;
+    /* Interval in milliseconds at which the frame stats overlay is redrawn */
+    public static final int FRAME_STATS_REFRESH_INTERVAL = 500;
+    /* Interval in milliseconds at which a message is posted to the UI thread to measure its queue delay */
+    public static final int FRAME_STATS_PROBE_INTERVAL = 100;
+    /* Time in milliseconds with no hits, keys or clock movement after which the app is idle */
+    public static final int IDLE_QUIET_PERIOD = 120000;
+    /* Intervals in milliseconds of the periodic loops when idle */
+    public static final int IDLE_BOX_MONITOR_INTERVAL = 1000;
+    public static final int IDLE_CLOCK_REFRESH_INTERVAL = 5000;
+    public static final int IDLE_SYSTEM_MONITOR_INTERVAL = 2000;
+    public static final int IDLE_SPECTATOR_REFRESH_INTERVAL = 1000;
+    public static final int IDLE_OVERLAY_INTERVAL = 1000;
+    public static final int IDLE_FRAME_STATS_PROBE_INTERVAL = 1000;
+    public static final int IDLE_LINK_STATS_INTERVAL = 30000;
+    public static final int IDLE_SUBSCRIPTION_REFRESH = 5000;
+    public static final int IDLE_NETTIME_INTERVAL = 5000;
+    /* Screen brightness (0-1) when idle */
+    public static final float IDLE_BRIGHTNESS = 0.05f;
+    /* IP multicast message transmit interval in milliseconds when the clock is running or lights are on */
+    public static final int TX_INTERVAL_ACTIVE = 250;
+    /* IP multicast message transmit interval in milliseconds when the bout clock is stopped */
+    public static final int TX_INTERVAL_BREAK = 1000;
+    /* IP multicast message transmit interval in milliseconds when not in a bout */
+    public static final int TX_INTERVAL_IDLE = 2000;
+    /* Economy transmit intervals in milliseconds for a stopped clock and when not in a bout */
+    public static final int TX_INTERVAL_BREAK_ECONOMY = 2000;
+    public static final int TX_INTERVAL_IDLE_ECONOMY = 5000;
+    /* Slowest of the transmit intervals in milliseconds */
+    public static final int TX_INTERVAL_MAX = Math.max(Math.max(TX_INTERVAL_ACTIVE, TX_INTERVAL_BREAK),
+            Math.max(TX_INTERVAL_IDLE, Math.max(TX_INTERVAL_BREAK_ECONOMY, TX_INTERVAL_IDLE_ECONOMY)));
+    /* Number of the slowest transmit intervals without a message after which a piste is taken to have gone -
+       more than one, so that a late or lost message does not make it disappear */
+    public static final int TX_INTERVALS_MISSED = 3;
+    /* Number of transmit slots in each transmit interval (one per piste) */
+    public static final int TX_SLOTS = MAX_PISTE;
+    /* Maximum random jitter in milliseconds added to each transmit slot */
+    public static final int TX_JITTER = 3;
+    /* Time in milliseconds after the last clock change for which the clock is treated as running - just over the second between changes */
+    public static final int CLOCK_RUNNING_TIMEOUT = 1200;
+    /* Time in milliseconds by which a remote clock may run on past the time its box last showed, before the next message */
+    public static final int CLOCK_MAX_OVERRUN = TX_INTERVAL_ACTIVE;
+    /* Multicast IP address for the control messages - administratively scoped (RFC 2365) */
+    public static final String IPMCADDR = "239.192.28.1";
+    /* Multicast IP address prefix for the zone groups - zone N uses IPMCZONEPREFIX + (IPMCZONEBASE + N) */
+    public static final String IPMCZONEPREFIX = "239.192.28.";
+    public static final int IPMCZONEBASE = 1;
+    /* Maximum number of zones (halls) */
+    public static final int MAX_ZONES = 16;
+    /* Default mapping of pistes to zones - one range of pistes per zone */
+    public static final String SHARD_MAP = "1-10,11-20,21-30";
     /* Multicast IP port */
     public static final int IPMCPORT = 28888;
-    /* Limit on count of received messages before a disconnection is reported */
-    public static final int MAX_RXMESSAGES = 20;
+    /* Maximum number of display clients subscribed to one repeater in unicast mode */
+    public static final int MAX_SUBSCRIBERS = 8;
+    /* Time in milliseconds after which a display client subscription expires - long enough for a lost renewal while idle */
+    public static final int SUBSCRIPTION_LIFETIME = 3*IDLE_SUBSCRIPTION_REFRESH;
+    /* Interval in milliseconds at which a display client renews its subscription */
+    public static final int SUBSCRIPTION_REFRESH = 2000;
+    /* Interval in milliseconds at which a repeater in unicast mode with subscribers still multicasts, so it can be found */
+    public static final int DISCOVERY_INTERVAL = 2000;
+    /* Interval in milliseconds at which the hub sends the aggregated message for all pistes */
+    public static final int HUB_INTERVAL = 250;
+    /* Number of hub messages between key messages, which contain every piste */
+    public static final int HUB_KEY_INTERVAL = 8;
+    /* Maximum length of a hub message in bytes */
+    public static final int HUB_MAX_FRAME = 1400;
+    /* Time in milliseconds after which the hub leaves out a piste it has not heard from */
+    public static final int HUB_PISTE_TIMEOUT = TX_INTERVALS_MISSED*TX_INTERVAL_MAX;
+    /* Time in milliseconds without a hub message after which display clients use the piste messages */
+    public static final int HUB_TIMEOUT = 2000;
+    /* Interval in milliseconds between network time requests once synchronised */
+    public static final int NETTIME_INTERVAL = 2000;
+    /* Interval in milliseconds between network time requests while not yet synchronised */
+    public static final int NETTIME_FAST_INTERVAL = 250;
+    /* Number of network time samples kept for the offset and drift estimate */
+    public static final int NETTIME_SAMPLES = 8;
+    /* Time in milliseconds after which a node not heard from can no longer be the time reference - long enough for a lost request while idle */
+    public static final int NETTIME_REFERENCE_TIMEOUT = 3*IDLE_NETTIME_INTERVAL;
+    /* Extra round trip delay in milliseconds over the best sample for a sample to be used */
+    public static final int NETTIME_DELAY_MARGIN = 4;
+    /* Minimum time in milliseconds over which the drift between two clocks is measured */
+    public static final int NETTIME_DRIFT_BASELINE = 60000;
+    /* Number of offset estimates, one every drift baseline, kept for measuring the drift */
+    public static final int NETTIME_ANCHORS = 4;
+    /* Maximum drift assumed between two clocks, in parts per million */
+    public static final int NETTIME_MAX_DRIFT_PPM = 100;
+    /* Initial delay in milliseconds before retrying a failed network connection */
+    public static final int NET_BACKOFF_MIN = 500;
+    /* Maximum delay in milliseconds before retrying a failed network connection */
+    public static final int NET_BACKOFF_MAX = 30000;
+    /* Time in milliseconds to wait for the network thread to stop */
+    public static final int NET_STOP_TIMEOUT = 1000;
+    /* Time in seconds over which the message rate and loss of each piste are worked out */
+    public static final int STATS_WINDOW = 10;
+    /* Interval in milliseconds at which the network diagnostics are redrawn */
+    public static final int STATS_REFRESH_INTERVAL = 1000;
+    /* Interval in milliseconds at which the throughput of each network interface is worked out */
+    public static final int LINK_STATS_INTERVAL = 5000;
+    /* Network receive buffer size in bytes */
+    public static final int RX_BUFFER_SIZE = 1500;
+    /* Number of recent messages on each link checked for a copy received on another link */
+    public static final int RX_DUPLICATE_HISTORY = 8;
+    /* Time in milliseconds within which the same message from the same host is a copy */
+    public static final int RX_DUPLICATE_TIME = 100;
+    /* Maximum number of received messages processed before the network timers are checked */
+    public static final int RX_BATCH = 16;
+    /* Time in milliseconds with no messages from a piste after which it is reported as offline */
+    public static final int PISTE_STALE_TIMEOUT = TX_INTERVALS_MISSED*TX_INTERVAL_MAX;
     /* Vibrate period in milliseconds when a hit is detected */
     public static final int VIBRATE_PERIOD = 500;
     /* Maximum value of the network message index */
     public static final int MAX_MSGINDEX = 9999;
+    /* Number of message indexes behind the newest for which duplicates are detected */
+    public static final int SEQ_WINDOW = 64;
+    /* Message index jump beyond which the sending box is taken to have restarted */
+    public static final int SEQ_MAX_JUMP = 1000;
+    /* Time in milliseconds with no messages after which a piste's message index is started again */
+    public static final int SEQ_RESET_TIMEOUT = TX_INTERVALS_MISSED*TX_INTERVAL_MAX;
     /* Send Bluetooth keys to fencing scoring box when connected, otherwise process locally */
     public static final boolean SEND_KEYS_TO_BOX = false;
     /* Documentation display (should only be enabled for screenshots) */
@@ -24,6 +24,9 @@ public class Box {
     public String timeSecs = "00";
     public String timeHund = "00";
     public int clock = 0;
+    public long clockTickTime = 0;
+    public boolean clockRunning = false;
+    public long txNetTime = -1;
     public int period = 1;
     public String sCardA = "---";
     public String sCardB = "---";
@@ -38,6 +41,19 @@ public class Box {
     public static final Integer yellowCardBit = 0x01;
     public static final Integer redCardBit = 0x02;
     public static final Integer shortCircuitBit = 0x04;
+
+    /* Parts of the box which have changed, one bit for each part of the display */
+    public static final int CHANGED_CLOCK = 0x001;
+    public static final int CHANGED_SCORE = 0x002;
+    public static final int CHANGED_HIT = 0x004;
+    public static final int CHANGED_PRIORITY = 0x008;
+    public static final int CHANGED_CARD_A = 0x010;
+    public static final int CHANGED_CARD_B = 0x020;
+    public static final int CHANGED_PCARD_A = 0x040;
+    public static final int CHANGED_PCARD_B = 0x080;
+    public static final int CHANGED_PASSIVITY = 0x100;
+    public static final int CHANGED_PERIOD = 0x200;
+    public static final int CHANGED_ALL = 0x3ff;
     public FencingBoxActivity.PassivityCard[] pCard =
             new FencingBoxActivity.PassivityCard[] {FencingBoxActivity.PassivityCard.None, FencingBoxActivity.PassivityCard.None};
 
@@ -51,8 +67,7 @@ public class Box {
     }
 
     public FencingBoxDisplay disp;
-    public boolean changed = false;
-    public int rxMessages = C.MAX_RXMESSAGES;
+    /* False once the box has been shown as offline */
     public boolean rxOk = true;
 
     @NonNull
@@ -136,6 +151,101 @@ public class Box {
         mode = oldMode;
     }
 
+    public void clockTick(long now) {
+        clockTickTime = now;
+    }
+
+    public boolean isClockRunning(long now) {
+        return clockTickTime != 0 && (now - clockTickTime) < C.CLOCK_RUNNING_TIMEOUT;
+    }
+
+    /* Copy what is displayed of another box, so that it can be drawn
+       while the other box is changed */
+    public void copyFrom(Box b) {
+        msgIndex = b.msgIndex;
+        mode = b.mode;
+        piste = b.piste;
+        hitA = b.hitA;
+        hitB = b.hitB;
+        host = b.host;
+        scoreA = b.scoreA;
+        scoreB = b.scoreB;
+        timeMins = b.timeMins;
+        timeSecs = b.timeSecs;
+        timeHund = b.timeHund;
+        clockRunning = b.clockRunning;
+        period = b.period;
+        sCardA = b.sCardA;
+        sCardB = b.sCardB;
+        cardA = b.cardA;
+        cardB = b.cardB;
+        priA = b.priA;
+        priB = b.priB;
+        priIndicator = b.priIndicator;
+        passivityTimer = b.passivityTimer;
+        passivityActive = b.passivityActive;
+        weapon = b.weapon;
+        pCard[0] = b.pCard[0];
+        pCard[1] = b.pCard[1];
+        rxOk = b.rxOk;
+    }
+
+    /* True if everything copyFrom() copies, other than the message index, is
+       the same as in the other box */
+    public boolean isShownSameAs(Box b) {
+        return changesFrom(b) == 0
+                && timeHund.equals(b.timeHund)
+                && clockRunning == b.clockRunning
+                && passivityTimer == b.passivityTimer
+                && weapon == b.weapon
+                && sCardA.equals(b.sCardA) && sCardB.equals(b.sCardB)
+                && ((host == null) ? b.host == null : host.equals(b.host));
+    }
+
+    /* The parts of the display which are different from the old box - the
+       clock is only shown in minutes and seconds, so the hundredths are not
+       compared. If the box has gone offline or back online, or changed
+       mode, all of the display changes */
+    public int changesFrom(Box old) {
+        if (old == null || old.rxOk != rxOk || old.mode != mode) {
+            return CHANGED_ALL;
+        }
+        int c = 0;
+        if (!timeMins.equals(old.timeMins) || !timeSecs.equals(old.timeSecs)) {
+            c |= CHANGED_CLOCK;
+        }
+        if (!scoreA.equals(old.scoreA) || !scoreB.equals(old.scoreB)) {
+            c |= CHANGED_SCORE;
+        }
+        if (hitA != old.hitA || hitB != old.hitB) {
+            c |= CHANGED_HIT;
+        }
+        if (priIndicator != old.priIndicator || priA != old.priA || priB != old.priB) {
+            c |= CHANGED_PRIORITY;
+        }
+        if (!cardA.equals(old.cardA)) {
+            c |= CHANGED_CARD_A;
+        }
+        if (!cardB.equals(old.cardB)) {
+            c |= CHANGED_CARD_B;
+        }
+        if (pCard[0] != old.pCard[0]) {
+            c |= CHANGED_PCARD_A;
+        }
+        if (pCard[1] != old.pCard[1]) {
+            c |= CHANGED_PCARD_B;
+        }
+        if (passivityActive != old.passivityActive
+                || (passivityActive && passivityTimer != old.passivityTimer)
+                || !piste.equals(old.piste)) {
+            c |= CHANGED_PASSIVITY;
+        }
+        if (period != old.period) {
+            c |= CHANGED_PERIOD;
+        }
+        return c;
+    }
+
     public boolean compareTime(Box otherBox) {
         return  timeMins != otherBox.timeMins
                 ||
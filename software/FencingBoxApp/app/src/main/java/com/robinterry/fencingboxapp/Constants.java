@@ -12,6 +12,7 @@ class Constants {
 
     // values have to be unique within each app
     static final int NOTIFY_MANAGER_START_FOREGROUND_SERVICE = 1001;
+    static final int NOTIFY_MANAGER_OVERLAY = 1002;
 
     private Constants() {}
 }
@@ -0,0 +1,125 @@
+package com.robinterry.fencingboxapp;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+import android.util.Log;
+
+/* Import constant values */
+import com.robinterry.constants.C;
+
+/* Shows the network quality of each piste being received, and lets it be
+   exported (as CSV) so that problem access points can be found. The
+   network time is shown first, as the latency of each piste is only
+   as good as its error bound. */
+
+@SuppressWarnings("ALL")
+public class DiagnosticsActivity extends Activity {
+
+    private static final String TAG = DiagnosticsActivity.class.getSimpleName();
+    private TextView diagnosticsText;
+    private Button exportButton, resetButton;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            showStats();
+            handler.postDelayed(this, C.STATS_REFRESH_INTERVAL);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+        diagnosticsText = findViewById(R.id.diagnostics_text);
+        exportButton = findViewById(R.id.diagnostics_export_button);
+        resetButton = findViewById(R.id.diagnostics_reset_button);
+
+        exportButton.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                exportStats();
+            }
+        });
+
+        resetButton.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                FencingBoxList boxList = FencingBoxActivity.boxList;
+                if (boxList != null) {
+                    boxList.resetStats();
+                }
+                showStats();
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(refresh);
+    }
+
+    @Override
+    protected void onPause() {
+        handler.removeCallbacks(refresh);
+        super.onPause();
+    }
+
+    private void showStats() {
+        FencingBoxList boxList = FencingBoxActivity.boxList;
+        long now = SystemClock.elapsedRealtime();
+        StringBuilder s = new StringBuilder();
+        NetworkBroadcast network = FencingBoxActivity.network;
+        if (network != null) {
+            s.append("Network time  ").append(network.getNetworkTime().summary(now)).append('\n');
+            for (NetworkLink link : network.getLinks()) {
+                s.append("Link ").append(link.summary()).append('\n');
+            }
+            s.append("RX processing ").append(network.getRxAvgMicros()).append("us average, ")
+                    .append(network.getRxMaxMicros()).append("us longest\n");
+            s.append('\n');
+        }
+        if (boxList != null && !boxList.empty()) {
+            FencingBoxList.Snapshot snap = boxList.snapshot();
+            for (int i = 0; i < snap.size(); i++) {
+                int piste = snap.piste(i);
+                PisteStats stats = boxList.getStats(piste);
+                Box b = boxList.getBox(piste);
+                if (stats != null) {
+                    s.append(String.format("Piste %02d  %s%s\n", piste,
+                            (b != null && b.host != null) ? b.host : "",
+                            boxList.isStale(piste, now) ? "  OFFLINE" : ""));
+                    s.append("  ").append(stats.summary(now)).append('\n');
+                    s.append("  ").append(stats.getWindow()).append('\n');
+                }
+            }
+        }
+        if (boxList == null || boxList.empty()) {
+            s.append(getString(R.string.diagnostics_none));
+        }
+        diagnosticsText.setText(s.toString());
+    }
+
+    private void exportStats() {
+        FencingBoxList boxList = FencingBoxActivity.boxList;
+        if (boxList == null) {
+            return;
+        }
+        String csv = boxList.exportStats(SystemClock.elapsedRealtime());
+        if (C.DEBUGNET) {
+            Log.d(TAG, "Export network diagnostics\n" + csv);
+        }
+        Intent send = new Intent(Intent.ACTION_SEND);
+        send.setType("text/csv");
+        send.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.diagnostics_label));
+        send.putExtra(Intent.EXTRA_TEXT, csv);
+        startActivity(Intent.createChooser(send, getString(R.string.export_button)));
+    }
+}
@@ -0,0 +1,174 @@
+package com.robinterry.fencingboxapp;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.View;
+
+/* A score or clock on the scoreboard, drawn from a GlyphCache.
+
+   It takes the same calls as the TextView it replaces, but only holds a few
+   characters, which are copied into the view rather than kept as a string.
+   Changing the text or colour only redraws the view, as its size is set by
+   the layout, and nothing is redrawn if they have not changed.
+
+   As with a TextView, the text size, colour, style and gravity can be set
+   in the layout, and a typeface set later replaces the style. */
+
+@SuppressWarnings("ALL")
+public class DigitView extends View {
+    private static final int MAX_CHARS = 8;
+
+    private final char[] text = new char[MAX_CHARS];
+    private int len = 0;
+    private Typeface face = null;
+    private float size;
+    private int gravity = Gravity.TOP | Gravity.START;
+    private final Paint paint = new Paint();
+    private GlyphCache glyphs = null;
+
+    public DigitView(Context context) {
+        this(context, null);
+    }
+
+    public DigitView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        size = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 24, getResources().getDisplayMetrics());
+        int color = Color.WHITE;
+        if (attrs != null) {
+            /* The attributes must be in the order of their ids */
+            TypedArray a = context.obtainStyledAttributes(attrs,
+                    new int[] { android.R.attr.textSize, android.R.attr.textStyle,
+                            android.R.attr.textColor, android.R.attr.gravity });
+            size = a.getDimension(0, size);
+            int style = a.getInt(1, Typeface.NORMAL);
+            if (style != Typeface.NORMAL) {
+                face = Typeface.defaultFromStyle(style);
+            }
+            color = a.getColor(2, color);
+            gravity = a.getInt(3, gravity);
+            a.recycle();
+        }
+        paint.setColor(color);
+        paint.setFilterBitmap(true);
+    }
+
+    public void setTypeface(Typeface face) {
+        if (this.face != face) {
+            this.face = face;
+            glyphs = null;
+            invalidate();
+        }
+    }
+
+    public void setTypeface(Typeface face, int style) {
+        setTypeface((style > 0) ? Typeface.create(face, style) : face);
+    }
+
+    public void setTextSize(int unit, float size) {
+        float s = TypedValue.applyDimension(unit, size, getResources().getDisplayMetrics());
+        if (this.size != s) {
+            this.size = s;
+            glyphs = null;
+            invalidate();
+        }
+    }
+
+    public void setTextColor(int color) {
+        if (paint.getColor() != color) {
+            paint.setColor(color);
+            invalidate();
+        }
+    }
+
+    public void setGravity(int gravity) {
+        if (this.gravity != gravity) {
+            this.gravity = gravity;
+            invalidate();
+        }
+    }
+
+    public void setText(CharSequence s) {
+        setText(s, (char) 0, null);
+    }
+
+    /* Shows 'a', then the separator (unless it is 0), then 'b' */
+    public void setText(CharSequence a, char sep, CharSequence b) {
+        boolean changed = false;
+        int n = 0;
+        if (a != null) {
+            for (int i = 0; i < a.length() && n < MAX_CHARS; i++, n++) {
+                changed |= put(n, a.charAt(i));
+            }
+        }
+        if (sep != 0 && n < MAX_CHARS) {
+            changed |= put(n++, sep);
+        }
+        if (b != null) {
+            for (int i = 0; i < b.length() && n < MAX_CHARS; i++, n++) {
+                changed |= put(n, b.charAt(i));
+            }
+        }
+        if (changed || n != len) {
+            len = n;
+            invalidate();
+        }
+    }
+
+    private boolean put(int i, char c) {
+        if (i < len && text[i] == c) {
+            return false;
+        }
+        text[i] = c;
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (len == 0) {
+            return;
+        }
+        if (glyphs == null) {
+            glyphs = GlyphCache.get(face, size);
+        }
+        float w = glyphs.measure(text, len);
+        int h = glyphs.getHeight();
+        float x, y;
+        switch (Gravity.getAbsoluteGravity(gravity, getLayoutDirection()) & Gravity.HORIZONTAL_GRAVITY_MASK) {
+            case Gravity.CENTER_HORIZONTAL:
+                x = (getWidth() - w)/2;
+                break;
+
+            case Gravity.RIGHT:
+                x = getWidth() - getPaddingRight() - w;
+                break;
+
+            case Gravity.LEFT:
+            default:
+                x = getPaddingLeft();
+                break;
+        }
+        switch (gravity & Gravity.VERTICAL_GRAVITY_MASK) {
+            case Gravity.CENTER_VERTICAL:
+                y = (getHeight() - h)/2f;
+                break;
+
+            case Gravity.BOTTOM:
+                y = getHeight() - getPaddingBottom() - h;
+                break;
+
+            case Gravity.TOP:
+            default:
+                y = getPaddingTop();
+                break;
+        }
+        glyphs.draw(canvas, text, len, x, y, paint);
+    }
+}
@@ -2,10 +2,12 @@ package com.robinterry.fencingboxapp;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.ActionBar;
+import androidx.appcompat.app.AlertDialog;
 import android.app.Activity;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.constraintlayout.widget.ConstraintLayout;
+import androidx.core.content.ContextCompat;
 import androidx.core.view.GestureDetectorCompat;
 import androidx.core.view.WindowCompat;
 
@@ -19,38 +21,48 @@ import android.content.SharedPreferences;
 import android.net.wifi.WifiManager;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
+import android.content.DialogInterface;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.res.Configuration;
 import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
+import android.hardware.display.DisplayManager;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbManager;
 import android.os.Build;
 import android.os.IBinder;
 import android.os.Vibrator;
+import android.view.Display;
 import android.view.GestureDetector;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.Toast;
+import android.widget.EditText;
 import android.view.View;
 import android.view.WindowManager;
 import android.view.Window;
+import android.widget.FrameLayout;
 import android.view.MotionEvent;
 import android.view.KeyEvent;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.BatteryManager;
+import android.os.SystemClock;
 import java.lang.String;
 import java.lang.Integer;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.List;
 import com.robinterry.fencingboxapp.FencingBoxDisplay.FaceType;
 
 import android.util.Log;
@@ -63,7 +75,7 @@ import com.robinterry.constants.C;
 @SuppressWarnings("ALL")
 public class FencingBoxActivity extends AppCompatActivity
         implements ServiceConnection, SerialListener,
-        GestureDetector.OnGestureListener, GestureDetector.OnDoubleTapListener {
+        GestureDetector.OnGestureListener, GestureDetector.OnDoubleTapListener, ScoreboardSource {
     private static final String TAG = FencingBoxActivity.class.getSimpleName();
     private Box box;
     private Box[] demoBox;
@@ -106,6 +118,8 @@ public class FencingBoxActivity extends AppCompatActivity
     private ActivityMainBinding portBinding = null;
     private ActivityMainLandBinding landBinding = null;
     private View mainBinding;
+    /* Holds both layouts, with the one not in use hidden, and the lights over them */
+    private FrameLayout content;
 
     /* Commands from the fencing scoring box */
     private final byte cmdMarker = '!';
@@ -118,15 +132,23 @@ public class FencingBoxActivity extends AppCompatActivity
     private final byte shortCircuitMarker = '<';
     private final byte pollMarker = '/';
     private boolean monitorStarted = false;
+    private int shownClock = -1;
+    private final ShownBox shownBox = new ShownBox();
     private int batteryLvl = 0;
     private String currentTime;
     private NetworkBroadcast bc = null;
-    private boolean txFullStarted = false;
     public static WifiManager.MulticastLock wifiLock;
     public static FencingBoxList boxList;
+    public static NetworkBroadcast network;
     private GestureDetectorCompat gesture;
     private Menu optionsMenu = null;
     private static boolean optionsMenuActive = false;
+    private DisplayManager displayManager = null;
+    private SpectatorPresentation spectator = null;
+    private OverlayStreamer overlay = null;
+    private FrameStats frameStats = null;
+    private FrameStatsView frameStatsView = null;
+    private IdlePolicy idle = null;
 
     /* Shared preferences */
     public SharedPreferences pref;
@@ -255,6 +277,7 @@ public class FencingBoxActivity extends AppCompatActivity
             Log.e(TAG, "Unable to create broadcast socket, error " + e);
             bc = null;
         }
+        network = bc;
 
         // Get the view bindings for each orientation layout
         landBinding = ActivityMainLandBinding.inflate(getLayoutInflater());
@@ -292,6 +315,84 @@ public class FencingBoxActivity extends AppCompatActivity
             }
         }
 
+        // Find out what transmit rate profile was stored previously - if anything
+        synchronized (pref) {
+            String txRate = pref.getString("fencing_box_tx_rate", null);
+            if (bc != null) {
+                bc.setTxRateProfile(TxRateProfile.presetFromString(txRate));
+            }
+        }
+
+        // Find out if unicast mode was selected previously - if anything
+        synchronized (pref) {
+            String unicast = pref.getString("fencing_box_unicast", null);
+            if (bc != null) {
+                bc.setUnicastMode(unicast != null && unicast.equals("on"));
+            }
+        }
+
+        // Find out if this device was the hub previously - if anything
+        synchronized (pref) {
+            String hub = pref.getString("fencing_box_hub", null);
+            if (bc != null) {
+                bc.setHub(hub != null && hub.equals("on"));
+            }
+        }
+
+        // Find out which network interface was selected previously - if anything
+        synchronized (pref) {
+            String netIf = pref.getString("fencing_box_interface", null);
+            if (bc != null && netIf != null && !netIf.isEmpty()) {
+                bc.setInterface(netIf);
+            }
+        }
+
+        // Find out which pistes are in each zone at this venue - if it was set
+        synchronized (pref) {
+            String shardMap = pref.getString("fencing_box_shard_map", null);
+            if (bc != null && shardMap != null && !shardMap.isEmpty()) {
+                bc.setShardMap(shardMap);
+            }
+        }
+
+        // Find out which zone was selected previously - if anything
+        synchronized (pref) {
+            String zone = pref.getString("fencing_box_zone", null);
+            if (bc != null && zone != null) {
+                try {
+                    bc.setZone(Integer.parseInt(zone));
+                } catch (NumberFormatException e) {
+                    bc.setZone(0);
+                }
+            }
+        }
+
+        // Find out how long the quiet period before going idle is (in seconds) - if it was set
+        idle = new IdlePolicy(C.IDLE_QUIET_PERIOD, SystemClock.elapsedRealtime());
+        synchronized (pref) {
+            String idlePeriod = pref.getString("fencing_box_idle_period", null);
+            if (idlePeriod != null) {
+                try {
+                    idle.setQuietPeriod(Integer.parseInt(idlePeriod)*1000L);
+                } catch (NumberFormatException e) {
+                    /* Keep the default */
+                }
+            }
+        }
+        idle.addListener(new IdlePolicy.Listener() {
+            @Override
+            public void onIdleChanged(boolean nowIdle) {
+                if (C.DEBUG) {
+                    Log.d(TAG, nowIdle ? "Idle" : "Active");
+                }
+                setDimmed(nowIdle);
+                if (!nowIdle && bc != null) {
+                    /* Send the state at the active rate straight away */
+                    bc.kick();
+                }
+            }
+        });
+
         actionBar = getSupportActionBar();
 
         /* Display handler */
@@ -299,14 +400,30 @@ public class FencingBoxActivity extends AppCompatActivity
 
         /* List of other fencing boxes on the network */
         boxList = new FencingBoxList(this, box, box.piste);
+        boxList.setIdlePolicy(idle);
+        if (bc != null) {
+            boxList.setNetworkTime(bc.getNetworkTime());
+            bc.setIdlePolicy(idle);
+        }
 
-        // Set the content view from the view binding for the new orientation
-        setContentView(mainBinding);
+        // Both layouts are kept in the content view, so that rotating only has to swap them
+        content = new FrameLayout(this);
+        content.addView(portBinding.getRoot(), new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT));
+        content.addView(landBinding.getRoot(), new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT));
+        showLayout();
+        setContentView(content);
 
         // Set up the display
-        box.disp.createLights();
+        box.disp.createLights(content);
         box.disp.setupText(box, layout, orientation);
 
+        /* Show the scoreboard on a second screen, now or when one is connected */
+        displayManager = (DisplayManager) getSystemService(Context.DISPLAY_SERVICE);
+        displayManager.registerDisplayListener(displayListener, null);
+        showSpectator();
+
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
@@ -527,12 +644,9 @@ public class FencingBoxActivity extends AppCompatActivity
         if (!monitorStarted) {
             startSystemMonitor();
             startBoxMonitor();
+            startClockMonitor();
             monitorStarted = true;
         }
-        if (!txFullStarted) {
-            startTxFull();
-            txFullStarted = true;
-        }
         if (C.DEBUG) {
             Log.d(TAG, "onStart end");
         }
@@ -564,6 +678,14 @@ public class FencingBoxActivity extends AppCompatActivity
     @Override
     public void onDestroy() {
         super.onDestroy();
+        if (displayManager != null) {
+            displayManager.unregisterDisplayListener(displayListener);
+        }
+        dismissSpectator();
+        if (overlay != null) {
+            overlay.stop();
+        }
+        stopService(new Intent(this, OverlayService.class));
         if (serialConnected != Connected.False) {
             disconnect(true);
         }
@@ -571,6 +693,9 @@ public class FencingBoxActivity extends AppCompatActivity
         sound.soundOff(true);
         landBinding = null;
         portBinding = null;
+        if (bc != null) {
+            bc.stop();
+        }
         try {
             wifiLock.release();
         } catch (Exception e) {
@@ -591,6 +716,10 @@ public class FencingBoxActivity extends AppCompatActivity
     protected void onResume() {
         super.onResume();
         displayPaused = false;
+        if (bc != null) {
+            /* Back from the wall display, if it was open */
+            bc.subscribeAll(false);
+        }
         if (!isResumed) {
             isResumed = true;
             bindService(new Intent(this, SerialService.class), this, Context.BIND_AUTO_CREATE);
@@ -641,8 +770,8 @@ public class FencingBoxActivity extends AppCompatActivity
             orientation = Orientation.Portrait;
         }
 
-        // Set the content view from the view binding for the new orientation
-        setContentView(mainBinding);
+        // Show the layout for the new orientation, which is already set up
+        showLayout();
         layout = (ConstraintLayout) mainBinding;
 
         // Display the screen in the new orientation
@@ -651,7 +780,7 @@ public class FencingBoxActivity extends AppCompatActivity
         } else if (!box.isModeDemo()) {
             box.disp.hideUI();
         }
-        box.disp.setupText(box, layout, orientation);
+        box.disp.setOrientation(layout, orientation);
         if (box.isModeDemo()) {
             showDemo(whichDemo);
         } else if (box.isModeDisplay()) {
@@ -674,6 +803,7 @@ public class FencingBoxActivity extends AppCompatActivity
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
+        idle.activity(SystemClock.elapsedRealtime());
         gesture.onTouchEvent(event);
         return super.onTouchEvent(event);
     }
@@ -681,6 +811,7 @@ public class FencingBoxActivity extends AppCompatActivity
     @Override
     public boolean onKeyUp(int keyCode, KeyEvent event) {
         Log.i(TAG, "key code " + keyCode);
+        idle.activity(SystemClock.elapsedRealtime());
         switch (keyCode) {
             case KeyEvent.KEYCODE_DPAD_DOWN:
             case KeyEvent.KEYCODE_D:
@@ -769,6 +900,9 @@ public class FencingBoxActivity extends AppCompatActivity
             case KeyEvent.KEYCODE_GUIDE:
                 keyHandler.addKey('G');
                 return true;
+            case KeyEvent.KEYCODE_F12:
+                toggleFrameStats();
+                return true;
             case KeyEvent.KEYCODE_MENU:
                 synchronized (keyHandler) {
                     keyHandler.addKey('M');
@@ -896,6 +1030,89 @@ public class FencingBoxActivity extends AppCompatActivity
         item = menu.findItem(R.id.menu_piste_select);
         item.setEnabled(isSerialConnected() ? true:false);
 
+        /* Select the transmit rate item (only visible when connected to box) */
+        item = menu.findItem(R.id.menu_tx_rate);
+        if (bc != null) {
+            item.setTitle(bc.getTxRateProfile() == TxRateProfile.Preset.Economy ?
+                    R.string.tx_rate_standard_label : R.string.tx_rate_economy_label);
+            item.setEnabled(isSerialConnected() ? true:false);
+        } else {
+            item.setVisible(false);
+            item.setEnabled(false);
+        }
+
+        /* Change the options menu to show "Unicast mode on" or "Unicast mode off" */
+        item = menu.findItem(R.id.menu_unicast);
+        if (bc != null) {
+            item.setTitle(bc.isUnicastMode() ? R.string.unicast_off_label : R.string.unicast_on_label);
+        } else {
+            item.setVisible(false);
+            item.setEnabled(false);
+        }
+
+        /* Change the options menu to show "Hub on" or "Hub off" */
+        item = menu.findItem(R.id.menu_hub);
+        if (bc != null) {
+            item.setTitle(bc.isHub() ? R.string.hub_off_label : R.string.hub_on_label);
+        } else {
+            item.setVisible(false);
+            item.setEnabled(false);
+        }
+
+        /* Change the options menu to show the network interface being used */
+        item = menu.findItem(R.id.menu_interface);
+        if (bc != null) {
+            if (bc.getInterface() == null) {
+                item.setTitle(R.string.interface_all_label);
+            } else {
+                item.setTitle(getString(R.string.interface_label, bc.getInterface()));
+            }
+        } else {
+            item.setVisible(false);
+            item.setEnabled(false);
+        }
+
+        /* Change the options menu to show the zone being received */
+        item = menu.findItem(R.id.menu_zone);
+        if (bc != null && bc.getZones() > 1) {
+            /* The number of zones changes with the shard map */
+            item.setVisible(true);
+            item.setEnabled(true);
+            if (bc.getZone() == 0) {
+                item.setTitle(R.string.zone_all_label);
+            } else {
+                item.setTitle(getString(R.string.zone_label, bc.getZone()));
+            }
+        } else {
+            item.setVisible(false);
+            item.setEnabled(false);
+        }
+
+        /* The network diagnostics are only of use if the network is there */
+        item = menu.findItem(R.id.menu_diagnostics);
+        if (bc == null) {
+            item.setVisible(false);
+            item.setEnabled(false);
+        }
+
+        /* Change the options menu to show whether the video overlay is being served */
+        item = menu.findItem(R.id.menu_overlay);
+        item.setTitle((overlay != null && overlay.isRunning()) ? R.string.overlay_off_label : R.string.overlay_on_label);
+
+        /* Change the options menu to show whether the frame stats are shown, and only save them if they are */
+        item = menu.findItem(R.id.menu_frame_stats);
+        item.setTitle((frameStatsView != null) ? R.string.frame_stats_off_label : R.string.frame_stats_on_label);
+        item = menu.findItem(R.id.menu_frame_stats_save);
+        item.setVisible(frameStatsView != null);
+        item.setEnabled(frameStatsView != null);
+
+        /* As is the wall display */
+        item = menu.findItem(R.id.menu_wall_display);
+        if (bc == null) {
+            item.setVisible(false);
+            item.setEnabled(false);
+        }
+
         return super.onPrepareOptionsMenu(menu);
     }
 
@@ -940,6 +1157,127 @@ public class FencingBoxActivity extends AppCompatActivity
                 startActivityForResult(pisteSelectIntent, PisteSelect.ACTIVITY_CODE);
                 break;
 
+            case R.id.menu_tx_rate:
+                /* Change the transmit rate profile */
+                if (bc != null) {
+                    TxRateProfile.Preset txRate =
+                            (bc.getTxRateProfile() == TxRateProfile.Preset.Economy) ?
+                                    TxRateProfile.Preset.Standard : TxRateProfile.Preset.Economy;
+                    bc.setTxRateProfile(txRate);
+                    synchronized (editor) {
+                        editor.putString("fencing_box_tx_rate", TxRateProfile.presetToString(txRate));
+                        editor.apply();
+                    }
+                }
+                break;
+
+            case R.id.menu_unicast:
+                /* Change the unicast mode flag */
+                if (bc != null) {
+                    boolean unicast = !bc.isUnicastMode();
+                    bc.setUnicastMode(unicast);
+                    synchronized (editor) {
+                        editor.putString("fencing_box_unicast", unicast ? "on" : "off");
+                        editor.apply();
+                    }
+                }
+                break;
+
+            case R.id.menu_hub:
+                /* Make this device the hub, or stop it being the hub */
+                if (bc != null) {
+                    boolean hub = !bc.isHub();
+                    bc.setHub(hub);
+                    synchronized (editor) {
+                        editor.putString("fencing_box_hub", hub ? "on" : "off");
+                        editor.apply();
+                    }
+                }
+                break;
+
+            case R.id.menu_interface:
+                /* Move on to the next network interface, and then back to all of them */
+                if (bc != null) {
+                    List<String> names = NetworkLink.findNames();
+                    int i = (bc.getInterface() == null) ? 0 : names.indexOf(bc.getInterface()) + 1;
+                    String netIf = (i >= 0 && i < names.size()) ? names.get(i) : null;
+                    bc.setInterface(netIf);
+                    synchronized (editor) {
+                        editor.putString("fencing_box_interface", (netIf == null) ? "" : netIf);
+                        editor.apply();
+                    }
+                }
+                break;
+
+            case R.id.menu_zone:
+                /* Move on to the next zone, and then back to all zones */
+                if (bc != null) {
+                    int zone = (bc.getZone() + 1) % (bc.getZones() + 1);
+                    bc.setZone(zone);
+                    synchronized (editor) {
+                        editor.putString("fencing_box_zone", String.valueOf(zone));
+                        editor.apply();
+                    }
+                }
+                break;
+
+            case R.id.menu_shard_map:
+                /* Change which pistes are in each zone */
+                if (bc != null) {
+                    editShardMap();
+                }
+                break;
+
+            case R.id.menu_diagnostics:
+                /* Open the Network Diagnostics activity */
+                optionsMenu.close();
+                Intent diagnosticsIntent = new Intent("com.robinterry.fencingboxapp.DIAGNOSTICS");
+                diagnosticsIntent.addCategory("android.intent.category.DEFAULT");
+                startActivity(diagnosticsIntent);
+                break;
+
+            case R.id.menu_wall_display:
+                /* Open the Wall Display activity, receiving every piste */
+                optionsMenu.close();
+                if (bc != null) {
+                    bc.subscribeAll(true);
+                }
+                Intent wallIntent = new Intent("com.robinterry.fencingboxapp.WALL_DISPLAY");
+                wallIntent.addCategory("android.intent.category.DEFAULT");
+                startActivity(wallIntent);
+                break;
+
+            case R.id.menu_overlay:
+                /* Start or stop serving the scoreboard for video overlays */
+                if (overlay != null && overlay.isRunning()) {
+                    overlay.stop();
+                    stopService(new Intent(this, OverlayService.class));
+                } else {
+                    if (overlay == null) {
+                        overlay = new OverlayStreamer(this, Typefaces.digital(this),
+                                C.OVERLAY_WIDTH, C.OVERLAY_HEIGHT, C.OVERLAY_FPS, C.OVERLAY_PORT);
+                        overlay.setIdlePolicy(idle);
+                    }
+                    try {
+                        overlay.start();
+                        ContextCompat.startForegroundService(this,
+                                new Intent(this, OverlayService.class).putExtra(OverlayService.EXTRA_PORT, overlay.getPort()));
+                        Toast.makeText(getApplicationContext(), getString(R.string.overlay_started, overlay.getPort()), Toast.LENGTH_SHORT).show();
+                    } catch (IOException e) {
+                        Log.e(TAG, "Unable to start the video overlay " + e);
+                        Toast.makeText(getApplicationContext(), R.string.overlay_failed, Toast.LENGTH_SHORT).show();
+                    }
+                }
+                break;
+
+            case R.id.menu_frame_stats:
+                toggleFrameStats();
+                break;
+
+            case R.id.menu_frame_stats_save:
+                saveFrameStats();
+                break;
+
             case R.id.menu_demo:
                 /* Go into demo mode or out */
                 switch (box.getBoxMode()) {
@@ -1084,14 +1422,12 @@ public class FencingBoxActivity extends AppCompatActivity
     }
 
     public void startSystemMonitor() {
-        final int delayMillis = C.SYSTEM_MONITOR_INTERVAL;
-
         HandlerThread handlerThread = new HandlerThread("systemMonitor");
         handlerThread.start();
-        final Handler handler = new Handler(handlerThread.getLooper());
-        final Runnable r = new Runnable() {
+        IdleLoop monitor = new IdleLoop(idle, IdleLoop.onHandler(new Handler(handlerThread.getLooper())),
+                C.SYSTEM_MONITOR_INTERVAL, C.IDLE_SYSTEM_MONITOR_INTERVAL) {
             @Override
-            public void run() {
+            protected void tick(long now) {
                 if (!box.disp.isUIVisible()) {
                     BatteryManager batt = (BatteryManager) getApplicationContext().getSystemService(BATTERY_SERVICE);
                     batteryLvl = batt.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY);
@@ -1125,16 +1461,9 @@ public class FencingBoxActivity extends AppCompatActivity
                             } else if (!box.isModeNone()) {
                                 // Control the "volume muted" icon
                                 box.disp.setVolumeMuted(soundMute || sound.isMuted());
-                                // Control the "online" icon
+                                // Control the "online" icon - the network is connected by the connection manager
                                 if (bc != null) {
-                                    bc.checkNetworkConnection(thisActivity);
-                                    try {
-                                        bc.tryConnect();
-                                        box.disp.setOnline(bc.isNetworkOnline());
-                                    } catch (IOException e) {
-                                        Log.e(TAG, "Network unable to connect, error " + e);
-                                        box.disp.setOnline(false);
-                                    }
+                                    box.disp.setOnline(bc.isNetworkOnline());
                                 }
                                 // Control the 'vibrate' icon
                                 box.disp.setVibrate(vibrationState == VibrationState.On);
@@ -1159,38 +1488,45 @@ public class FencingBoxActivity extends AppCompatActivity
                         }
                     }
                 });
-                handler.postDelayed(this, delayMillis);
             }
         };
-        handler.postDelayed(r, delayMillis);
+        monitor.start(C.SYSTEM_MONITOR_INTERVAL);
     }
 
     public void startBoxMonitor() {
-        final int delayMillis = C.BOX_MONITOR_INTERVAL;
-
         HandlerThread handlerThread = new HandlerThread("boxMonitor");
         handlerThread.start();
-        final Handler handler = new Handler(handlerThread.getLooper());
-        final Runnable r = new Runnable() {
+        IdleLoop monitor = new IdleLoop(idle, IdleLoop.onHandler(new Handler(handlerThread.getLooper())),
+                C.BOX_MONITOR_INTERVAL, C.IDLE_BOX_MONITOR_INTERVAL) {
             @Override
-            public void run() {
+            protected void tick(long now) {
+                /* Subscribe to the piste being displayed, for repeaters in unicast mode */
+                if (bc != null) {
+                    int piste = 0;
+                    if (box.isModeDisplay()) {
+                        try {
+                            piste = boxList.currentBox().piste;
+                        } catch (IndexOutOfBoundsException e) {
+                            /* Nothing to display */
+                        }
+                    }
+                    bc.subscribe(piste);
+                }
                 if (box.isModeDisplay()) {
                     runOnUiThread(new Runnable() {
                         @Override
                         public void run() {
                             try {
                                 Box b = boxList.currentBox();
-                                if (b.changed) {
-                                    box.disp.displayBox(b);
-                                    b.changed = false;
-                                } else {
-                                    if (b.rxMessages > 0) {
-                                        b.rxMessages--;
-                                    } else if (b.rxOk) {
-                                        /* No messages received - highlight this */
-                                        b.rxOk = false;
-                                        box.disp.displayBox(b);
-                                    }
+                                if (b.rxOk && boxList.isStale(b.piste, SystemClock.elapsedRealtime())) {
+                                    /* No messages received - highlight this */
+                                    b = boxList.markOffline(b.piste, SystemClock.elapsedRealtime());
+                                }
+                                /* Only redraw the parts which have changed, unless the piste has */
+                                int changes = shownBox.show(b);
+                                if (changes != 0) {
+                                    box.disp.displayBox(b, changes);
+                                    displayRemoteClock(b, (changes & Box.CHANGED_CLOCK) != 0);
                                 }
                             } catch (IndexOutOfBoundsException e) {
                                 /* Do nothing */
@@ -1198,10 +1534,227 @@ public class FencingBoxActivity extends AppCompatActivity
                         }
                     });
                 }
-                handler.postDelayed(this, delayMillis);
             }
         };
-        handler.postDelayed(r, delayMillis);
+        monitor.start(C.BOX_MONITOR_INTERVAL);
+    }
+
+    /* Redraw the clock of the box being displayed while its clock is
+       running, as it is counted locally between the network messages.
+       The clock as shown only changes when the next second (or hundredth)
+       is due, until it has run CLOCK_MAX_OVERRUN past the time the box
+       last showed, so this only runs when the clock is due to change,
+       when a message changes the box being displayed, or otherwise every
+       CLOCK_TICK_INTERVAL. */
+    public void startClockMonitor() {
+        final IdleLoop monitor = new IdleLoop(idle, IdleLoop.onHandler(new Handler(Looper.getMainLooper())),
+                C.CLOCK_TICK_INTERVAL, C.IDLE_CLOCK_REFRESH_INTERVAL) {
+            @Override
+            protected void tick(long now) {
+                if (box.isModeDisplay()) {
+                    try {
+                        displayRemoteClock(boxList.currentBox(), false);
+                    } catch (IndexOutOfBoundsException e) {
+                        /* Nothing to display */
+                    }
+                }
+            }
+
+            @Override
+            protected long nextDelay(long now) {
+                RemoteClock c = box.isModeDisplay() ? boxList.getClock(boxList.getCurrentPiste()) : null;
+                return RemoteClock.nextCheck(c, now, super.nextDelay(now));
+            }
+        };
+        boxList.addListener(new FencingBoxList.Listener() {
+            @Override
+            public void onBoxChanged(int piste) {
+                if (piste == boxList.getCurrentPiste()) {
+                    monitor.runNow();
+                }
+            }
+        });
+        monitor.start(C.CLOCK_REFRESH_INTERVAL);
+    }
+
+    /* Dim the screen when idle, and put it back to the normal brightness when not */
+    private void setDimmed(final boolean dim) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                WindowManager.LayoutParams lp = getWindow().getAttributes();
+                lp.screenBrightness = dim ? C.IDLE_BRIGHTNESS : WindowManager.LayoutParams.BRIGHTNESS_OVERRIDE_NONE;
+                getWindow().setAttributes(lp);
+            }
+        });
+    }
+
+    private final DisplayManager.DisplayListener displayListener = new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {
+            showSpectator();
+        }
+
+        @Override
+        public void onDisplayRemoved(int displayId) {
+            if (spectator != null && spectator.getDisplay().getDisplayId() == displayId) {
+                dismissSpectator();
+            }
+        }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            /* Nothing to do */
+        }
+    };
+
+    /* Show the scoreboard on the first presentation display, if there is one.
+       It stays up while other activities are in front, until this activity
+       is destroyed or the display is removed. */
+    private void showSpectator() {
+        if (spectator != null || isFinishing()) {
+            return;
+        }
+        Display[] displays = displayManager.getDisplays(DisplayManager.DISPLAY_CATEGORY_PRESENTATION);
+        if (displays.length == 0) {
+            return;
+        }
+        if (C.DEBUG) {
+            Log.d(TAG, "Showing the scoreboard on display " + displays[0].getName());
+        }
+        spectator = new SpectatorPresentation(this, displays[0], this, Typefaces.digital(this));
+        spectator.setIdlePolicy(idle);
+        try {
+            spectator.show();
+        } catch (WindowManager.InvalidDisplayException e) {
+            Log.e(TAG, "Unable to show the scoreboard on display " + displays[0].getName());
+            spectator = null;
+        }
+    }
+
+    private void dismissSpectator() {
+        if (spectator != null) {
+            spectator.dismiss();
+            spectator = null;
+        }
+    }
+
+    /* The scoreboard shown on a second screen - the piste being displayed in
+       display mode, otherwise this box */
+    @Override
+    public Box getShownBox() {
+        if (box.isModeDisplay()) {
+            try {
+                return boxList.currentBox();
+            } catch (IndexOutOfBoundsException e) {
+                return null;
+            }
+        }
+        return box;
+    }
+
+    @Override
+    public RemoteClock getShownClock(Box b) {
+        return (b != box && !b.isModeWeaponTest()) ? boxList.getClock(b.piste) : null;
+    }
+
+    @Override
+    public boolean isShownOffline(Box b, long now) {
+        return b != box && (!b.rxOk || boxList.isStale(b.piste, now));
+    }
+
+    private void displayRemoteClock(Box b, boolean force) {
+        RemoteClock c = boxList.getClock(b.piste);
+        if (c != null && c.isRunning() && b.rxOk && !b.isModeWeaponTest()) {
+            int t = c.get(SystemClock.elapsedRealtime());
+            boolean hundActive = RemoteClock.isHundActive(t);
+            /* Only redraw the clock when what is shown changes */
+            int shown = hundActive ? (t + 9)/10 : ((t + 999)/1000)*100;
+            if (force || shown != shownClock) {
+                shownClock = shown;
+                box.disp.displayClock(RemoteClock.minsOf(t), RemoteClock.secsOf(t), RemoteClock.hundOf(t), hundActive);
+            }
+        }
+    }
+
+    /* Ask for the pistes in each zone at this venue, as a list of piste
+       ranges (see ShardMap) - every device at the venue needs the same */
+    private void editShardMap() {
+        final EditText text = new EditText(this);
+        text.setSingleLine(true);
+        text.setText(bc.getShardMap());
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.shard_map_label)
+                .setMessage(R.string.shard_map_hint)
+                .setView(text)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String shardMap = text.getText().toString().trim();
+                        if (bc.setShardMap(shardMap)) {
+                            synchronized (editor) {
+                                editor.putString("fencing_box_shard_map", shardMap);
+                                editor.putString("fencing_box_zone", String.valueOf(bc.getZone()));
+                                editor.apply();
+                            }
+                        } else {
+                            Toast.makeText(getApplicationContext(), R.string.shard_map_invalid, Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /* Show or hide the developer overlay of frame time, update latency and
+       UI queue delay. The counts are started again each time it is shown. */
+    private void toggleFrameStats() {
+        if (frameStatsView != null) {
+            box.disp.setFrameStats(null);
+            frameStatsView.hide();
+            frameStatsView = null;
+        } else {
+            if (frameStats == null) {
+                frameStats = new FrameStats();
+            }
+            frameStats.reset();
+            frameStatsView = new FrameStatsView(this, frameStats, idle);
+            frameStatsView.show(content);
+            box.disp.setFrameStats(frameStats);
+        }
+    }
+
+    /* Write the frame stats to a CSV file in the app's files directory, for comparing devices */
+    private void saveFrameStats() {
+        if (frameStats == null) {
+            return;
+        }
+        String device = Build.MANUFACTURER + " " + Build.MODEL + " Android " + Build.VERSION.RELEASE;
+        String name = "framestats-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".csv";
+        File file = new File(getExternalFilesDir(null), name);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            out.write(frameStats.toCsv(device).getBytes(StandardCharsets.UTF_8));
+            Toast.makeText(getApplicationContext(), getString(R.string.frame_stats_saved, file.getPath()), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to save frame stats to " + file + " " + e);
+            Toast.makeText(getApplicationContext(), R.string.frame_stats_failed, Toast.LENGTH_SHORT).show();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    /* Ignore */
+                }
+            }
+        }
+    }
+
+    /* Show the layout for the orientation, and hide the other one */
+    private void showLayout() {
+        portBinding.getRoot().setVisibility((orientation == Orientation.Portrait) ? View.VISIBLE : View.GONE);
+        landBinding.getRoot().setVisibility((orientation == Orientation.Landscape) ? View.VISIBLE : View.GONE);
     }
 
     public Orientation getOrientation() {
@@ -1296,6 +1849,7 @@ public class FencingBoxActivity extends AppCompatActivity
     }
 
     public void setHitLights(Box.Hit h_A, Box.Hit h_B) {
+        boolean newHit = (box.hitA != h_A || box.hitB != h_B);
         box.hitA = h_A;
         box.hitB = h_B;
         if (box.isModeConnected()) {
@@ -1303,6 +1857,14 @@ public class FencingBoxActivity extends AppCompatActivity
         } else {
             clearHitLights();
         }
+
+        /* Send a change of the lights to the network straight away */
+        if (newHit) {
+            idle.activity(SystemClock.elapsedRealtime());
+            if (bc != null) {
+                bc.kick();
+            }
+        }
     }
 
     public void clearHitLights() {
@@ -1663,6 +2225,8 @@ public class FencingBoxActivity extends AppCompatActivity
         int newPiste;
         String weaponString;
 
+        idle.activity(SystemClock.elapsedRealtime());
+
         /* The "GO" command contains a two-digit piste number sent by the box */
         if (cmd.substring(0, 2).equals("GO")) {
             try {
@@ -2008,7 +2572,20 @@ public class FencingBoxActivity extends AppCompatActivity
         if (C.DEBUG) {
             Log.d(TAG, "process clock, box " + box + "/" + min + ":" + sec + ":" + hund);
         }
-        if (setClock(box, min, sec, hund, hundActive)) {
+        long now = SystemClock.elapsedRealtime();
+        boolean clockWasRunning = box.isClockRunning(now);
+        boolean clockChanged = setClock(box, min, sec, hund, hundActive);
+
+        /* The clock is running if it has changed recently, so send the
+           box state at the faster rate as soon as the clock starts */
+        if (clockChanged || hundActive) {
+            idle.activity(now);
+            box.clockTick(now);
+            if (!clockWasRunning && bc != null) {
+                bc.kick();
+            }
+        }
+        if (clockChanged) {
             if (box.isModeBout()) {
                 if (box.passivityActive && box.passivityTimer > 0) {
                     box.passivityTimer--;
@@ -2235,8 +2812,26 @@ public class FencingBoxActivity extends AppCompatActivity
         return s;
     }
 
+    public String msgClockRunning() {
+        boolean running = box.getBoxMode() == Box.Mode.Bout
+                && box.isClockRunning(SystemClock.elapsedRealtime());
+        return running ? "Ky" : "K-";
+    }
+
+    /* The network time that the message is sent, so that display clients
+       can tell how long it took - only sent if the network time is known */
+    public String msgNetTime() {
+        if (bc != null) {
+            NetworkTime t = bc.getNetworkTime();
+            if (t.isSynchronised()) {
+                return String.format("N%08x", t.toNetwork(SystemClock.elapsedRealtime()) & 0xffffffffL);
+            }
+        }
+        return "";
+    }
+
     public String msgFull() {
-        String s = msgScore() + msgClock() + msgPriority() + msgCard() + msgPassivity();
+        String s = msgScore() + msgClock() + msgPriority() + msgCard() + msgPassivity() + msgClockRunning() + msgNetTime();
         if (C.DEBUG) {
             Log.d(TAG, "msgFull " + s);
         }
@@ -2260,45 +2855,19 @@ public class FencingBoxActivity extends AppCompatActivity
         }
     }
 
-    public void startTxFull() {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                if (C.DEBUGNET) {
-                    Log.d(TAG, "Starting TX send thread");
-                }
-                for (;;) {
-                    try {
-                        if (C.DEBUGNET) {
-                            Log.d(TAG, "Start full TX, bc " +
-                                    bc + ", serial connected " + serialConnected +
-                                    "box info " + box);
-                        }
-                        if (bc != null) {
-                            /* Only send messages in bout mode */
-                            if (serialConnected == Connected.True) {
-                                String msg = msgFull();
-                                if (C.DEBUGNET) {
-                                    Log.d(TAG, "TX message " + msg);
-                                }
-                                if (useBroadcast) {
-                                    synchronized (bc) {
-                                        bc.send(msg);
-                                    }
-                                } else {
-                                    synchronized (bc) {
-                                        bc.send(msg);
-                                    }
-                                }
-                            }
-                        }
-                        Thread.sleep(C.TX_INTERVAL);
-                    } catch (Exception e) {
-                        Log.e(TAG, "Unable to send full broadcast message");
-                    }
-                }
-            }
-        }).start();
+    public int getPiste() {
+        return box.piste;
+    }
+
+    public TxRateProfile.Phase getTxPhase(TxRateProfile txRate) {
+        long now = SystemClock.elapsedRealtime();
+        TxRateProfile.Phase phase = txRate.getPhase(box, serialConnected == Connected.True, now);
+
+        /* Between bouts with nothing happening, send at the idle rate */
+        if (phase == TxRateProfile.Phase.Break && idle != null && idle.isIdle(now)) {
+            phase = TxRateProfile.Phase.Idle;
+        }
+        return phase;
     }
 
     /*
@@ -5,8 +5,10 @@ import android.graphics.Typeface;
 import android.os.Build;
 import android.util.Log;
 import android.util.TypedValue;
+import android.view.Choreographer;
 import android.view.Gravity;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.WindowInsets;
 import android.view.WindowInsetsController;
 import android.widget.ImageView;
@@ -24,9 +26,10 @@ import com.robinterry.constants.C;
 public class FencingBoxDisplay {
     private Box box;
     public static final String TAG = FencingBoxDisplay.class.getSimpleName();
-    public TextView textScore, textScoreA, textScoreB, textClock;
+    public DigitView textScore, textScoreA, textScoreB, textClock;
     public TextView priorityA, priorityB;
-    public TextView passivityClock, batteryLevel, time;
+    public DigitView passivityClock;
+    public TextView batteryLevel, time;
     public TextView period;
     public TextView[][] passCard = new TextView[][]{ { null, null }, { null, null } };
     private ImageView muteIcon;
@@ -48,8 +51,108 @@ public class FencingBoxDisplay {
     private ActivityMainBinding portBinding = null;
     private ActivityMainLandBinding landBinding = null;
 
-    private HitLightView hitLightA, hitLightB;
-    private CardLightView cardLightA, cardLightB;
+    private ScoreboardView scoreboard;
+
+    /* Changes to the display are not made to the views straight away - they
+       are written to the pending state, and all of the changes since the last
+       frame are applied together at the start of the next frame. So a hit
+       which changes the lights, score and cards together is one message to
+       the UI thread and one layout and draw, rather than one for each part */
+    private static final int DIRTY_CLOCK = 0x0001;
+    private static final int DIRTY_SCORE = 0x0002;
+    private static final int DIRTY_HIT = 0x0004;
+    private static final int DIRTY_PRIORITY = 0x0008;
+    private static final int DIRTY_PROGRESS = 0x0010;
+    private static final int DIRTY_CARD_A = 0x0020;
+    private static final int DIRTY_CARD_B = 0x0040;
+    private static final int DIRTY_PCARD_A = 0x0080;
+    private static final int DIRTY_PCARD_B = 0x0100;
+    private static final int DIRTY_PASSIVITY = 0x0200;
+    private static final int DIRTY_PASSIVITY_COLOR = 0x0400;
+    private static final int DIRTY_PERIOD = 0x0800;
+    private static final int DIRTY_BATTERY = 0x1000;
+    private static final int DIRTY_MUTE = 0x2000;
+    private static final int DIRTY_ONLINE = 0x4000;
+    private static final int DIRTY_VIBRATE = 0x8000;
+    private static final int DIRTY_TIME = 0x10000;
+
+    private enum PassivityStyle { Clock, Piste, Blank };
+
+    /* What the views show */
+    private static class ViewState {
+        /* The clock is shown as clockLeft, clockSep (if not 0), clockRight */
+        String clockLeft, clockRight;
+        char clockSep;
+        int clockColor = Color.GREEN;
+        boolean scoreShown = false;
+        String scoreA, scoreB;
+        Box.Hit hitA = Box.Hit.None, hitB = Box.Hit.None;
+        int progressVisibility = View.INVISIBLE;
+        boolean priA = false, priB = false;
+        boolean[] cardYellow = new boolean[2];
+        boolean[] cardRed = new boolean[2];
+        boolean[] cardShort = new boolean[2];
+        PassivityCard[] pCard = new PassivityCard[] { PassivityCard.None, PassivityCard.None };
+        PassivityStyle passivityStyle = PassivityStyle.Blank;
+        String passivityText;
+        int passivityColor = Color.GREEN;
+        String periodText;
+        int periodColor = Color.BLACK;
+        String batteryText;
+        int batteryColor = Color.WHITE;
+        boolean muted = false, online = false, vibrating = false;
+        String timeText;
+
+        void copyFrom(ViewState s) {
+            clockLeft = s.clockLeft;
+            clockRight = s.clockRight;
+            clockSep = s.clockSep;
+            clockColor = s.clockColor;
+            scoreShown = s.scoreShown;
+            scoreA = s.scoreA;
+            scoreB = s.scoreB;
+            hitA = s.hitA;
+            hitB = s.hitB;
+            progressVisibility = s.progressVisibility;
+            priA = s.priA;
+            priB = s.priB;
+            for (int i = 0; i < 2; i++) {
+                cardYellow[i] = s.cardYellow[i];
+                cardRed[i] = s.cardRed[i];
+                cardShort[i] = s.cardShort[i];
+                pCard[i] = s.pCard[i];
+            }
+            passivityStyle = s.passivityStyle;
+            passivityText = s.passivityText;
+            passivityColor = s.passivityColor;
+            periodText = s.periodText;
+            periodColor = s.periodColor;
+            batteryText = s.batteryText;
+            batteryColor = s.batteryColor;
+            muted = s.muted;
+            online = s.online;
+            vibrating = s.vibrating;
+            timeText = s.timeText;
+        }
+    }
+
+    /* Written from any thread, with 'pending' locked */
+    private final ViewState pending = new ViewState();
+    /* Only used on the UI thread */
+    private final ViewState shown = new ViewState();
+    /* Parts changed since the last frame, and parts ever changed */
+    private int dirty = 0, written = 0;
+    private boolean framePosted = false;
+    /* When the first change since the last frame was made, for the frame stats */
+    private long changedNanos = 0;
+    private FrameStats frameStats = null;
+    private final Choreographer choreographer;
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            applyChanges();
+        }
+    };
 
     public FencingBoxDisplay(FencingBoxActivity mainActivity,
                              Box box,
@@ -64,7 +167,10 @@ public class FencingBoxDisplay {
         this.orientation = orientation;
         this.portBinding = portBinding;
         this.landBinding = landBinding;
-        this.digitalTypeFace = Typeface.createFromAsset(mainActivity.getAssets(), "font/DSEG7Classic-Bold.ttf");
+        this.digitalTypeFace = Typefaces.digital(mainActivity);
+
+        /* This is created on the UI thread, so this is its choreographer */
+        this.choreographer = Choreographer.getInstance();
 
         // Set up the display
         setupText(this.box, this.orientation);
@@ -93,12 +199,7 @@ public class FencingBoxDisplay {
     public boolean isUIVisible() { return visibleUI; }
 
     public void setupText(Box box, ConstraintLayout layout, FencingBoxActivity.Orientation orient) {
-        hitLightA.setLayout(layout);
-        hitLightB.setLayout(layout);
-        cardLightA.setLayout(layout);
-        cardLightB.setLayout(layout);
-        layout.setBackgroundColor(Color.BLACK);
-        layout.setSystemUiVisibility(View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN | View.SYSTEM_UI_FLAG_LAYOUT_STABLE);
+        this.layout = layout;
         setupText(box, orient);
     }
 
@@ -125,112 +226,140 @@ public class FencingBoxDisplay {
         mainActivity.runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                switch (orientation) {
-                    case Landscape:
-                        textScoreA = landBinding.textScoreAL;
-                        textScoreB = landBinding.textScoreBL;
-                        textScoreA.setGravity(Gravity.CENTER);
-                        textScoreB.setGravity(Gravity.CENTER);
-                        textClock = landBinding.textClockL;
-                        textClock.setGravity(Gravity.CENTER);
-                        period = landBinding.periodL;
-                        period.setGravity(Gravity.CENTER);
-                        priorityA = landBinding.priorityAL;
-                        priorityB = landBinding.priorityBL;
-                        passivityClock = landBinding.passivityClockL;
-                        batteryLevel = landBinding.batteryLevelL;
-                        time = landBinding.timeL;
-                        passCard[0][0] = landBinding.pCardA1L;
-                        passCard[0][1] = landBinding.pCardA2L;
-                        passCard[1][0] = landBinding.pCardB1L;
-                        passCard[1][1] = landBinding.pCardB2L;
-                        muteIcon = (ImageView) landBinding.iconMuteL;
-                        onlineIcon = (ImageView) landBinding.iconOnlineL;
-                        vibrateIcon = (ImageView) landBinding.iconVibrateL;
-                        progress = landBinding.priorityChooseL;
-                        break;
-
-                    case Portrait:
-                        textScore = portBinding.textScore;
-                        textScore.setGravity(Gravity.CENTER);
-                        textClock = portBinding.textClock;
-                        textClock.setGravity(Gravity.CENTER);
-                        period = portBinding.period;
-                        period.setGravity(Gravity.CENTER);
-                        priorityA = portBinding.priorityA;
-                        priorityB = portBinding.priorityB;
-                        passivityClock = portBinding.passivityClock;
-                        batteryLevel = portBinding.batteryLevel;
-                        time = portBinding.time;
-                        passCard[0][0] = portBinding.pCardA1;
-                        passCard[0][1] = portBinding.pCardA2;
-                        passCard[1][0] = portBinding.pCardB1;
-                        passCard[1][1] = portBinding.pCardB2;
-                        muteIcon = (ImageView) portBinding.iconMute;
-                        onlineIcon = (ImageView) portBinding.iconOnline;
-                        vibrateIcon = (ImageView) portBinding.iconVibrate;
-                        progress = portBinding.priorityChoose;
-                        break;
-
-                    default:
-                        break;
+                /* Set up the views of both layouts, so that rotating only has to swap them */
+                for (Orientation o : new Orientation[] { Orientation.Landscape, Orientation.Portrait }) {
+                    bindViews(o);
+                    styleViews(o);
                 }
-                try {
-                    switch (orientation) {
-                        case Landscape:
-                            textScoreA.setTypeface(face);
-                            textScoreA.setTextSize(TypedValue.COMPLEX_UNIT_SP, faceSize);
-                            textScoreA.setTextColor(Color.RED);
-                            textScoreB.setTypeface(face);
-                            textScoreB.setTextSize(TypedValue.COMPLEX_UNIT_SP, faceSize);
-                            textScoreB.setTextColor(Color.RED);
-                            period.setTextSize(TypedValue.COMPLEX_UNIT_SP, 64);
-                            break;
-
-                        case Portrait:
-                            textScore.setTypeface(face);
-                            textScore.setTextSize(TypedValue.COMPLEX_UNIT_SP, faceSize);
-                            textScore.setTextColor(Color.RED);
-                            textScore.setBackgroundColor(Color.BLACK);
-                            period.setTextSize(TypedValue.COMPLEX_UNIT_SP, 48);
-                            break;
-
-                        default:
-                            break;
-                    }
-                    textClock.setTypeface(face);
-                    textClock.setTextSize(TypedValue.COMPLEX_UNIT_SP, faceSize);
-                    textClock.setTextColor(Color.GREEN);
-                    textClock.setBackgroundColor(Color.BLACK);
+                bindViews(orientation);
 
-                    period.setTypeface(face);
-                    period.setTextColor(Color.BLACK);
-                    period.setBackgroundColor(Color.BLACK);
+                /* The views may have changed, so show everything on them again */
+                refresh();
+            }
+        });
+    }
 
-                    setPassivityClockColor(Color.GREEN);
-                    passivityClock.setTypeface(face);
-                    passivityClock.setGravity(Gravity.TOP);
-                    
-                    batteryLevel.setTextColor(Color.WHITE);
-                    batteryLevel.setGravity(Gravity.CENTER);
-                    priorityA.setTextColor(Color.BLACK);
-                    priorityA.setGravity(Gravity.CENTER);
-                    priorityB.setTextColor(Color.BLACK);
-                    priorityB.setGravity(Gravity.CENTER);
-                    time.setTextColor(Color.WHITE);
-                    time.setGravity(Gravity.CENTER);
-                    for (int i = 0; i < 2; i++) {
-                        for (int j = 0; j < 2; j++) {
-                            passCard[i][j].setTypeface(null, Typeface.BOLD);
-                            passCard[i][j].setTextColor(Color.BLACK);
-                            passCard[i][j].setGravity(Gravity.CENTER);
-                        }
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "unable to find font " + e);
+    /* Rotate to the layout for the orientation, which is already set up, and
+       show everything on it before the next frame, so the first frame drawn
+       in the new orientation is complete. Called on the UI thread. */
+    public void setOrientation(ConstraintLayout layout, FencingBoxActivity.Orientation orient) {
+        this.layout = layout;
+        orientation = orient;
+        bindViews(orient);
+        refresh();
+        applyChanges();
+    }
+
+    /* Point the view fields at the views of the layout for the orientation */
+    private void bindViews(FencingBoxActivity.Orientation orient) {
+        switch (orient) {
+            case Landscape:
+                textScoreA = landBinding.textScoreAL;
+                textScoreB = landBinding.textScoreBL;
+                textClock = landBinding.textClockL;
+                period = landBinding.periodL;
+                priorityA = landBinding.priorityAL;
+                priorityB = landBinding.priorityBL;
+                passivityClock = landBinding.passivityClockL;
+                batteryLevel = landBinding.batteryLevelL;
+                time = landBinding.timeL;
+                passCard[0][0] = landBinding.pCardA1L;
+                passCard[0][1] = landBinding.pCardA2L;
+                passCard[1][0] = landBinding.pCardB1L;
+                passCard[1][1] = landBinding.pCardB2L;
+                muteIcon = (ImageView) landBinding.iconMuteL;
+                onlineIcon = (ImageView) landBinding.iconOnlineL;
+                vibrateIcon = (ImageView) landBinding.iconVibrateL;
+                progress = landBinding.priorityChooseL;
+                break;
+
+            case Portrait:
+                textScore = portBinding.textScore;
+                textClock = portBinding.textClock;
+                period = portBinding.period;
+                priorityA = portBinding.priorityA;
+                priorityB = portBinding.priorityB;
+                passivityClock = portBinding.passivityClock;
+                batteryLevel = portBinding.batteryLevel;
+                time = portBinding.time;
+                passCard[0][0] = portBinding.pCardA1;
+                passCard[0][1] = portBinding.pCardA2;
+                passCard[1][0] = portBinding.pCardB1;
+                passCard[1][1] = portBinding.pCardB2;
+                muteIcon = (ImageView) portBinding.iconMute;
+                onlineIcon = (ImageView) portBinding.iconOnline;
+                vibrateIcon = (ImageView) portBinding.iconVibrate;
+                progress = portBinding.priorityChoose;
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private void styleViews(FencingBoxActivity.Orientation orient) {
+        ConstraintLayout root = (orient == Orientation.Landscape) ? landBinding.getRoot() : portBinding.getRoot();
+        root.setBackgroundColor(Color.BLACK);
+        root.setSystemUiVisibility(View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN | View.SYSTEM_UI_FLAG_LAYOUT_STABLE);
+        try {
+            switch (orient) {
+                case Landscape:
+                    textScoreA.setGravity(Gravity.CENTER);
+                    textScoreB.setGravity(Gravity.CENTER);
+                    textScoreA.setTypeface(face);
+                    textScoreA.setTextSize(TypedValue.COMPLEX_UNIT_SP, faceSize);
+                    textScoreA.setTextColor(Color.RED);
+                    textScoreB.setTypeface(face);
+                    textScoreB.setTextSize(TypedValue.COMPLEX_UNIT_SP, faceSize);
+                    textScoreB.setTextColor(Color.RED);
+                    period.setTextSize(TypedValue.COMPLEX_UNIT_SP, 64);
+                    break;
+
+                case Portrait:
+                    textScore.setGravity(Gravity.CENTER);
+                    textScore.setTypeface(face);
+                    textScore.setTextSize(TypedValue.COMPLEX_UNIT_SP, faceSize);
+                    textScore.setTextColor(Color.RED);
+                    textScore.setBackgroundColor(Color.BLACK);
+                    period.setTextSize(TypedValue.COMPLEX_UNIT_SP, 48);
+                    break;
+
+                default:
+                    break;
+            }
+            textClock.setGravity(Gravity.CENTER);
+            textClock.setTypeface(face);
+            textClock.setTextSize(TypedValue.COMPLEX_UNIT_SP, faceSize);
+            textClock.setTextColor(Color.GREEN);
+            textClock.setBackgroundColor(Color.BLACK);
+
+            period.setGravity(Gravity.CENTER);
+            period.setTypeface(face);
+            period.setTextColor(Color.BLACK);
+            period.setBackgroundColor(Color.BLACK);
+
+            setPassivityClockColor(Color.GREEN);
+            passivityClock.setTypeface(face);
+            passivityClock.setGravity(Gravity.TOP);
+            
+            batteryLevel.setTextColor(Color.WHITE);
+            batteryLevel.setGravity(Gravity.CENTER);
+            priorityA.setTextColor(Color.BLACK);
+            priorityA.setGravity(Gravity.CENTER);
+            priorityB.setTextColor(Color.BLACK);
+            priorityB.setGravity(Gravity.CENTER);
+            time.setTextColor(Color.WHITE);
+            time.setGravity(Gravity.CENTER);
+            for (int i = 0; i < 2; i++) {
+                for (int j = 0; j < 2; j++) {
+                    passCard[i][j].setTypeface(null, Typeface.BOLD);
+                    passCard[i][j].setTextColor(Color.BLACK);
+                    passCard[i][j].setGravity(Gravity.CENTER);
                 }
             }
-        });
+        } catch (Exception e) {
+            Log.e(TAG, "unable to find font " + e);
+        }
     }
 
     public void hideUI() {
@@ -297,8 +426,11 @@ public class FencingBoxDisplay {
     }
 
     public void displayHitLights(Box.Hit h_A, Box.Hit h_B) {
-        hitLightA.showLights(h_A);
-        hitLightB.showLights(h_B);
+        synchronized (pending) {
+            pending.hitA = h_A;
+            pending.hitB = h_B;
+            change(DIRTY_HIT);
+        }
     }
 
     public void displayScore(String scoreA, String scoreB) {
@@ -306,58 +438,33 @@ public class FencingBoxDisplay {
     }
 
     public void displayScore(String scoreA, String scoreB, boolean scoreHidden) {
-        String score = scoreA + " " + scoreB;
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (scoreHidden) {
-                    clearScore(orientation);
-                } else if (box.isModeStopwatch()) {
-                    clearScore(orientation);
-                } else if (orientation == FencingBoxActivity.Orientation.Landscape) {
-                    textScoreA.setTextColor(Color.RED);
-                    textScoreA.setText(scoreA);
-                    textScoreB.setTextColor(Color.RED);
-                    textScoreB.setText(scoreB);
-                } else {
-                    textScore.setTextColor(Color.RED);
-                    textScore.setText(score);
-                }
+        if (scoreHidden || box.isModeStopwatch()) {
+            clearScore(orientation);
+        } else {
+            synchronized (pending) {
+                pending.scoreShown = true;
+                pending.scoreA = scoreA;
+                pending.scoreB = scoreB;
+                change(DIRTY_SCORE);
             }
-        });
+        }
     }
 
     public void clearScore(FencingBoxActivity.Orientation orient) {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (orientation == FencingBoxActivity.Orientation.Landscape) {
-                    textScoreA.setTextColor(Color.BLACK);
-                    textScoreB.setTextColor(Color.BLACK);
-                    textScoreA.setText("--");
-                    textScoreB.setText("--");
-                } else {
-                    textScore.setTextColor(Color.BLACK);
-                    textScore.setText("----");
-                }
-            }
-        });
+        synchronized (pending) {
+            pending.scoreShown = false;
+            change(DIRTY_SCORE);
+        }
     }
 
     public void displayClock(String timeMins, String timeSecs, String timeHund, boolean hundActive) {
-        String clock;
-        if (hundActive) {
-            clock = timeSecs + ":" + timeHund;
-        } else {
-            clock = timeMins + ":" + timeSecs;
+        synchronized (pending) {
+            pending.clockLeft = hundActive ? timeSecs : timeMins;
+            pending.clockRight = hundActive ? timeHund : timeSecs;
+            pending.clockSep = ':';
+            pending.clockColor = Color.GREEN;
+            change(DIRTY_CLOCK);
         }
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                textClock.setTextColor(Color.GREEN);
-                textClock.setText(clock);
-            }
-        });
     }
 
     public void displayPeriod(int per) {
@@ -366,24 +473,29 @@ public class FencingBoxDisplay {
         if (mainActivity.actionBar.isShowing() && orientation == Orientation.Landscape) {
             blankPeriod();
         } else {
-            period.setTextColor(Color.YELLOW);
-            period.setText(String.format("%d", per));
+            synchronized (pending) {
+                pending.periodText = String.format("%d", per);
+                pending.periodColor = Color.YELLOW;
+                change(DIRTY_PERIOD);
+            }
         }
     }
 
     public void blankPeriod() {
-        period.setTextColor(Color.BLACK);
-        period.setText("-");
+        synchronized (pending) {
+            pending.periodText = "-";
+            pending.periodColor = Color.BLACK;
+            change(DIRTY_PERIOD);
+        }
     }
 
     public void clearClock(int color) {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                textClock.setTextColor(color);
-                textClock.setText("----");
-            }
-        });
+        synchronized (pending) {
+            pending.clockLeft = pending.clockRight = "--";
+            pending.clockSep = 0;
+            pending.clockColor = color;
+            change(DIRTY_CLOCK);
+        }
     }
 
     public void displayCard(String whichFencer, Integer card) {
@@ -403,176 +515,129 @@ public class FencingBoxDisplay {
     }
 
     public void displayCardA(boolean yellowCard, boolean redCard, boolean shortCircuit) {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                cardLightA.showYellow(yellowCard);
-                cardLightA.showRed(redCard);
-                cardLightA.showShortCircuit(shortCircuit);
-            }
-        });
+        displayCard(0, yellowCard, redCard, shortCircuit);
     }
 
     public void displayCardB(boolean yellowCard, boolean redCard, boolean shortCircuit) {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                cardLightB.showYellow(yellowCard);
-                cardLightB.showRed(redCard);
-                cardLightB.showShortCircuit(shortCircuit);
-            }
-        });
+        displayCard(1, yellowCard, redCard, shortCircuit);
+    }
+
+    private void displayCard(int fencer, boolean yellowCard, boolean redCard, boolean shortCircuit) {
+        synchronized (pending) {
+            pending.cardYellow[fencer] = yellowCard;
+            pending.cardRed[fencer] = redCard;
+            pending.cardShort[fencer] = shortCircuit;
+            change(DIRTY_CARD_A << fencer);
+        }
     }
 
     public void displayPriority(boolean priIndicator, boolean priA, boolean priB) {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (C.DEBUG) {
-                    Log.d(TAG, "priority indicator " + priIndicator
-                            + ", fencer A " + priA + ", fencer B " + priB);
-                }
-                setProgressBarVisibility(priIndicator ? View.VISIBLE:View.INVISIBLE);
-                priorityA.setTextColor(priA ? Color.RED : Color.BLACK);
-                priorityB.setTextColor(priB ? Color.RED : Color.BLACK);
-            }
-        });
+        if (C.DEBUG) {
+            Log.d(TAG, "priority indicator " + priIndicator
+                    + ", fencer A " + priA + ", fencer B " + priB);
+        }
+        synchronized (pending) {
+            pending.progressVisibility = priIndicator ? View.VISIBLE:View.INVISIBLE;
+            pending.priA = priA;
+            pending.priB = priB;
+            change(DIRTY_PRIORITY | DIRTY_PROGRESS);
+        }
     }
 
     public void displayPassivityAsClock(int pClock) {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                passivityClock.setTypeface(face, Typeface.NORMAL);
-                passivityClock.setTextSize(TypedValue.COMPLEX_UNIT_SP, 24);
-                passivityClock.setText(String.format("%02d", pClock));
-            }
-        });
+        synchronized (pending) {
+            pending.passivityStyle = PassivityStyle.Clock;
+            pending.passivityText = FrameParser.twoDigits(pClock);
+            change(DIRTY_PASSIVITY);
+        }
     }
 
     public void displayPassivityAsPiste(Box b) {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                passivityClock.setTypeface(null, Typeface.BOLD_ITALIC);
-                passivityClock.setTextSize(TypedValue.COMPLEX_UNIT_SP, 32);
-                passivityClock.setTextColor(b.rxOk ? Color.WHITE:Color.RED);
-                passivityClock.setText(b.piste.toString());
-            }
-        });
+        synchronized (pending) {
+            pending.passivityStyle = PassivityStyle.Piste;
+            pending.passivityText = b.piste.toString();
+            pending.passivityColor = b.rxOk ? Color.WHITE:Color.RED;
+            change(DIRTY_PASSIVITY | DIRTY_PASSIVITY_COLOR);
+        }
     }
 
     public void blankPassivityClock() {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                passivityClock.setTypeface(face);
-                passivityClock.setText("--");
-            }
-        });
+        synchronized (pending) {
+            pending.passivityStyle = PassivityStyle.Blank;
+            pending.passivityText = "--";
+            change(DIRTY_PASSIVITY);
+        }
     }
 
     public void setPassivityClockColor(int color) {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                passivityClock.setTextColor(color);
-            }
-        });
+        synchronized (pending) {
+            pending.passivityColor = color;
+            change(DIRTY_PASSIVITY_COLOR);
+        }
     }
 
     public void setProgressBarVisibility(int visibility) {
-        if (progress != null) {
-            mainActivity.runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    progress.setVisibility(visibility);
-                }
-            });
+        synchronized (pending) {
+            pending.progressVisibility = visibility;
+            change(DIRTY_PROGRESS);
         }
     }
 
-    public void createLights() {
-        try {
-            hitLightA = new HitLightView(mainActivity, layout, HitLightView.HitLight.HitA, Color.RED);
-        } catch (Exception e) {
-            Log.e(TAG, "Unable to open hit light A view " + e);
-        }
+    /* The lights go over both layouts, so they stay put when the layouts are swapped */
+    public void createLights(ViewGroup parent) {
         try {
-            hitLightB = new HitLightView(mainActivity, layout, HitLightView.HitLight.HitB, Color.GREEN);
+            scoreboard = new ScoreboardView(mainActivity, parent);
         } catch (Exception e) {
-            Log.e(TAG, "Unable to open hit light B view " + e);
-        }
-        try {
-            cardLightA = new CardLightView(mainActivity, layout, CardLightView.CardLight.CardA);
-        } catch (Exception e) {
-            Log.e(TAG, "Unable to open card light A view " + e);
-        }
-        try {
-            cardLightB = new CardLightView(mainActivity, layout, CardLightView.CardLight.CardB);
-        } catch (Exception e) {
-            Log.e(TAG, "Unable to open card box B view " + e);
+            Log.e(TAG, "Unable to open scoreboard view " + e);
         }
     }
 
     public void setBatteryLevel(int batteryLvl, boolean batteryDangerFlash) {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (batteryLvl >= 0 && batteryLvl <= 100) {
-                    batteryLevel.setTextColor(batteryDangerFlash ? Color.BLACK : Color.WHITE);
-                    batteryLevel.setText(String.valueOf(batteryLvl) + "%");
-                } else {
-                    batteryLevel.setTextColor(Color.BLACK);
-                    batteryLevel.setText("----");
-                }
+        synchronized (pending) {
+            if (batteryLvl >= 0 && batteryLvl <= 100) {
+                pending.batteryColor = batteryDangerFlash ? Color.BLACK : Color.WHITE;
+                pending.batteryText = String.valueOf(batteryLvl) + "%";
+            } else {
+                pending.batteryColor = Color.BLACK;
+                pending.batteryText = "----";
             }
-        });
+            change(DIRTY_BATTERY);
+        }
     }
 
     public void blankBatteryLevel() {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                batteryLevel.setTextColor(Color.BLACK);
-            }
-        });
+        synchronized (pending) {
+            pending.batteryColor = Color.BLACK;
+            change(DIRTY_BATTERY);
+        }
     }
 
     public void setVolumeMuted(boolean muted) {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                muteIcon.setVisibility(muted ? View.VISIBLE:View.INVISIBLE);
-            }
-        });
+        synchronized (pending) {
+            pending.muted = muted;
+            change(DIRTY_MUTE);
+        }
     }
 
     public void setOnline(boolean online) {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                onlineIcon.setVisibility(online ? View.VISIBLE:View.INVISIBLE);
-            }
-        });
+        synchronized (pending) {
+            pending.online = online;
+            change(DIRTY_ONLINE);
+        }
     }
 
     public void setVibrate(boolean vibrating) {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                vibrateIcon.setVisibility(vibrating ? View.VISIBLE:View.INVISIBLE);
-            }
-        });
+        synchronized (pending) {
+            pending.vibrating = vibrating;
+            change(DIRTY_VIBRATE);
+        }
     }
 
     public void setTime(String currentTime) {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                time.setText(currentTime);
-            }
-        });
+        synchronized (pending) {
+            pending.timeText = currentTime;
+            change(DIRTY_TIME);
+        }
     }
 
     public void displayPassivityCard(Box box, int fencer) {
@@ -580,68 +645,58 @@ public class FencingBoxDisplay {
     }
 
     public void displayPassivityCard(Box box, int fencer, PassivityCard pCard) {
-        mainActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                switch (pCard) {
-                    case None:
-                        passCard[fencer][0].setTextColor(Color.BLACK);
-                        passCard[fencer][0].setBackgroundColor(Color.BLACK);
-                        passCard[fencer][0].setText("-");
-                        passCard[fencer][1].setTextColor(Color.BLACK);
-                        passCard[fencer][1].setBackgroundColor(Color.BLACK);
-                        passCard[fencer][1].setText("-");
-                        break;
-                    case Yellow:
-                        passCard[fencer][0].setTextColor(Color.YELLOW);
-                        passCard[fencer][0].setBackgroundColor(Color.YELLOW);
-                        passCard[fencer][0].setText("1");
-                        passCard[fencer][1].setTextColor(Color.BLACK);
-                        passCard[fencer][1].setBackgroundColor(Color.BLACK);
-                        passCard[fencer][1].setText("-");
-                        break;
-                    case Red1:
-                        passCard[fencer][0].setTextColor(Color.RED);
-                        passCard[fencer][0].setBackgroundColor(Color.RED);
-                        passCard[fencer][0].setText("1");
-                        passCard[fencer][1].setTextColor(Color.BLACK);
-                        passCard[fencer][1].setBackgroundColor(Color.BLACK);
-                        passCard[fencer][1].setText("-");
-                        break;
-                    case Red2:
-                        passCard[fencer][0].setTextColor(Color.RED);
-                        passCard[fencer][0].setBackgroundColor(Color.RED);
-                        passCard[fencer][0].setText("1");
-                        passCard[fencer][1].setTextColor(Color.RED);
-                        passCard[fencer][1].setBackgroundColor(Color.RED);
-                        passCard[fencer][1].setText("2");
-                        break;
-                    default:
-                        break;
-                }
-            }
-        });
+        synchronized (pending) {
+            pending.pCard[fencer] = pCard;
+            change(DIRTY_PCARD_A << fencer);
+        }
     }
 
     public void displayBox(Box box) {
-        synchronized (this) {
+        displayBox(box, Box.CHANGED_ALL);
+    }
+
+    /* Display only the parts of the box which have changed */
+    public void displayBox(Box box, int changes) {
+        /* Hold the pending state for the whole box, so that it is
+           all shown on the same frame */
+        synchronized (pending) {
             if (box.rxOk && !box.isModeWeaponTest()) {
-                displayClock(box.timeMins, box.timeSecs, box.timeHund, false);
-                displayScore(box.scoreA, box.scoreB);
-                displayHitLights(box.hitA, box.hitB);
-                displayPriority(box.priIndicator, box.priA, box.priB);
-                displayCard("0", box.cardA);
-                displayCard("1", box.cardB);
-                displayPassivityCard(box, 0, box.pCard[0]);
-                displayPassivityCard(box, 1, box.pCard[1]);
-                if (box.passivityActive) {
-                    setPassivityClockColor(Color.GREEN);
-                    displayPassivityAsClock(box.passivityTimer);
-                } else {
-                    setPassivityClockColor(Color.WHITE);
-                    displayPassivityAsPiste(box);
+                if ((changes & Box.CHANGED_CLOCK) != 0) {
+                    displayClock(box.timeMins, box.timeSecs, box.timeHund, false);
+                }
+                if ((changes & Box.CHANGED_SCORE) != 0) {
+                    displayScore(box.scoreA, box.scoreB);
+                }
+                if ((changes & Box.CHANGED_HIT) != 0) {
+                    displayHitLights(box.hitA, box.hitB);
+                }
+                if ((changes & Box.CHANGED_PRIORITY) != 0) {
+                    displayPriority(box.priIndicator, box.priA, box.priB);
+                }
+                if ((changes & Box.CHANGED_CARD_A) != 0) {
+                    displayCard("0", box.cardA);
+                }
+                if ((changes & Box.CHANGED_CARD_B) != 0) {
+                    displayCard("1", box.cardB);
+                }
+                if ((changes & Box.CHANGED_PCARD_A) != 0) {
+                    displayPassivityCard(box, 0, box.pCard[0]);
+                }
+                if ((changes & Box.CHANGED_PCARD_B) != 0) {
+                    displayPassivityCard(box, 1, box.pCard[1]);
+                }
+                if ((changes & Box.CHANGED_PASSIVITY) != 0) {
+                    if (box.passivityActive) {
+                        setPassivityClockColor(Color.GREEN);
+                        displayPassivityAsClock(box.passivityTimer);
+                    } else {
+                        setPassivityClockColor(Color.WHITE);
+                        displayPassivityAsPiste(box);
+                    }
+                }
+                if ((changes & Box.CHANGED_PERIOD) != 0) {
+                    displayPeriod(box.period);
                 }
-                displayPeriod(box.period);
             } else {
                 displayClock("--", "--", "--", false);
                 displayScore("--", "--");
@@ -657,6 +712,162 @@ public class FencingBoxDisplay {
         }
     }
 
+    /* Called with the pending state locked */
+    private void change(int changes) {
+        dirty |= changes;
+        written |= changes;
+        if (!framePosted) {
+            framePosted = true;
+            changedNanos = System.nanoTime();
+            choreographer.postFrameCallback(frameCallback);
+        }
+    }
+
+    /* Count the time from each change to the frame which shows it, or stop if null */
+    public void setFrameStats(FrameStats stats) {
+        frameStats = stats;
+    }
+
+    /* Show everything again, such as when the views have been changed */
+    private void refresh() {
+        synchronized (pending) {
+            change(written);
+        }
+    }
+
+    /* Apply the changes made since the last frame to the views */
+    private void applyChanges() {
+        int changes;
+        synchronized (pending) {
+            changes = dirty;
+            dirty = 0;
+            framePosted = false;
+            shown.copyFrom(pending);
+        }
+        if (frameStats != null && changes != 0) {
+            frameStats.addLatency(System.nanoTime() - changedNanos);
+        }
+        if ((changes & DIRTY_CLOCK) != 0) {
+            textClock.setTextColor(shown.clockColor);
+            textClock.setText(shown.clockLeft, shown.clockSep, shown.clockRight);
+        }
+        if ((changes & DIRTY_SCORE) != 0) {
+            if (orientation == FencingBoxActivity.Orientation.Landscape) {
+                textScoreA.setTextColor(shown.scoreShown ? Color.RED : Color.BLACK);
+                textScoreA.setText(shown.scoreShown ? shown.scoreA : "--");
+                textScoreB.setTextColor(shown.scoreShown ? Color.RED : Color.BLACK);
+                textScoreB.setText(shown.scoreShown ? shown.scoreB : "--");
+            } else {
+                textScore.setTextColor(shown.scoreShown ? Color.RED : Color.BLACK);
+                if (shown.scoreShown) {
+                    textScore.setText(shown.scoreA, ' ', shown.scoreB);
+                } else {
+                    textScore.setText("----");
+                }
+            }
+        }
+        if ((changes & DIRTY_HIT) != 0) {
+            scoreboard.showHit(0, shown.hitA);
+            scoreboard.showHit(1, shown.hitB);
+        }
+        if ((changes & DIRTY_PROGRESS) != 0 && progress != null) {
+            progress.setVisibility(shown.progressVisibility);
+        }
+        if ((changes & DIRTY_PRIORITY) != 0) {
+            priorityA.setTextColor(shown.priA ? Color.RED : Color.BLACK);
+            priorityB.setTextColor(shown.priB ? Color.RED : Color.BLACK);
+        }
+        if ((changes & DIRTY_CARD_A) != 0) {
+            applyCard(0);
+        }
+        if ((changes & DIRTY_CARD_B) != 0) {
+            applyCard(1);
+        }
+        if ((changes & DIRTY_PCARD_A) != 0) {
+            applyPassivityCard(0);
+        }
+        if ((changes & DIRTY_PCARD_B) != 0) {
+            applyPassivityCard(1);
+        }
+        if ((changes & DIRTY_PASSIVITY) != 0) {
+            switch (shown.passivityStyle) {
+                case Clock:
+                    passivityClock.setTypeface(face, Typeface.NORMAL);
+                    passivityClock.setTextSize(TypedValue.COMPLEX_UNIT_SP, 24);
+                    break;
+
+                case Piste:
+                    passivityClock.setTypeface(null, Typeface.BOLD_ITALIC);
+                    passivityClock.setTextSize(TypedValue.COMPLEX_UNIT_SP, 32);
+                    break;
+
+                case Blank:
+                default:
+                    passivityClock.setTypeface(face);
+                    break;
+            }
+            passivityClock.setText(shown.passivityText);
+        }
+        if ((changes & DIRTY_PASSIVITY_COLOR) != 0) {
+            passivityClock.setTextColor(shown.passivityColor);
+        }
+        if ((changes & DIRTY_PERIOD) != 0) {
+            period.setTextColor(shown.periodColor);
+            period.setText(shown.periodText);
+        }
+        if ((changes & DIRTY_BATTERY) != 0) {
+            batteryLevel.setTextColor(shown.batteryColor);
+            if (shown.batteryText != null) {
+                batteryLevel.setText(shown.batteryText);
+            }
+        }
+        if ((changes & DIRTY_MUTE) != 0) {
+            muteIcon.setVisibility(shown.muted ? View.VISIBLE:View.INVISIBLE);
+        }
+        if ((changes & DIRTY_ONLINE) != 0) {
+            onlineIcon.setVisibility(shown.online ? View.VISIBLE:View.INVISIBLE);
+        }
+        if ((changes & DIRTY_VIBRATE) != 0) {
+            vibrateIcon.setVisibility(shown.vibrating ? View.VISIBLE:View.INVISIBLE);
+        }
+        if ((changes & DIRTY_TIME) != 0) {
+            time.setText(shown.timeText);
+        }
+    }
+
+    private void applyCard(int fencer) {
+        scoreboard.showCards(fencer, shown.cardYellow[fencer], shown.cardRed[fencer], shown.cardShort[fencer]);
+    }
+
+    private void applyPassivityCard(int fencer) {
+        int color1 = Color.BLACK, color2 = Color.BLACK;
+        String text1 = "-", text2 = "-";
+        switch (shown.pCard[fencer]) {
+            case None:
+            default:
+                break;
+            case Yellow:
+                color1 = Color.YELLOW;
+                text1 = "1";
+                break;
+            case Red1:
+                color1 = Color.RED;
+                text1 = "1";
+                break;
+            case Red2:
+                color1 = color2 = Color.RED;
+                text1 = "1";
+                text2 = "2";
+                break;
+        }
+        passCard[fencer][0].setTextColor(color1);
+        passCard[fencer][0].setBackgroundColor(color1);
+        passCard[fencer][0].setText(text1);
+        passCard[fencer][1].setTextColor(color2);
+        passCard[fencer][1].setBackgroundColor(color2);
+        passCard[fencer][1].setText(text2);
+    }
+
     public void setTypeface(Box box, FaceType type) {
         faceType = type;
 
@@ -0,0 +1,134 @@
+package com.robinterry.fencingboxapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.robinterry.constants.C;
+
+/* Hub (aggregator) for the network messages from every piste.
+
+   Any repeater or spare tablet can act as the hub. It takes in the
+   message from each piste, and periodically sends one aggregated
+   message containing the state of every piste, so that display clients
+   only need to process the hub messages rather than one stream per piste.
+
+   The hub message format is as follows:
+   #H|<seq>|<type>|<msg>~<msg>~...
+
+   where:
+   <seq> is 4 digits, 0-9999 inclusive, and incremented for each hub message
+   <type> is 'K' for a key message, containing every live piste, or
+          'D' for a delta message, containing only the pistes which have
+          changed since the previous hub message
+   <msg> is the most recent message received from a piste, unchanged
+
+   A delta message with no pistes is still sent, so that display clients
+   know that the hub is alive. If a key message is too long for one
+   datagram, it is split over several hub messages.
+
+   A key message sends the latest message from each piste again, with its
+   message index unchanged, so display clients take the pistes in hub messages
+   as relayed, and do not count a message seen again as a duplicate or the
+   messages left out of the delta messages as lost (see SequenceWindow). */
+
+@SuppressWarnings("ALL")
+public class FencingBoxHub {
+    public static final String MSG_HUB = "#H|";
+    public static final char KEY_FRAME = 'K';
+    public static final char DELTA_FRAME = 'D';
+    public static final char SEPARATOR = '~';
+    /* Offset of the first piste message in a hub message */
+    public static final int HEADER_LENGTH = 10;
+
+    private final String[] latest = new String[C.MAX_PISTE+1];
+    private final String[] sent = new String[C.MAX_PISTE+1];
+    private final long[] lastSeen = new long[C.MAX_PISTE+1];
+    private int seq = 0;
+    private int framesSinceKey = C.HUB_KEY_INTERVAL;
+
+    /* Returns the piste of a piste message, or 0 if it is not valid */
+    public static int pisteOf(String msg) {
+        try {
+            if (msg.length() > 7 && msg.charAt(4) == '|') {
+                int piste = Integer.parseInt(msg.substring(5, 7));
+                return (piste >= 1 && piste <= C.MAX_PISTE) ? piste : 0;
+            }
+        } catch (NumberFormatException e) {
+            /* Drop through */
+        }
+        return 0;
+    }
+
+    public synchronized void ingest(String msg, long now) {
+        int piste = pisteOf(msg);
+        if (piste > 0) {
+            latest[piste] = msg;
+            lastSeen[piste] = now;
+        }
+    }
+
+    private boolean isLive(int piste, long now) {
+        return latest[piste] != null && (now - lastSeen[piste]) < C.HUB_PISTE_TIMEOUT;
+    }
+
+    /* Bitmap of the pistes which the hub has heard from recently */
+    public synchronized long liveMask(long now) {
+        long mask = 0;
+        for (int piste = 1; piste <= C.MAX_PISTE; piste++) {
+            if (isLive(piste, now)) {
+                mask |= (1L << piste);
+            }
+        }
+        return mask;
+    }
+
+    /* Build the hub messages to send now - usually one */
+    public synchronized List<String> buildFrames(long now) {
+        List<String> frames = new ArrayList<String>();
+        boolean key = (++framesSinceKey >= C.HUB_KEY_INTERVAL);
+        if (key) {
+            framesSinceKey = 0;
+        }
+        StringBuilder frame = newFrame(key);
+        int entries = 0;
+        for (int piste = 1; piste <= C.MAX_PISTE; piste++) {
+            if (!isLive(piste, now)) {
+                sent[piste] = null;
+                continue;
+            }
+
+            /* The message index is left out of the comparison, as it
+               changes with every message even if nothing else does */
+            String body = latest[piste].substring(4);
+            if (!key && body.equals(sent[piste])) {
+                continue;
+            }
+            sent[piste] = body;
+            if (entries > 0 && frame.length() + 1 + latest[piste].length() > C.HUB_MAX_FRAME) {
+                frames.add(frame.toString());
+                frame = newFrame(key);
+                entries = 0;
+            }
+            if (entries > 0) {
+                frame.append(SEPARATOR);
+            }
+            frame.append(latest[piste]);
+            entries++;
+        }
+        frames.add(frame.toString());
+        return frames;
+    }
+
+    private StringBuilder newFrame(boolean key) {
+        if (++seq > C.MAX_MSGINDEX) {
+            seq = 0;
+        }
+        StringBuilder frame = new StringBuilder(C.HUB_MAX_FRAME);
+        frame.append(MSG_HUB)
+                .append(String.format("%04d", seq))
+                .append('|')
+                .append(key ? KEY_FRAME : DELTA_FRAME)
+                .append('|');
+        return frame;
+    }
+}
@@ -1,11 +1,15 @@
 package com.robinterry.fencingboxapp;
 
+import java.net.InetAddress;
 import java.text.NumberFormat;
-import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import android.content.Context;
 import android.os.Build;
+import android.os.SystemClock;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.util.Log;
@@ -16,27 +20,78 @@ import com.robinterry.constants.C;
 public class FencingBoxList {
     private static final String TAG = FencingBoxList.class.getSimpleName();
 
-    private final List<Box> boxList = new ArrayList<Box>() {
-        /* Override the add method to add boxes in piste order */
-        public boolean add(Box b) {
-            synchronized (this) {
-                for (Box c : boxList) {
-                    int i = boxList.indexOf(c);
-                    if (c.piste > b.piste) {
-                        super.add(i, b);
-                        return true;
-                    }
+    /* The boxes are held in an array indexed by piste, and the pistes which
+       have a box are held in a snapshot, which is replaced (never changed)
+       when a piste is added - so the UI can go through the pistes in order
+       without taking a lock, while the RX thread updates the boxes.
+
+       A box in the list is never changed either. Each message is parsed
+       into a box which only the RX thread uses, and only if something
+       shown has changed is a new box made from it and put in the list, so
+       anything which reads a box from the list sees all of one message. */
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(0);
+        public final long mask;
+        private final int[] pistes;
+
+        Snapshot(long mask) {
+            this.mask = mask;
+            this.pistes = new int[Long.bitCount(mask)];
+            int n = 0;
+            for (int piste = 1; piste <= C.MAX_PISTE; piste++) {
+                if ((mask & (1L << piste)) != 0) {
+                    pistes[n++] = piste;
                 }
             }
+        }
 
-            /* Add at end */
-            super.add(b);
-            return true;
+        public int size() {
+            return pistes.length;
         }
-    };
+
+        /* The piste at this position, in piste order */
+        public int piste(int i) throws IndexOutOfBoundsException {
+            return pistes[i];
+        }
+
+        /* The position of this piste, or -1 if there is no box for it */
+        public int indexOf(int piste) {
+            for (int i = 0; i < pistes.length; i++) {
+                if (pistes[i] == piste) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public boolean contains(int piste) {
+            return piste >= 1 && piste <= C.MAX_PISTE && (mask & (1L << piste)) != 0;
+        }
+    }
+
+    /* Told when a new box is put in the list, on the thread which put it there */
+    public interface Listener {
+        void onBoxChanged(int piste);
+    }
+
+    private final AtomicReferenceArray<Box> boxes = new AtomicReferenceArray<Box>(C.MAX_PISTE+1);
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private volatile int currentPiste = 0;
     private Integer myPiste = 0;
     private Box thisBox;
-    private int currentBoxIndex = 0;
+    /* The box each message is parsed into, only used under the lock */
+    private final Box rxBox = new Box();
+    private final InetAddress[] hostAddr = new InetAddress[C.MAX_PISTE+1];
+    private final String[] hostName = new String[C.MAX_PISTE+1];
+    private final SequenceWindow[] windows = new SequenceWindow[C.MAX_PISTE+1];
+    private final RemoteClock[] clocks = new RemoteClock[C.MAX_PISTE+1];
+    private final PisteStats[] stats = new PisteStats[C.MAX_PISTE+1];
+    private final long[] lastSeen = new long[C.MAX_PISTE+1];
+    private NetworkTime netTime = null;
+    private IdlePolicy idle = null;
+    /* Replaced (never changed) when a listener is added or removed, so that
+       it can be gone through for each message without a copy */
+    private volatile Listener[] listeners = new Listener[0];
     private FencingBoxActivity mainActivity;
 
     public FencingBoxList(FencingBoxActivity mainActivity, Box thisBox, Integer piste) {
@@ -49,330 +104,299 @@ public class FencingBoxList {
         myPiste = piste;
     }
 
-    public FencingBoxActivity.PassivityCard getPassivity(String c) {
-        if (c.contains("-")) {
-            return FencingBoxActivity.PassivityCard.None;
-        } else if (c.contains("0")) {
-            return FencingBoxActivity.PassivityCard.Yellow;
-        } else if (c.contains("1")) {
-            return FencingBoxActivity.PassivityCard.Red1;
-        } else if (c.contains("2")) {
-            return FencingBoxActivity.PassivityCard.Red2;
-        } else {
-            return FencingBoxActivity.PassivityCard.None;
-        }
+    /* The network time, so that the time each message takes can be worked out */
+    public void setNetworkTime(NetworkTime netTime) {
+        this.netTime = netTime;
+    }
+
+    /* A change to the piste being displayed is activity for the idle policy */
+    public void setIdlePolicy(IdlePolicy idle) {
+        this.idle = idle;
+    }
+
+    public synchronized void addListener(Listener l) {
+        Listener[] n = Arrays.copyOf(listeners, listeners.length + 1);
+        n[listeners.length] = l;
+        listeners = n;
+    }
+
+    public synchronized void removeListener(Listener l) {
+        List<Listener> n = new ArrayList<Listener>(Arrays.asList(listeners));
+        n.remove(l);
+        listeners = n.toArray(new Listener[n.size()]);
     }
 
-    public void updateBox(String msg, String host) {
-        /* Updates box data to the box list:
-
-           the message format is as follows:
-           <index>|<piste>|<period>|S<hitA><hitB><scoreA>:<scoreB>T<mins>:<secs>:<hund>C<cardA>:<cardB>P<priA>:<priB>V<pasvA>:<pasvB>
-
-           where:
-           <index> is 4 digits, 0-9999 inclusive, and incremented for each new message
-           <piste> is 2 digits, >= 1
-           <period> is 1 digit, 1-9
-           <hitA>, <hitB> are '-', 'h' for hit, 'o' for off-target
-           <scoreA>, <scoreB> are 2 digits
-           <mins> is 2-digit minutes
-           <secs> is 2-digit seconds
-           <hund> is 2-digit hundredths
-           <cardA>, <cardB> are three-character strings, one each for yellow, red and s/c:
-              '-' or 'y', '-' or 'r', '-' or 's'
-              <priA>, <priB> are '-', '?' or 'y' ('?' means that priority selection is active)
-           <pasvA>, <pasvB> are passivity card settings:
-              ('-', '0' (yellow), '1', (red-1), '2' (red-2))
-
-           an example is:
-           2345|01|1|Sh-:02:01T02:25:00P-:-Cy--:-r-V1:-
-
-        */
-        int offset = 0;
-
-        Box newBox = new Box();
-        if (C.DEBUG) {
-            Log.d(TAG, "Creating (" + myPiste + ") a new box " + newBox);
+    private void changed(int piste) {
+        for (Listener l : listeners) {
+            l.onBoxChanged(piste);
         }
-        try {
-            newBox.msgIndex = Integer.valueOf(msg.substring(offset, offset+4));
-            offset += 4;
-        } catch (NumberFormatException e) {
-            return;
+    }
+
+    /* The host address is only turned into a string when it changes */
+    private String hostOf(int piste, InetAddress addr) {
+        if (addr == null) {
+            return null;
         }
-        if (msg.charAt(offset) != '|') {
-            return;
+        if (hostName[piste] == null || !addr.equals(hostAddr[piste])) {
+            hostAddr[piste] = addr;
+            hostName[piste] = addr.getHostAddress();
         }
-        offset++;
-        try {
-            newBox.piste = Integer.valueOf(msg.substring(offset, offset+2));
-            offset += 2;
-        } catch (NumberFormatException e) {
+        return hostName[piste];
+    }
+
+    public void updateBox(byte[] buf, int off, int len, InetAddress addr) {
+        updateBox(buf, off, len, addr, false);
+    }
+
+    /* A message relayed by the hub may be one already received, sent again
+       in a key message - see SequenceWindow */
+    public void updateBox(byte[] buf, int off, int len, InetAddress addr, boolean relayed) {
+        updateBox(buf, off, len, addr, relayed, SystemClock.elapsedRealtime());
+    }
+
+    public void updateBox(byte[] buf, int off, int len, InetAddress addr, boolean relayed, long now) {
+        /* Updates box data to the box list - the message format is given in FrameParser */
+        int piste = FrameParser.pisteOf(buf, off, len);
+        if (piste == 0) {
             return;
         }
 
         /* Don't process this message if this is us, and we're connected to the box */
-        if (newBox.piste == myPiste && FencingBoxActivity.isSerialConnected()) {
+        if (piste == myPiste && FencingBoxActivity.isSerialConnected()) {
             if (C.DEBUG) {
                 Log.d(TAG, "Piste " + myPiste + " message received - ignore");
             }
             return;
         }
-        newBox.host = host;
-        if (msg.charAt(offset) != '|') {
-            return;
-        }
-        offset++;
-
-        /* Read the period (1-9) */
-        try {
-            newBox.period = Integer.valueOf(msg.substring(offset, offset+1));
-            offset++;
-        } catch (NumberFormatException e) {
-            return;
-        }
-        if (msg.charAt(offset) != '|') {
-            return;
-        }
-        offset++;
-        try {
-            if (msg.charAt(offset) != 'S') {
-                return;
-            }
-            offset++;
-
-            /* Read the hit part of the message */
-            String hA = msg.substring(offset, offset+1);
-            offset++;
-            String hB = msg.substring(offset, offset+1);
-            offset += 2;
-            switch (hA) {
-                case "h":
-                case "p":
-                    newBox.hitA = Box.Hit.OnTarget;
-                    break;
-                case "o":
-                    newBox.hitA = Box.Hit.OffTarget;
-                    break;
-                default:
-                    newBox.hitA = Box.Hit.None;
-                    break;
-            }
-            switch (hB) {
-                case "h":
-                case "p":
-                    newBox.hitB = Box.Hit.OnTarget;
-                    break;
-                case "o":
-                    newBox.hitB = Box.Hit.OffTarget;
-                    break;
-                default:
-                    newBox.hitB = Box.Hit.None;
-                    break;
-            }
 
-            /* Read the score part of the message */
-            newBox.scoreA = msg.substring(offset, offset+2);
-            offset += 3;
-            newBox.scoreB = msg.substring(offset, offset+2);
-            offset += 2;
-
-            /* Read clock */
-            if (msg.charAt(offset) != 'T') {
+        synchronized (this) {
+            /* Drop duplicate and late messages before the rest is parsed */
+            int index = FrameParser.indexOf(buf, off, len);
+            if (index < 0) {
                 return;
             }
-            offset++;
-
-            /* Read the clock part of the message */
-            String minStr = msg.substring(offset, offset+2);
-            offset += 3;
-            String secStr = msg.substring(offset, offset+2);
-            offset += 3;
-            String hundStr = msg.substring(offset, offset+2);
-            offset += 2;
-            if (C.QUANTISE_CLOCK) {
-                try {
-                    int mins = Integer.parseInt(minStr);
-                    int secs = Integer.parseInt(secStr);
-
-                    /* Round the seconds to the next highest multiple of the factor -
-                       if this is 60, then increment the minutes, and set seconds to 0 */
-
-                    /* Example (quantisation factor is 5):
-                       03:00 -> 03:00
-                       02:59 -> 03:00
-                       02:58 -> 03:00
-                       02:55 -> 02:55
-                       02:54 -> 02:55
-                       01:59 -> 02:00 */
-
-                    /* The reason for quantising is due to the message loss rate for
-                       multicast over Wifi - if we count down every second, the clock
-                       count as displayed looks very irregular due to lost messages.
-                       If we quantise the clock to more than one second (say 5) then the
-                       clock count looks less irregular, which is visually more acceptable */
-                    if (secs % C.QUANTISE_FACTOR_SECS != 0) {
-                        if (secs > (60 - C.QUANTISE_FACTOR_SECS)) {
-                            secs = 0;
-                            mins++;
-                        } else {
-                            secs = ((secs + C.QUANTISE_FACTOR_SECS) /
-                                    C.QUANTISE_FACTOR_SECS) * C.QUANTISE_FACTOR_SECS;
-                        }
-                    }
-                    newBox.timeMins = String.format("%02d", mins);
-                    newBox.timeSecs = String.format("%02d", secs);
-                } catch (NumberFormatException e) {
-                    /* Non-numeric clock - just use as is */
-                    newBox.timeMins = minStr;
-                    newBox.timeSecs = secStr;
+            SequenceWindow w = windowOf(piste);
+            if (!(relayed ? w.acceptRelayed(index, now) : w.accept(index, now))) {
+                if (C.DEBUG) {
+                    Log.d(TAG, "Piste " + piste + " message " + index + " dropped");
                 }
-            } else {
-                /* Non-quantised clock - just use as is */
-                newBox.timeMins = minStr;
-                newBox.timeSecs = secStr;
-            }
-
-            /* Don't quantise the hundredths */
-            newBox.timeHund = hundStr;
 
-            /* Read the priority part of the message */
-            if (msg.charAt(offset) != 'P') {
+                /* The hub only sends the pistes it has heard from recently,
+                   so a message sent again still shows the piste is online */
+                if (relayed && lastSeen[piste] != 0) {
+                    lastSeen[piste] = now;
+                }
                 return;
             }
-            offset++;
-            String pA = msg.substring(offset, offset+1);
-            offset += 2;
-            String pB = msg.substring(offset, offset+1);
-            offset++;
-            if (pA.contains("?") && pB.contains("?")) {
-                newBox.priIndicator = true;
-            } else {
-                newBox.priIndicator = false;
-                newBox.priA = pA.contains("y");
-                newBox.priB = pB.contains("y");
+            Box rx = rxBox;
+            if (!FrameParser.parse(buf, off, len, rx)) {
+                return;
             }
+            rx.host = hostOf(piste, addr);
+            clockOf(piste).update(rx, now);
+            statsOf(piste).record(now, latencyOf(rx, now));
+
+            /* Keep a check that messages are being received from this box */
+            lastSeen[piste] = now;
+            rx.rxOk = true;
+
+            /* Check that the box already exists in the list */
+            Box b = boxes.get(piste);
+            if (b != null) {
+                rx.mode = b.mode;
+                if (rx.isShownSameAs(b)) {
+                    /* Nothing shown has changed, so the box in the list is kept */
+                    return;
+                }
+                Box newBox = publish(rx);
+                if (newBox.changesFrom(b) != 0 && piste == currentPiste && idle != null) {
+                    idle.activity(now);
+                }
 
-            /* Read the penalty card part of the message */
-            if (msg.charAt(offset) != 'C') {
+                /* Check for a new hit on the currently-displayed box */
+                if (isNewHit(b, newBox)) {
+                    if (piste == currentPiste) {
+                        vibrateForHit(b);
+                    }
+                }
+                if (C.DEBUG) {
+                    Log.d(TAG, "Storing (" + myPiste + ") new box " + newBox);
+                }
+                boxes.set(piste, newBox);
+                changed(piste);
                 return;
             }
-            offset++;
-            newBox.sCardA = msg.substring(offset, offset+3);
-            offset += 4;
-            newBox.sCardB = msg.substring(offset, offset+3);
-            offset += 3;
-            if (newBox.sCardA.contains("y")) {
-                newBox.cardA |= Box.yellowCardBit;
-            }
-            if (newBox.sCardA.contains("r")) {
-                newBox.cardA |= Box.redCardBit;
-            }
-            if (newBox.sCardA.contains("s")) {
-                newBox.cardA |= Box.shortCircuitBit;
-            }
-            if (newBox.sCardB.contains("y")) {
-                newBox.cardB |= Box.yellowCardBit;
-            }
-            if (newBox.sCardB.contains("r")) {
-                newBox.cardB |= Box.redCardBit;
-            }
-            if (newBox.sCardB.contains("s")) {
-                newBox.cardB |= Box.shortCircuitBit;
-            }
-            /* Read the passivity card part of the message */
-            if (msg.charAt(offset) != 'V') {
-                return;
+
+            /* This is a new box, so add to the list */
+            Box newBox = publish(rx);
+            if (C.DEBUG) {
+                Log.d(TAG, "Creating (" + myPiste + ") a new box " + newBox);
             }
-            offset++;
-            String cA = msg.substring(offset, offset+1);
-            offset += 2;
-            String cB = msg.substring(offset, offset+1);
-            offset++;
-            newBox.pCard[0] = getPassivity(cA);
-            newBox.pCard[1] = getPassivity(cB);
-
-        } catch (StringIndexOutOfBoundsException e) {
-            return;
+            boxes.set(piste, newBox);
+            snapshot = new Snapshot(snapshot.mask | (1L << piste));
+            changed(piste);
         }
-        newBox.passivityActive = false;
-        newBox.passivityTimer = 0;
-
-        /* Keep a check that messages are being received from this box */
-        if (newBox.rxMessages < C.MAX_RXMESSAGES) {
-            /* If a message is received and the app was previously
-               not receiving messages, then boost the message counter */
-            if (!newBox.rxOk) {
-                newBox.rxMessages = C.MAX_RXMESSAGES;
-            } else {
-                newBox.rxMessages++;
+    }
+
+    /* A new box for the list, with what is shown of this one */
+    private static Box publish(Box b) {
+        Box newBox = new Box(b.piste);
+        newBox.copyFrom(b);
+        return newBox;
+    }
+
+    /* Show this piste as offline, if nothing has been received from it for
+       PISTE_STALE_TIMEOUT, by putting an offline copy of its box in the
+       list - returns the box now in the list */
+    public synchronized Box markOffline(int piste, long now) {
+        Box b = getBox(piste);
+        if (b != null && b.rxOk && isStale(piste, now)) {
+            Box newBox = publish(b);
+            newBox.rxOk = false;
+            boxes.set(piste, newBox);
+            changed(piste);
+            return newBox;
+        }
+        return b;
+    }
+
+    private SequenceWindow windowOf(int piste) {
+        SequenceWindow w = windows[piste];
+        if (w == null) {
+            w = windows[piste] = new SequenceWindow();
+        }
+        return w;
+    }
+
+    private PisteStats statsOf(int piste) {
+        PisteStats s = stats[piste];
+        if (s == null) {
+            s = stats[piste] = new PisteStats(piste, windowOf(piste));
+        }
+        return s;
+    }
+
+    /* The time the message took, if the box sent the time and both ends know the network time */
+    private int latencyOf(Box b, long now) {
+        NetworkTime t = netTime;
+        if (b.txNetTime < 0 || t == null || !t.isSynchronised()) {
+            return PisteStats.NO_LATENCY;
+        }
+        return (int) ((t.toNetwork(now) & 0xffffffffL) - b.txNetTime);
+    }
+
+    /* The network quality for this piste, or null if nothing has been received from it */
+    public synchronized PisteStats getStats(int piste) {
+        return (piste >= 1 && piste <= C.MAX_PISTE) ? stats[piste] : null;
+    }
+
+    public synchronized void resetStats() {
+        for (PisteStats s : stats) {
+            if (s != null) {
+                s.reset();
             }
-            newBox.rxOk = true;
         }
+    }
 
-        /* Check that the box already exists in the list */
-        synchronized (this) {
-            for (Box b : boxList) {
-                if (b.piste.equals(newBox.piste)) {
-                    int i = boxList.indexOf(b);
-                    if (C.DEBUG) {
-                        Log.d(TAG, "Found box " + newBox + " at index " + i);
-                    }
-                    if (i >= 0) {
-                        if (!b.equals(newBox) && b.msgIndex != newBox.msgIndex) {
-                            newBox.changed = true;
-
-                            /* Check for a new hit on the currently-displayed box */
-                            if (isNewHit(b, newBox)) {
-                                if (i == currentBoxIndex) {
-                                    vibrateForHit(b);
-                                }
-                            }
-                            if (C.DEBUG) {
-                                Log.d(TAG, "Storing (" + myPiste + ") new box " + newBox);
-                            }
-                            boxList.set(i, newBox);
-                        }
-                        return;
-                    }
-                }
+    /* A snapshot of the network quality of every piste, as CSV */
+    public String exportStats(long now) {
+        StringBuilder s = new StringBuilder(PisteStats.CSV_HEADER).append('\n');
+        Snapshot snap = snapshot;
+        for (int i = 0; i < snap.size(); i++) {
+            PisteStats ps = getStats(snap.piste(i));
+            Box b = getBox(snap.piste(i));
+            if (ps != null) {
+                s.append(ps.toCsv((b != null) ? b.host : null, isStale(snap.piste(i), now), now)).append('\n');
             }
         }
+        return s.toString();
+    }
 
-        /* This is a new box, so add to the list */
-        boxList.add(newBox);
+    private RemoteClock clockOf(int piste) {
+        RemoteClock c = clocks[piste];
+        if (c == null) {
+            c = clocks[piste] = new RemoteClock();
+        }
+        return c;
+    }
+
+    /* The clock of this piste as counted locally, or null if nothing has been received from it */
+    public synchronized RemoteClock getClock(int piste) {
+        return (piste >= 1 && piste <= C.MAX_PISTE) ? clocks[piste] : null;
+    }
+
+    /* The message counts for this piste, or null if nothing has been received from it */
+    public synchronized SequenceWindow getSequenceWindow(int piste) {
+        return (piste >= 1 && piste <= C.MAX_PISTE) ? windows[piste] : null;
+    }
+
+    /* True if nothing has been received from this piste for PISTE_STALE_TIMEOUT -
+       this is worked out when it is asked for, so nothing is done for each
+       piste while the messages are arriving */
+    public synchronized boolean isStale(int piste, long now) {
+        if (piste < 1 || piste > C.MAX_PISTE || lastSeen[piste] == 0) {
+            return false;
+        }
+        return (now - lastSeen[piste]) >= C.PISTE_STALE_TIMEOUT;
+    }
+
+    /* The monotonic time that a message was last received from this piste, or 0 if never */
+    public synchronized long getLastSeen(int piste) {
+        return (piste >= 1 && piste <= C.MAX_PISTE) ? lastSeen[piste] : 0;
+    }
+
+    public boolean hasBox(int piste) {
+        return snapshot.contains(piste);
     }
 
     public boolean empty() {
-        return boxList.size() == 0;
+        return snapshot.size() == 0;
+    }
+
+    /* The pistes which have a box, in piste order - this does not change,
+       so it can be gone through without a lock */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    public Box getBox(int piste) {
+        return (piste >= 1 && piste <= C.MAX_PISTE) ? boxes.get(piste) : null;
     }
 
     public Box nextBox() throws IndexOutOfBoundsException {
-        if (currentBoxIndex+1 < boxList.size()) {
-            ++currentBoxIndex;
-        } else {
-            currentBoxIndex = 0;
-        }
-        return boxList.get(currentBoxIndex);
+        Snapshot s = snapshot;
+        int i = s.indexOf(currentPiste);
+        currentPiste = s.piste((i+1 < s.size()) ? i+1 : 0);
+        return boxes.get(currentPiste);
     }
 
     public Box prevBox() throws IndexOutOfBoundsException {
-        if (currentBoxIndex > 0) {
-            --currentBoxIndex;
-        } else {
-            currentBoxIndex = boxList.size()-1;
-        }
-        return boxList.get(currentBoxIndex);
+        Snapshot s = snapshot;
+        int i = s.indexOf(currentPiste);
+        currentPiste = s.piste((i > 0) ? i-1 : s.size()-1);
+        return boxes.get(currentPiste);
+    }
+
+    /* The piste being displayed, or 0 before there is one */
+    public int getCurrentPiste() {
+        return currentPiste;
     }
 
     public Box currentBox() throws IndexOutOfBoundsException {
-        return boxList.get(currentBoxIndex);
+        Snapshot s = snapshot;
+        int piste = currentPiste;
+        if (!s.contains(piste)) {
+            /* Start with the first piste */
+            piste = currentPiste = s.piste(0);
+        }
+        return boxes.get(piste);
     }
 
-    public void saveCurrentMode(Box.Mode mode) {
-        Box b = boxList.get(currentBoxIndex);
-        b.setMode(mode);
-        boxList.set(currentBoxIndex, b);
+    public synchronized void saveCurrentMode(Box.Mode mode) {
+        Box newBox = publish(currentBox());
+        newBox.setMode(mode);
+        boxes.set(newBox.piste, newBox);
+        changed(newBox.piste);
     }
 
     private boolean isNewHit(Box oldBox, Box newBox) {
@@ -383,6 +407,9 @@ public class FencingBoxList {
 
     private void vibrateForHit(Box b) {
         /* Don't vibrate if there is no display */
+        if (mainActivity == null) {
+            return;
+        }
         Vibrator v = (Vibrator) mainActivity.getSystemService(Context.VIBRATOR_SERVICE);
 
         if (mainActivity.isVibrationOn()) {
@@ -0,0 +1,254 @@
+package com.robinterry.fencingboxapp;
+
+import com.robinterry.constants.C;
+
+/* Parser for the network messages from the repeaters.
+
+   This reads straight from the received datagram bytes into an existing
+   box, so that nothing is allocated for each message - the strings which
+   the box holds (scores, clock and cards) come from tables made up front.
+
+   The message format is as follows:
+   <index>|<piste>|<period>|S<hitA><hitB>:<scoreA>:<scoreB>T<mins>:<secs>:<hund>P<priA>:<priB>C<cardA>:<cardB>V<pasvA>:<pasvB>K<run>N<time>
+
+   where:
+   <index> is 4 digits, 0-9999 inclusive, and incremented for each new message
+   <piste> is 2 digits, >= 1
+   <period> is 1 digit, 1-9
+   <hitA>, <hitB> are '-', 'h' for hit, 'o' for off-target
+   <scoreA>, <scoreB> are 2 digits
+   <mins> is 2-digit minutes
+   <secs> is 2-digit seconds
+   <hund> is 2-digit hundredths
+   <priA>, <priB> are '-', '?' or 'y' ('?' means that priority selection is active)
+   <cardA>, <cardB> are three-character strings, one each for yellow, red and s/c:
+      '-' or 'y', '-' or 'r', '-' or 's'
+   <pasvA>, <pasvB> are passivity card settings:
+      ('-', '0' (yellow), '1', (red-1), '2' (red-2))
+   <run> is 'y' if the clock is running, otherwise '-' (this part is optional)
+   <time> is the network time when the message was sent, as 8 hex digits of
+      the milliseconds (this part is optional, and is only sent when the
+      network time is synchronised)
+
+   an example is:
+   2345|01|1|Sh-:02:01T02:25:00P-:-Cy--:-r-V1:-Ky
+*/
+
+@SuppressWarnings("ALL")
+public class FrameParser {
+    /* Length of the shortest valid message */
+    public static final int MIN_LENGTH = 44;
+    private static final String[] TWO_DIGITS = new String[100];
+    private static final String[] CARDS = new String[8];
+    private static final String DASHES = "--";
+
+    static {
+        for (int i = 0; i < TWO_DIGITS.length; i++) {
+            TWO_DIGITS[i] = String.format("%02d", i);
+        }
+        for (int i = 0; i < CARDS.length; i++) {
+            CARDS[i] = "" + (((i & Box.yellowCardBit) != 0) ? 'y' : '-')
+                    + (((i & Box.redCardBit) != 0) ? 'r' : '-')
+                    + (((i & Box.shortCircuitBit) != 0) ? 's' : '-');
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /* Returns the value of the digits, or -1 if they are not all digits */
+    private static int number(byte[] buf, int off, int n) {
+        int v = 0;
+        for (int i = off; i < off + n; i++) {
+            if (!isDigit(buf[i])) {
+                return -1;
+            }
+            v = v*10 + (buf[i] - '0');
+        }
+        return v;
+    }
+
+    /* Returns the value of the hex digits, or -1 if they are not all hex digits */
+    private static long hex(byte[] buf, int off, int n) {
+        long v = 0;
+        for (int i = off; i < off + n; i++) {
+            int d = Character.digit(buf[i], 16);
+            if (d < 0) {
+                return -1;
+            }
+            v = (v << 4) | d;
+        }
+        return v;
+    }
+
+    /* The two characters as a string - this is only allocated if they are
+       not digits or dashes, which does not happen in a valid message */
+    private static String twoChars(byte[] buf, int off) {
+        int v = number(buf, off, 2);
+        if (v >= 0) {
+            return TWO_DIGITS[v];
+        } else if (buf[off] == '-' && buf[off+1] == '-') {
+            return DASHES;
+        } else {
+            return new String(buf, off, 2);
+        }
+    }
+
+    public static String twoDigits(int v) {
+        return (v >= 0 && v < TWO_DIGITS.length) ? TWO_DIGITS[v] : String.format("%02d", v);
+    }
+
+    /* Returns the piste of a message, or 0 if it is not valid */
+    public static int pisteOf(byte[] buf, int off, int len) {
+        if (len < 7 || buf[off+4] != '|') {
+            return 0;
+        }
+        int piste = number(buf, off+5, 2);
+        return (piste >= 1 && piste <= C.MAX_PISTE) ? piste : 0;
+    }
+
+    /* Returns the message index of a message, or -1 if it is not valid */
+    public static int indexOf(byte[] buf, int off, int len) {
+        if (len < 5 || buf[off+4] != '|') {
+            return -1;
+        }
+        return number(buf, off, 4);
+    }
+
+    private static Box.Hit hit(byte b) {
+        switch (b) {
+            case 'h':
+            case 'p':
+                return Box.Hit.OnTarget;
+            case 'o':
+                return Box.Hit.OffTarget;
+            default:
+                return Box.Hit.None;
+        }
+    }
+
+    private static int card(byte[] buf, int off) {
+        int card = 0;
+        for (int i = off; i < off + 3; i++) {
+            switch (buf[i]) {
+                case 'y':
+                    card |= Box.yellowCardBit;
+                    break;
+                case 'r':
+                    card |= Box.redCardBit;
+                    break;
+                case 's':
+                    card |= Box.shortCircuitBit;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return card;
+    }
+
+    private static FencingBoxActivity.PassivityCard passivity(byte b) {
+        switch (b) {
+            case '0':
+                return FencingBoxActivity.PassivityCard.Yellow;
+            case '1':
+                return FencingBoxActivity.PassivityCard.Red1;
+            case '2':
+                return FencingBoxActivity.PassivityCard.Red2;
+            default:
+                return FencingBoxActivity.PassivityCard.None;
+        }
+    }
+
+    /* Parse the message into the box - returns false if it is not valid,
+       in which case the box may have been partly written */
+    public static boolean parse(byte[] buf, int off, int len, Box box) {
+        if (len < MIN_LENGTH || off + len > buf.length) {
+            return false;
+        }
+        int p = off;
+
+        int msgIndex = number(buf, p, 4);
+        if (msgIndex < 0 || buf[p+4] != '|') {
+            return false;
+        }
+        p += 5;
+        int piste = number(buf, p, 2);
+        if (piste < 1 || piste > C.MAX_PISTE || buf[p+2] != '|') {
+            return false;
+        }
+        p += 3;
+        int period = number(buf, p, 1);
+        if (period < 0 || buf[p+1] != '|') {
+            return false;
+        }
+        p += 2;
+        box.msgIndex = msgIndex;
+        box.piste = piste;
+        box.period = period;
+
+        /* Read the hit and score part of the message */
+        if (buf[p] != 'S') {
+            return false;
+        }
+        box.hitA = hit(buf[p+1]);
+        box.hitB = hit(buf[p+2]);
+        box.scoreA = twoChars(buf, p+4);
+        box.scoreB = twoChars(buf, p+7);
+        p += 9;
+
+        /* Read the clock part of the message */
+        if (buf[p] != 'T') {
+            return false;
+        }
+        box.timeMins = twoChars(buf, p+1);
+        box.timeSecs = twoChars(buf, p+4);
+        box.timeHund = twoChars(buf, p+7);
+        p += 9;
+
+        /* Read the priority part of the message */
+        if (buf[p] != 'P') {
+            return false;
+        }
+        if (buf[p+1] == '?' && buf[p+3] == '?') {
+            box.priIndicator = true;
+            box.priA = box.priB = false;
+        } else {
+            box.priIndicator = false;
+            box.priA = (buf[p+1] == 'y');
+            box.priB = (buf[p+3] == 'y');
+        }
+        p += 4;
+
+        /* Read the penalty card part of the message */
+        if (buf[p] != 'C') {
+            return false;
+        }
+        box.cardA = card(buf, p+1);
+        box.cardB = card(buf, p+5);
+        box.sCardA = CARDS[box.cardA];
+        box.sCardB = CARDS[box.cardB];
+        p += 8;
+
+        /* Read the passivity card part of the message */
+        if (buf[p] != 'V') {
+            return false;
+        }
+        box.pCard[0] = passivity(buf[p+1]);
+        box.pCard[1] = passivity(buf[p+3]);
+        p += 4;
+
+        /* Read the clock running part of the message - boxes which do
+           not send it are taken to have the clock stopped */
+        box.clockRunning = (p + 1 < off + len && buf[p] == 'K' && buf[p+1] == 'y');
+        p += 2;
+
+        /* Read the time sent part of the message, if there is one */
+        box.txNetTime = (p + 9 <= off + len && buf[p] == 'N') ? hex(buf, p+1, 8) : -1;
+
+        box.passivityActive = false;
+        box.passivityTimer = 0;
+        return true;
+    }
+}
@@ -0,0 +1,179 @@
+package com.robinterry.fencingboxapp;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/* Timing of the scoreboard display, for finding out whether a late light
+   is the network, the protocol or the UI.
+
+   Three things are counted in histograms, from when they were last reset:
+   - frame time, the time the UI took to produce each frame (from
+     FrameMetrics)
+   - update latency, the time from a change being made to the display
+     state to the start of the frame which shows it
+   - queue delay, how late a message posted to the UI thread at a fixed
+     interval is run, which is how long anything posted to the UI thread
+     waits behind what is already queued
+
+   Recording a time is a few array updates, so it can be left on during a
+   bout. All times are in milliseconds. */
+
+@SuppressWarnings("ALL")
+public class FrameStats {
+    /* Upper bounds of the histogram buckets - the last bucket is everything above */
+    public static final int[] BUCKETS = { 4, 8, 12, 17, 20, 25, 33, 50, 100, 200, 500 };
+    public static final String CSV_HEADER = "metric,count,mean,max,histogram";
+    /* Time of a frame at 60 frames a second */
+    public static final int FRAME_BUDGET = 17;
+
+    public static class Histogram {
+        private final long[] counts = new long[BUCKETS.length+1];
+        private long count = 0;
+        private double total = 0;
+        private double max = 0;
+
+        public void add(double ms) {
+            int i = 0;
+            while (i < BUCKETS.length && ms >= BUCKETS[i]) {
+                i++;
+            }
+            counts[i]++;
+            count++;
+            total += ms;
+            if (ms > max) {
+                max = ms;
+            }
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return (count > 0) ? total/count : 0;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        /* Count in each bucket, in the order of BUCKETS */
+        public long getBucket(int i) {
+            return counts[i];
+        }
+
+        /* The bucket which holds the given fraction of the counts, or -1 if there are none */
+        public int percentileBucket(double fraction) {
+            if (count == 0) {
+                return -1;
+            }
+            long want = Math.max(1, (long) Math.ceil(count*fraction)), n = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                n += counts[i];
+                if (n >= want) {
+                    return i;
+                }
+            }
+            return BUCKETS.length;
+        }
+
+        /* The upper bound of the bucket which holds the given fraction of the
+           counts - or, if that is the last bucket, which has no upper bound,
+           the longest time */
+        public int percentile(double fraction) {
+            int i = percentileBucket(fraction);
+            if (i < 0) {
+                return 0;
+            }
+            return (i < BUCKETS.length) ? BUCKETS[i] : (int) Math.ceil(max);
+        }
+
+        /* The percentile as the bucket which holds it, "<N" or, for the last
+           bucket, ">=N" */
+        public String percentileLabel(double fraction) {
+            int i = percentileBucket(fraction);
+            if (i < 0) {
+                return "-";
+            }
+            return (i < BUCKETS.length) ? "<" + BUCKETS[i] + "ms" : ">=" + BUCKETS[BUCKETS.length-1] + "ms";
+        }
+
+        /* Count at or over the given time - counted by whole buckets, so
+           the time should be one of BUCKETS */
+        public long countOver(int ms) {
+            long n = 0;
+            for (int i = counts.length - 1; i > 0 && BUCKETS[i-1] >= ms; i--) {
+                n += counts[i];
+            }
+            return n;
+        }
+
+        void reset() {
+            Arrays.fill(counts, 0);
+            count = 0;
+            total = 0;
+            max = 0;
+        }
+
+        String toCsv(String name) {
+            StringBuilder s = new StringBuilder(name).append(',').append(count).append(',')
+                    .append(String.format(Locale.ROOT, "%.2f,%.2f", getMean(), max)).append(',');
+            for (int i = 0; i < counts.length; i++) {
+                if (i > 0) {
+                    s.append(' ');
+                }
+                s.append((i < BUCKETS.length) ? "<" + BUCKETS[i] : ">=" + BUCKETS[BUCKETS.length-1]);
+                s.append(':').append(counts[i]);
+            }
+            return s.toString();
+        }
+    }
+
+    private final Histogram frames = new Histogram();
+    private final Histogram latency = new Histogram();
+    private final Histogram queue = new Histogram();
+
+    public synchronized void addFrame(long nanos) {
+        frames.add(nanos/1000000.0);
+    }
+
+    public synchronized void addLatency(long nanos) {
+        latency.add(nanos/1000000.0);
+    }
+
+    public synchronized void addQueueDelay(long ms) {
+        queue.add(ms);
+    }
+
+    public synchronized void reset() {
+        frames.reset();
+        latency.reset();
+        queue.reset();
+    }
+
+    /* A line for each histogram, for the overlay */
+    public synchronized String summary() {
+        return String.format(Locale.ROOT, "frames %d  mean %.1fms  p95 %s  max %.0fms  >=%dms %d",
+                frames.getCount(), frames.getMean(), frames.percentileLabel(0.95), frames.getMax(),
+                FRAME_BUDGET, frames.countOver(FRAME_BUDGET)) + "\n" +
+                String.format(Locale.ROOT, "update %d  mean %.1fms  p95 %s  max %.0fms",
+                latency.getCount(), latency.getMean(), latency.percentileLabel(0.95), latency.getMax()) + "\n" +
+                String.format(Locale.ROOT, "queue %d  mean %.1fms  p95 %s  max %.0fms",
+                queue.getCount(), queue.getMean(), queue.percentileLabel(0.95), queue.getMax());
+    }
+
+    /* Copy of the frame time counts in each bucket, for drawing */
+    public synchronized void getFrameBuckets(long[] out) {
+        for (int i = 0; i < out.length && i <= BUCKETS.length; i++) {
+            out[i] = frames.getBucket(i);
+        }
+    }
+
+    /* Everything, as CSV, preceded by a line saying what it was measured on */
+    public synchronized String toCsv(String device) {
+        return "# " + device + "\n" + CSV_HEADER + "\n" +
+                frames.toCsv("frame") + "\n" +
+                latency.toCsv("update") + "\n" +
+                queue.toCsv("queue") + "\n";
+    }
+}
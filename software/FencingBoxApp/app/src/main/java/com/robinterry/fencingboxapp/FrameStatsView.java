@@ -0,0 +1,139 @@
+package com.robinterry.fencingboxapp;
+
+import android.app.Activity;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.TypedValue;
+import android.view.FrameMetrics;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.Window;
+
+/* Import constant values */
+import com.robinterry.constants.C;
+
+/* The developer overlay of the frame stats - the frame time histogram,
+   with the frame budget marked, and a summary line for the frame time,
+   the update latency and the UI queue delay.
+
+   While it is attached it collects the frame times from the window's
+   FrameMetrics (delivered on a thread of its own) and posts the queue
+   delay probe to the UI thread, every FRAME_STATS_PROBE_INTERVAL (or
+   IDLE_FRAME_STATS_PROBE_INTERVAL while the app is idle). It only draws
+   itself every
+   FRAME_STATS_REFRESH_INTERVAL, so it adds little to the frames it is
+   measuring. */
+
+@SuppressWarnings("ALL")
+public class FrameStatsView extends View {
+    private final Activity activity;
+    private final FrameStats stats;
+    private final long[] buckets = new long[FrameStats.BUCKETS.length+1];
+    private final Paint background = new Paint();
+    private final Paint bar = new Paint();
+    private final Paint overBar = new Paint();
+    private final Paint text = new Paint();
+    private final float lineHeight;
+    private HandlerThread metricsThread = null;
+    private final IdleLoop probe;
+
+    private final Window.OnFrameMetricsAvailableListener metricsListener = new Window.OnFrameMetricsAvailableListener() {
+        @Override
+        public void onFrameMetricsAvailable(Window window, FrameMetrics metrics, int dropCount) {
+            stats.addFrame(metrics.getMetric(FrameMetrics.TOTAL_DURATION));
+        }
+    };
+
+    public FrameStatsView(Activity activity, FrameStats stats, IdlePolicy idle) {
+        super(activity);
+        this.activity = activity;
+        this.stats = stats;
+        probe = new IdleLoop(idle, IdleLoop.onHandler(new Handler(Looper.getMainLooper())),
+                C.FRAME_STATS_PROBE_INTERVAL, C.IDLE_FRAME_STATS_PROBE_INTERVAL) {
+            @Override
+            protected void tick(long now) {
+                stats.addQueueDelay(now - getDue());
+            }
+        };
+        background.setColor(0xC0000000);
+        bar.setColor(Color.GREEN);
+        overBar.setColor(Color.RED);
+        text.setColor(Color.WHITE);
+        text.setAntiAlias(true);
+        text.setTypeface(Typeface.MONOSPACE);
+        text.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 11, getResources().getDisplayMetrics()));
+        lineHeight = text.getFontSpacing();
+    }
+
+    /* Shows the overlay over the rest of the parent */
+    public void show(ViewGroup parent) {
+        parent.addView(this, new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+    }
+
+    public void hide() {
+        ViewGroup parent = (ViewGroup) getParent();
+        if (parent != null) {
+            parent.removeView(this);
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        metricsThread = new HandlerThread("frameStats");
+        metricsThread.start();
+        activity.getWindow().addOnFrameMetricsAvailableListener(metricsListener, new Handler(metricsThread.getLooper()));
+        probe.start(C.FRAME_STATS_PROBE_INTERVAL);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        probe.stop();
+        try {
+            activity.getWindow().removeOnFrameMetricsAvailableListener(metricsListener);
+        } catch (IllegalArgumentException e) {
+            /* Not added */
+        }
+        metricsThread.quitSafely();
+        metricsThread = null;
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        String[] lines = stats.summary().split("\n");
+        stats.getFrameBuckets(buckets);
+
+        /* Along the bottom - the histogram, then the summary under it */
+        float w = getWidth();
+        float textH = lineHeight*lines.length;
+        float graphH = lineHeight*4;
+        float top = getHeight() - textH - graphH - lineHeight;
+        canvas.drawRect(0, top, w, getHeight(), background);
+
+        long max = 1;
+        for (long n : buckets) {
+            max = Math.max(max, n);
+        }
+        float barW = w/buckets.length;
+        float base = top + lineHeight/2 + graphH;
+        for (int i = 0; i < buckets.length; i++) {
+            float h = graphH*buckets[i]/max;
+            boolean over = (i > 0 && FrameStats.BUCKETS[i-1] >= FrameStats.FRAME_BUDGET);
+            canvas.drawRect(i*barW + 1, base - h, (i + 1)*barW - 1, base, over ? overBar : bar);
+        }
+        float y = base + lineHeight;
+        for (String line : lines) {
+            canvas.drawText(line, lineHeight/2, y, text);
+            y += lineHeight;
+        }
+        postInvalidateDelayed(C.FRAME_STATS_REFRESH_INTERVAL);
+    }
+}
@@ -0,0 +1,128 @@
+package com.robinterry.fencingboxapp;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.robinterry.constants.C;
+
+/* The characters used by the scoreboard (the digits, '-', ':' and a blank)
+   drawn once in a typeface and size into a bitmap, so that the score and
+   clock can be copied from it onto the display rather than going through
+   text measurement and layout each time they change.
+
+   The bitmap only holds the shape of each character (ALPHA_8), and it is
+   drawn in the colour of the paint, so one cache serves every colour. A
+   few caches are kept, for the most recently used typefaces and sizes. */
+
+@SuppressWarnings("ALL")
+public class GlyphCache {
+    public static final String GLYPHS = "0123456789-: ";
+    private static final int BLANK = GLYPHS.indexOf(' ');
+
+    private static final List<GlyphCache> caches = new ArrayList<>();
+
+    private final Typeface face;
+    private final float size;
+    private final Bitmap atlas;
+    private final Rect[] src = new Rect[GLYPHS.length()];
+    private final float[] advance = new float[GLYPHS.length()];
+    /* Space each side of a character for any part of it outside its advance */
+    private final int pad;
+    private final int height;
+    private final RectF dst = new RectF();
+
+    /* The cache for this typeface and text size in pixels */
+    public static GlyphCache get(Typeface face, float size) {
+        synchronized (caches) {
+            for (int i = 0; i < caches.size(); i++) {
+                GlyphCache g = caches.get(i);
+                if (g.face == face && g.size == size) {
+                    if (i > 0) {
+                        caches.remove(i);
+                        caches.add(0, g);
+                    }
+                    return g;
+                }
+            }
+            GlyphCache g = new GlyphCache(face, size);
+            caches.add(0, g);
+            if (caches.size() > C.GLYPH_CACHE_SIZE) {
+                /* Not recycled, as a view may still be drawing from it */
+                caches.remove(caches.size() - 1);
+            }
+            return g;
+        }
+    }
+
+    private GlyphCache(Typeface face, float size) {
+        this.face = face;
+        this.size = size;
+
+        Paint p = new Paint();
+        p.setAntiAlias(true);
+        p.setTypeface(face);
+        p.setTextSize(size);
+        Paint.FontMetricsInt fm = p.getFontMetricsInt();
+        height = fm.descent - fm.ascent;
+        pad = height/8;
+
+        /* The blank is as wide as a digit, so that the digits do not move */
+        int width = 0;
+        for (int i = 0; i < GLYPHS.length(); i++) {
+            char c = (i == BLANK) ? '0' : GLYPHS.charAt(i);
+            advance[i] = p.measureText(String.valueOf(c));
+            int w = pad + (int) Math.ceil(advance[i]) + pad;
+            src[i] = new Rect(width, 0, width + w, height);
+            width += w;
+        }
+
+        atlas = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(atlas);
+        for (int i = 0; i < GLYPHS.length(); i++) {
+            if (i != BLANK) {
+                canvas.drawText(GLYPHS, i, i + 1, src[i].left + pad, -fm.ascent, p);
+            }
+        }
+    }
+
+    private static int indexOf(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        int i = GLYPHS.indexOf(c);
+        return (i >= 0) ? i : BLANK;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /* Width of the first 'len' characters of the text */
+    public float measure(char[] text, int len) {
+        float w = 0;
+        for (int i = 0; i < len; i++) {
+            w += advance[indexOf(text[i])];
+        }
+        return w;
+    }
+
+    /* Draws the text in the colour of the paint, with its top left at x, y
+       (synchronized, as the cache may be shared by views drawn on other threads) */
+    public synchronized void draw(Canvas canvas, char[] text, int len, float x, float y, Paint paint) {
+        for (int i = 0; i < len; i++) {
+            int g = indexOf(text[i]);
+            if (g != BLANK) {
+                dst.set(x - pad, y, x - pad + src[g].width(), y + height);
+                canvas.drawBitmap(atlas, src[g], dst, paint);
+            }
+            x += advance[g];
+        }
+    }
+}
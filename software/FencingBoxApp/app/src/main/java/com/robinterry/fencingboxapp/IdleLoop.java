@@ -0,0 +1,132 @@
+package com.robinterry.fencingboxapp;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/* A loop which runs every so often - every 'active' milliseconds, or every
+   'idle' milliseconds while the app is idle (see IdlePolicy) - and which
+   runs straight away when the app stops being idle. A loop which knows
+   when it is next needed (such as the clock, which only changes at the
+   next second) gives its own delay instead.
+
+   Only one run of the loop is ever waiting - posting it again takes back
+   the one that was waiting - so waking it up while it is running does not
+   leave it running twice as often.
+
+   It is posted to a Scheduler, which is normally a handler (see
+   onHandler()), so that the loops can be counted on a simulated clock in
+   the tests. All times are in milliseconds. */
+
+@SuppressWarnings("ALL")
+public abstract class IdleLoop implements Runnable, IdlePolicy.Listener {
+    public interface Scheduler {
+        long now();
+        void postDelayed(Runnable r, long delayMillis);
+        void removeCallbacks(Runnable r);
+    }
+
+    /* Runs the loop on the handler's thread, timed by the monotonic clock */
+    public static Scheduler onHandler(final Handler handler) {
+        return new Scheduler() {
+            @Override
+            public long now() {
+                return SystemClock.elapsedRealtime();
+            }
+
+            @Override
+            public void postDelayed(Runnable r, long delayMillis) {
+                handler.postDelayed(r, delayMillis);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable r) {
+                handler.removeCallbacks(r);
+            }
+        };
+    }
+
+    private final IdlePolicy idle;
+    private final Scheduler scheduler;
+    private final int active, idleInterval;
+    private volatile boolean running = false;
+    private volatile long due = 0;
+    private volatile int runs = 0;
+
+    /* With no idle policy, the loop always runs at its active interval */
+    public IdleLoop(IdlePolicy idle, Scheduler scheduler, int active, int idleInterval) {
+        this.idle = idle;
+        this.scheduler = scheduler;
+        this.active = active;
+        this.idleInterval = idleInterval;
+    }
+
+    /* What the loop does each time it runs */
+    protected abstract void tick(long now);
+
+    /* The time until the loop next runs */
+    protected long nextDelay(long now) {
+        return (idle != null) ? idle.interval(active, idleInterval, now) : active;
+    }
+
+    public void start(long delayMillis) {
+        running = true;
+        if (idle != null) {
+            idle.addListener(this);
+        }
+        post(delayMillis);
+    }
+
+    public void stop() {
+        running = false;
+        if (idle != null) {
+            idle.removeListener(this);
+        }
+        scheduler.removeCallbacks(this);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /* Run the loop now rather than when it is next due */
+    public void runNow() {
+        if (running) {
+            post(0);
+        }
+    }
+
+    /* When this run was due, for a loop which measures how late it runs */
+    protected long getDue() {
+        return due;
+    }
+
+    /* Number of times the loop has run, for testing */
+    public int getRuns() {
+        return runs;
+    }
+
+    @Override
+    public final void run() {
+        if (!running) {
+            return;
+        }
+        runs++;
+        tick(scheduler.now());
+        if (running) {
+            post(nextDelay(scheduler.now()));
+        }
+    }
+
+    @Override
+    public void onIdleChanged(boolean nowIdle) {
+        if (!nowIdle) {
+            runNow();
+        }
+    }
+
+    private synchronized void post(long delayMillis) {
+        scheduler.removeCallbacks(this);
+        due = scheduler.now() + delayMillis;
+        scheduler.postDelayed(this, delayMillis);
+    }
+}
@@ -0,0 +1,99 @@
+package com.robinterry.fencingboxapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* When nothing has happened for a while - no hits, keys or clock
+   movement for the quiet period - the app is idle, and its periodic loops
+   run at their slower idle intervals and the screen is dimmed, as the
+   fencing scoring box does with its own display after DIM_DELAY.
+
+   Each loop (see IdleLoop) asks for its interval when it schedules its
+   next run, which is also when the change to idle is noticed. The next event makes the app
+   active again straight away: the listeners are called from the thread
+   which reported the event, so that they can run their loops at once
+   rather than at the end of the idle interval.
+
+   All times are in milliseconds. */
+
+@SuppressWarnings("ALL")
+public class IdlePolicy {
+    public interface Listener {
+        void onIdleChanged(boolean idle);
+    }
+
+    private long quietPeriod;
+    private long lastActivity;
+    private boolean idle = false;
+    private final List<Listener> listeners = new ArrayList<>();
+
+    public IdlePolicy(long quietPeriod, long now) {
+        this.quietPeriod = quietPeriod;
+        this.lastActivity = now;
+    }
+
+    /* A quiet period of 0 means the app is never idle */
+    public synchronized void setQuietPeriod(long quietPeriod) {
+        this.quietPeriod = quietPeriod;
+    }
+
+    public synchronized long getQuietPeriod() {
+        return quietPeriod;
+    }
+
+    public void addListener(Listener l) {
+        synchronized (listeners) {
+            listeners.add(l);
+        }
+    }
+
+    public void removeListener(Listener l) {
+        synchronized (listeners) {
+            listeners.remove(l);
+        }
+    }
+
+    /* Called for each hit, key or clock movement */
+    public void activity(long now) {
+        boolean woke;
+        synchronized (this) {
+            lastActivity = now;
+            woke = idle;
+            idle = false;
+        }
+        if (woke) {
+            notifyListeners(false);
+        }
+    }
+
+    public boolean isIdle(long now) {
+        boolean slept = false;
+        boolean nowIdle;
+        synchronized (this) {
+            if (!idle && quietPeriod > 0 && now - lastActivity >= quietPeriod) {
+                idle = slept = true;
+            }
+            nowIdle = idle;
+        }
+        if (slept) {
+            notifyListeners(true);
+        }
+        return nowIdle;
+    }
+
+    /* The interval of a loop which runs every 'active' milliseconds, or
+       every 'idle' milliseconds when the app is idle */
+    public int interval(int active, int idle, long now) {
+        return isIdle(now) ? idle : active;
+    }
+
+    private void notifyListeners(boolean nowIdle) {
+        Listener[] l;
+        synchronized (listeners) {
+            l = listeners.toArray(new Listener[0]);
+        }
+        for (Listener listener : l) {
+            listener.onIdleChanged(nowIdle);
+        }
+    }
+}
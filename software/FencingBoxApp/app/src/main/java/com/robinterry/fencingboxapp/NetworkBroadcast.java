@@ -1,43 +1,90 @@
 package com.robinterry.fencingboxapp;
 
-import java.net.DatagramSocket;
-import java.net.DatagramPacket;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.io.IOException;
+import java.net.SocketAddress;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
-import java.net.NetworkInterface;
-import java.net.MulticastSocket;
-import java.net.UnknownHostException;
-import java.util.Enumeration;
-import java.util.NoSuchElementException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 
-import android.content.Context;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.robinterry.constants.C;
 
+/* Network messages between the repeaters and display clients.
+
+   The messages are sent and received on the channels of each link (see
+   NetworkLink), by one thread - it waits in a selector for a message to
+   arrive on any of them, crediting it to the link it arrived on, or for the
+   next timer (the next full message, the hub message, time synchronisation
+   and so on) to be due, so nothing polls. The time taken to process each
+   received message is measured, and only RX_BATCH messages are processed
+   before the timers are looked at, so a flood of messages cannot hold up
+   sending. */
+
 @SuppressWarnings("ALL")
 public class NetworkBroadcast {
     public static final String TAG = NetworkBroadcast.class.getSimpleName();
-    private DatagramSocket txSocket = null;
-    private DatagramSocket rxSocket = null;
+    /* Subscription from a display client: #S|<piste>|<piste>... */
+    public static final String MSG_SUBSCRIBE = "#S|";
+    private volatile NetworkLink[] links = new NetworkLink[0];
+    private String linkName = null;
+    private final List<MembershipKey> memberships = new ArrayList<MembershipKey>();
     private enum SocketConnection { None, Multicast, Broadcast };
     SocketConnection conn = SocketConnection.None;
 
-    private InetAddress bcAddr = null;
+    private volatile InetAddress bcAddr = null;
     private Inet4Address ip4Addr = null;
     private int port;
     private ArrayBlockingQueue<String> txMsgs;
-    private Thread txThread, rxThread;
+    private Thread netThread;
+    private volatile Selector selector = null;
+    private final Object txLock = new Object();
+    private boolean txKick = false;
+    private boolean txWake = false;
+    private TxRateProfile txRate = new TxRateProfile();
+    private TxScheduler txSchedule = new TxScheduler();
+    private volatile boolean unicastMode = false;
+    private SubscriberTable subscribers = new SubscriberTable();
+    private InetAddress[] subscriberHosts = new InetAddress[C.MAX_SUBSCRIBERS];
+    private long nextDiscovery = 0;
+    private volatile int displayPiste = 0;
+    private volatile boolean subscribeAll = false;
+    private long subscribedMask = 0;
+    private volatile boolean subscriptionChanged = false;
+    private volatile FencingBoxHub hub = null;
+    private long nextHubFrame = 0;
+    private long lastHubRx = 0;
+    private NetworkTime netTime = new NetworkTime();
+    private volatile ShardMap shards;
+    private volatile int zone = 0;
+    private int joinedZones = 0;
     private boolean isTx = false;
     private boolean isThreadRunning = false;
-    private boolean connected = false;
-    private boolean networkOnline = false;
+    private volatile boolean stopping = false;
+    private volatile boolean connected = false;
+    private volatile boolean networkOnline = false;
+    private final NetworkTimers timers = new NetworkTimers();
+
+    /* The following are only used on the network thread */
+    private NetworkLink[] registered = null;
+    private final ByteBuffer rxBuf = ByteBuffer.allocate(C.RX_BUFFER_SIZE);
+    private long rxCount = 0, rxNanos = 0, rxMaxNanos = 0;
+    private volatile int rxAvgMicros = 0, rxMaxMicros = 0;
+    private NetworkConnectionManager connMgr;
     private FencingBoxActivity mainActivity;
 
     public NetworkBroadcast(FencingBoxActivity mainActivity) throws IOException {
@@ -48,312 +95,851 @@ public class NetworkBroadcast {
         this.mainActivity = mainActivity;
         this.port = port;
         txMsgs = new ArrayBlockingQueue<String>(5);
-        if (C.DEBUGNET) {
-            Log.d(TAG, "Initial connection");
+        shards = new ShardMap();
+        connMgr = new NetworkConnectionManager(mainActivity, this);
+    }
+
+    /* Open the sockets and join the multicast groups - this is called on
+       the connection manager's thread, whenever the network (re)connects */
+    public synchronized void connect() throws IOException {
+        /* The connection manager may still be connecting when it is stopped */
+        if (stopping) {
+            return;
+        }
+        closeSocket();
+        try {
+            List<NetworkLink> found = NetworkLink.findLinks(linkName);
+            if (found.isEmpty()) {
+                throw new SocketException("No network interface found");
+            }
+            openChannel(found);
+            ip4Addr = found.get(0).getAddress();
+            joinMulticastGroup();
+        } catch (IOException e) {
+            closeSocket();
+            throw e;
+        }
+        conn = SocketConnection.Multicast;
+        networkOnline = true;
+
+        /* Let the network thread wait on the new channels, and join the zone groups */
+        wake();
+    }
+
+    public synchronized void disconnect() {
+        closeSocket();
+    }
+
+    /* Called when a socket fails - the connection manager reconnects, as long
+       as the socket has not already been replaced */
+    private void socketFailed(Object socket) {
+        boolean failed;
+        synchronized (this) {
+            boolean current = false;
+            for (NetworkLink link : links) {
+                current |= (socket == link);
+            }
+            failed = networkOnline && current;
+            if (failed) {
+                networkOnline = false;
+            }
+        }
+        if (failed) {
+            connMgr.reconnect();
+        }
+    }
+
+    private void openChannel(List<NetworkLink> found) throws SocketException, IOException {
+        bcAddr = shards.getControlGroup();
+        for (NetworkLink link : found) {
+            if (C.DEBUGNET) {
+                Log.d(TAG, "Opening channels on " + link.getName() + " for " + bcAddr);
+            }
+            try {
+                link.open(port);
+            } catch (IOException e) {
+                for (NetworkLink l : found) {
+                    l.close();
+                }
+                throw e;
+            }
+        }
+        links = found.toArray(new NetworkLink[found.size()]);
+    }
+
+    private void joinMulticastGroup() throws IOException {
+        if (!joinGroup(bcAddr)) {
+            throw new SocketException("Unable to join multicast group " + bcAddr);
         }
-        tryConnect();
     }
 
-    public void tryConnect() throws IOException {
-        if (!networkOnline) {
-            Log.i(TAG, "Trying to connect");
-            /* Try opening a multicast socket first */
+    /* Join the group on every link - returns true if it was joined on any */
+    private boolean joinGroup(InetAddress group) {
+        boolean joined = false;
+        for (NetworkLink link : links) {
             try {
-                openMulticastSocket();
-                joinMulticastGroup();
-                conn = SocketConnection.Multicast;
                 if (C.DEBUGNET) {
-                    Log.d(TAG, "Network connected");
+                    Log.d(TAG, "Joining RX multicast group " + group + " on " + link.getName());
                 }
-            } catch (SocketException e1) {
-                if (!e1.getMessage().contains("EADDRINUSE")) {
-                    if (C.DEBUGNET) {
-                        Log.e(TAG, "Unable to read multicast address, error " + e1);
-                    }
-                    networkOnline = false;
-                } else if (C.DEBUGNET) {
-                    Log.d(TAG, "EADDRINUSE returned, error " + e1);
+                MembershipKey key = link.join(group);
+                if (!memberships.contains(key)) {
+                    memberships.add(key);
                 }
-            } catch (UnknownHostException e2) {
+                joined = true;
+            } catch (IOException e) {
                 if (C.DEBUGNET) {
-                    Log.e(TAG, "Unable to find host " + C.IPMCADDR + ", error " + e2);
+                    Log.e(TAG, "Unable to join multicast group " + group + " on " + link.getName() + ", error " + e);
                 }
             }
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        ip4Addr = getIPAddress();
-                    } catch (SocketException e1) {
-                        /* Ignore */
-                    }
-                    try {
-                        if (C.DEBUGNET) {
-                            Log.d(TAG, "Network online " + networkOnline);
-                        }
-                        networkOnline = true;
-                        rxSocket.setSoTimeout(C.RX_TIMEOUT);
-                        joinMulticastGroup();
-                    } catch (SocketException e2) {
-                        if (!e2.getMessage().contains("EADDRINUSE")) {
-                            if (C.DEBUGNET) {
-                                Log.e(TAG, "Unable to get IP address, error " + e2);
-                            }
-                            networkOnline = false;
-                        } else if (C.DEBUGNET) {
-                            Log.d(TAG, "EADDRINUSE returned, error " + e2);
-                        }
-                    } catch (IOException e3) {
-                        if (C.DEBUGNET) {
-                            Log.e(TAG, "Unable to get IP address, error " + e3);
-                        }
-                        networkOnline = false;
-                    }
+        }
+        return joined;
+    }
+
+    private void leaveGroup(InetAddress group) {
+        Iterator<MembershipKey> i = memberships.iterator();
+        while (i.hasNext()) {
+            MembershipKey key = i.next();
+            if (key.group().equals(group)) {
+                key.drop();
+                i.remove();
+            }
+        }
+    }
+
+    /* The zone groups to join (see ShardMap.wantedZones()) */
+    private int wantedZones(long now) {
+        return shards.wantedZones(hub != null, FencingBoxActivity.isSerialConnected(), isHubAlive(now), zone);
+    }
+
+    /* Join and leave the zone groups, so that only the ones needed are joined */
+    private synchronized void updateGroups(long now) {
+        if (links.length == 0 || !networkOnline) {
+            return;
+        }
+        int wanted = wantedZones(now);
+        for (int z = 1; z <= C.MAX_ZONES; z++) {
+            int bit = (1 << z);
+            if ((wanted & bit) != 0 && (joinedZones & bit) == 0) {
+                /* If the join failed, try again next time round */
+                if (joinGroup(shards.getGroup(z))) {
+                    joinedZones |= bit;
+                }
+            } else if ((wanted & bit) == 0 && (joinedZones & bit) != 0) {
+                if (C.DEBUGNET) {
+                    Log.d(TAG, "Leaving RX multicast group " + shards.getGroup(z) + " for zone " + z);
                 }
-            }).start();
+                leaveGroup(shards.getGroup(z));
+                joinedZones &= ~bit;
+            }
         }
     }
 
-    private void openMulticastSocket() throws SocketException, UnknownHostException, IOException {
-        bcAddr = InetAddress.getByName(C.IPMCADDR);
+    /* Change which pistes are in each zone - returns false if the mapping
+       is not valid. The zone groups are joined again for the new zones. */
+    public boolean setShardMap(String spec) {
+        ShardMap map;
+        try {
+            map = new ShardMap(spec);
+        } catch (IOException e) {
+            return false;
+        }
+        if (!map.getSpec().equals(spec)) {
+            return false;
+        }
+        synchronized (this) {
+            leaveZoneGroups();
+            shards = map;
+            if (zone > map.getZones()) {
+                zone = 0;
+            }
+        }
+        wake();
+        return true;
+    }
 
-        if (txSocket == null) {
-            if (C.DEBUGNET) {
-                Log.d(TAG, "Opening TX multicast socket " + bcAddr);
+    public String getShardMap() {
+        return shards.getSpec();
+    }
+
+    /* Only receive the pistes in this zone (0 means all zones) */
+    public void setZone(int zone) {
+        this.zone = (zone >= 0 && zone <= shards.getZones()) ? zone : 0;
+        wake();
+    }
+
+    public int getZone() {
+        return zone;
+    }
+
+    public int getZones() {
+        return shards.getZones();
+    }
+
+    /* The multicast group for this repeater's piste */
+    private InetAddress pisteGroup() {
+        return shards.getPisteGroup(mainActivity.getPiste());
+    }
+
+    private synchronized void leaveZoneGroups() {
+        for (int z = 1; z <= C.MAX_ZONES; z++) {
+            if ((joinedZones & (1 << z)) != 0) {
+                leaveGroup(shards.getGroup(z));
+            }
+        }
+        joinedZones = 0;
+    }
+
+    private void closeSocket() {
+        networkOnline = false;
+        if (links.length > 0) {
+            leaveZoneGroups();
+            leaveGroup(bcAddr);
+            for (NetworkLink link : links) {
+                link.close();
+            }
+        }
+        memberships.clear();
+        links = new NetworkLink[0];
+        conn = SocketConnection.None;
+    }
+
+    /* Only use this network interface (null means all of them) */
+    public void setInterface(String name) {
+        linkName = name;
+        connMgr.rebind();
+    }
+
+    public String getInterface() {
+        return linkName;
+    }
+
+    public NetworkLink[] getLinks() {
+        return links.clone();
+    }
+
+    /* The link to send a unicast message on - the one on the same subnet
+       as the address, otherwise the first (wired interfaces come first) */
+    private NetworkLink linkFor(InetAddress addr, NetworkLink[] l) {
+        for (NetworkLink link : l) {
+            if (link.isOnSubnet(addr)) {
+                return link;
             }
-            txSocket = new MulticastSocket(C.IPMCPORT);
         }
-        if (rxSocket == null) {
+        return (l.length > 0) ? l[0] : null;
+    }
+
+    private void updateLinkStats(long now) {
+        if (timers.linkStatsDue(now)) {
+            for (NetworkLink link : links) {
+                link.updateRates(now);
+                if (C.DEBUGNET) {
+                    Log.d(TAG, "Link " + link);
+                }
+            }
+            rxAvgMicros = (rxCount > 0) ? (int) (rxNanos / rxCount / 1000) : 0;
+            rxMaxMicros = (int) (rxMaxNanos / 1000);
+            rxCount = rxNanos = rxMaxNanos = 0;
             if (C.DEBUGNET) {
-                Log.d(TAG, "Opening RX multicast socket " + bcAddr);
+                Log.d(TAG, "RX processing " + rxAvgMicros + "us average, " + rxMaxMicros + "us longest");
             }
-            rxSocket = new MulticastSocket(C.IPMCPORT);
         }
     }
 
-    private void joinMulticastGroup() throws IOException {
-        if (txSocket != null) {
+    /* Send a message on every link for a multicast address, or the best
+       link for a unicast address */
+    private boolean txPacket(String msg, InetAddress addr) {
+        NetworkLink[] l = links;
+        ByteBuffer b = ByteBuffer.wrap(msg.getBytes());
+        InetSocketAddress to = new InetSocketAddress(addr, port);
+        boolean sent = false;
+        if (addr.isMulticastAddress()) {
+            for (NetworkLink link : l) {
+                b.rewind();
+                sent |= txPacket(link, b, to, true);
+            }
+        } else {
+            NetworkLink link = linkFor(addr, l);
+            if (link != null) {
+                sent = txPacket(link, b, to, false);
+            }
+        }
+        return sent;
+    }
+
+    private boolean txPacket(NetworkLink link, ByteBuffer b, InetSocketAddress to, boolean multicast) {
+        try {
+            return link.send(b, to, multicast);
+        } catch (IOException e) {
             if (C.DEBUGNET) {
-                Log.d(TAG, "Joining TX multicast group " + bcAddr);
+                Log.e(TAG, "Unable to TX message on " + link.getName() + ", error " + e);
             }
-            ((MulticastSocket) txSocket).joinGroup(bcAddr);
+            socketFailed(link);
+            return false;
         }
-        if (rxSocket != null) {
+    }
+
+    public void send(String msg) {
+        try {
             if (C.DEBUGNET) {
-                Log.d(TAG, "Joining RX multicast group " + bcAddr);
+                Log.d(TAG, "Add TX message " + msg);
             }
-            ((MulticastSocket) rxSocket).joinGroup(bcAddr);
+            txMsgs.add(msg);
+            wakeSelector();
+        } catch (Exception e) {
+            return;
         }
     }
 
-    private void closeSocket() {
-        if (txSocket != null) {
+    /* Send the full message now, rather than waiting for the next interval,
+       for example when a hit is registered or the clock starts */
+    public void kick() {
+        synchronized (txLock) {
+            txKick = true;
+        }
+        wakeSelector();
+    }
+
+    /* Wake up the network thread to check for control messages to send */
+    private void wake() {
+        synchronized (txLock) {
+            txWake = true;
+        }
+        wakeSelector();
+    }
+
+    private void wakeSelector() {
+        Selector sel = selector;
+        if (sel != null) {
+            sel.wakeup();
+        }
+    }
+
+    public void setTxRateProfile(TxRateProfile.Preset preset) {
+        txRate.setPreset(preset);
+        kick();
+    }
+
+    public TxRateProfile.Preset getTxRateProfile() {
+        return txRate.getPreset();
+    }
+
+    /* Wait for messages to arrive until the deadline, sending any other
+       messages straight away - returns true if the full message should be
+       sent straight away */
+    private boolean waitForEvents(long deadline) {
+        while (!stopping) {
+            String msg;
+            while ((msg = txMsgs.poll()) != null) {
+                txMessage(msg);
+            }
+            synchronized (txLock) {
+                if (txKick) {
+                    txKick = txWake = false;
+                    return true;
+                }
+                if (txWake) {
+                    txWake = false;
+                    return false;
+                }
+            }
+            long wait = deadline - SystemClock.elapsedRealtime();
+            if (wait <= 0) {
+                return false;
+            }
+            registerChannel();
             try {
-                ((MulticastSocket) txSocket).leaveGroup(bcAddr);
+                if (selector.select(wait) > 0) {
+                    rxPackets(selector.selectedKeys());
+                }
             } catch (IOException e) {
-                /* Ignore */
-            } finally {
-                txSocket.close();
+                if (C.DEBUGNET) {
+                    Log.e(TAG, "Unable to select, error " + e);
+                }
             }
         }
-        if (rxSocket != null) {
+        return false;
+    }
+
+    /* Wait for messages on the channels of the current links - new channels
+       are made each time the network connects, and the old ones are taken
+       out of the selector when they are closed */
+    private void registerChannel() {
+        NetworkLink[] l = links;
+        if (l != registered) {
+            registered = null;
             try {
-                ((MulticastSocket) rxSocket).leaveGroup(bcAddr);
+                for (NetworkLink link : l) {
+                    link.register(selector);
+                }
+                registered = l;
+            } catch (ClosedChannelException e) {
+                /* Closed while connecting - the connection manager reconnects */
             } catch (IOException e) {
-                /* Ignore */
-            } finally {
-                rxSocket.close();
+                if (C.DEBUGNET) {
+                    Log.e(TAG, "Unable to wait for messages, error " + e);
+                }
             }
         }
-        networkOnline = false;
-        conn = SocketConnection.None;
     }
 
-    private Inet4Address getIPAddress() throws SocketException {
-        Enumeration<NetworkInterface> netIfs = NetworkInterface.getNetworkInterfaces();
-        while (netIfs.hasMoreElements()) {
-            NetworkInterface netIf = netIfs.nextElement();
-            if (netIf.getName().contains("wlan0")) {
-                Enumeration<InetAddress> ifAddrs = netIf.getInetAddresses();
-                while (ifAddrs.hasMoreElements()) {
-                    InetAddress ifAddr = ifAddrs.nextElement();
-                    /* Only look at it if it is an IPV4 address */
-                    if (!ifAddr.isLoopbackAddress()) {
-                        if (ifAddr instanceof Inet4Address) {
-                            Inet4Address if4Addr = (Inet4Address) ifAddr;
-                            networkOnline = true;
-                            return if4Addr;
-                        }
+    /* Process the messages which have arrived on the selected channels, up
+       to RX_BATCH of them - the rest are left for the next select */
+    private void rxPackets(Set<SelectionKey> selected) {
+        int n = 0;
+        Iterator<SelectionKey> i = selected.iterator();
+        while (i.hasNext()) {
+            SelectionKey key = i.next();
+            i.remove();
+            NetworkLink link = (NetworkLink) key.attachment();
+            DatagramChannel ch = (DatagramChannel) key.channel();
+            for (; n < C.RX_BATCH; n++) {
+                SocketAddress from;
+                rxBuf.clear();
+                try {
+                    from = ch.receive(rxBuf);
+                } catch (IOException e) {
+                    if (C.DEBUGNET) {
+                        Log.e(TAG, "Unable to RX message on " + link.getName() + ", error " + e);
                     }
+                    socketFailed(link);
+                    break;
                 }
+                if (from == null) {
+                    break;
+                }
+                long start = System.nanoTime();
+                rxPacket(link, rxBuf.array(), 0, rxBuf.position(), ((InetSocketAddress) from).getAddress());
+                long t = System.nanoTime() - start;
+                rxCount++;
+                rxNanos += t;
+                rxMaxNanos = Math.max(rxMaxNanos, t);
             }
         }
-        networkOnline = false;
-        throw new SocketException("No IP address found");
     }
 
-    public void send(String msg) {
+    /* True if a message with this hash was received on a link other than
+       the one it has just arrived on */
+    private static boolean isCopy(NetworkLink link, NetworkLink[] l, int hash, long now) {
+        for (NetworkLink other : l) {
+            if (other != link && other.hasRecent(hash, now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rxPacket(NetworkLink link, byte[] data, int off, int len, InetAddress host) {
+        long now = SystemClock.elapsedRealtime();
+        int hash = NetworkLink.hashOf(data, off, len, host);
+        if (!link.received(hash, len, isCopy(link, links, hash, now), now)) {
+            /* The same message, received on another link */
+            return;
+        }
+        if (C.DEBUGNET) {
+            Log.d(TAG, "RX message " + new String(data, off, len));
+        }
+        FencingBoxHub h = hub;
+        if (len > 0 && data[off] == '#') {
+            /* Control messages are not sent often, so they are turned into strings */
+            String msg = new String(data, off, len);
+            if (NetworkTime.isTimeMessage(msg)) {
+                /* Reply straight away, so that the reply is not delayed by the timers */
+                String reply = netTime.receive(msg, now);
+                if (reply != null) {
+                    txControl(reply);
+                }
+            } else if (msg.startsWith(MSG_SUBSCRIBE)) {
+                rxSubscription(msg, host);
+            } else if (msg.startsWith(FencingBoxHub.MSG_HUB)) {
+                rxHub(data, off, len, host);
+            }
+        } else {
+            if (h != null) {
+                h.ingest(new String(data, off, len), now);
+            }
+
+            /* While a hub is sending, a display client ignores the piste messages */
+            if (h == null && isHubAlive(now)) {
+                return;
+            }
+            if (!unicastMode || isWanted(data, off, len)) {
+                /* Add this box to the list, if it is not already there */
+                int piste = FrameParser.pisteOf(data, off, len);
+                boolean known = mainActivity.boxList.hasBox(piste);
+                mainActivity.boxList.updateBox(data, off, len, host);
+
+                /* Subscribe to a wanted piste as soon as it is found, rather
+                   than getting only its discovery messages until the next
+                   subscription refresh */
+                if (!known && piste > 0 && (wantedMask(now) & (1L << piste)) != 0) {
+                    subscriptionChanged = true;
+                    txSubscription(now);
+                }
+            }
+        }
+    }
+
+    /* The average and longest time taken to process a received message
+       since the link statistics were last worked out, in microseconds */
+    public int getRxAvgMicros() {
+        return rxAvgMicros;
+    }
+
+    public int getRxMaxMicros() {
+        return rxMaxMicros;
+    }
+
+    public void setUnicastMode(boolean unicast) {
+        unicastMode = unicast;
+        if (!unicast) {
+            subscribers.clear();
+        }
+        subscriptionChanged = true;
+        wake();
+    }
+
+    public boolean isUnicastMode() {
+        return unicastMode;
+    }
+
+    /* Subscribe to the piste being displayed (0 means none) */
+    public void subscribe(int piste) {
+        if (piste != displayPiste) {
+            displayPiste = piste;
+            subscriptionChanged = true;
+            wake();
+        }
+    }
+
+    /* Subscribe to every piste known, for the wall display */
+    public void subscribeAll(boolean all) {
+        if (all != subscribeAll) {
+            subscribeAll = all;
+            subscriptionChanged = true;
+            wake();
+        }
+    }
+
+    /* The link throughput, subscriptions and network time are sent or
+       worked out less often while the app is idle (see NetworkTimers) - the
+       state of the box is sent at the rate for its phase (see
+       FencingBoxActivity.getTxPhase()) */
+    public void setIdlePolicy(IdlePolicy idle) {
+        timers.setIdlePolicy(idle);
+    }
+
+    /* Turn the hub role on or off */
+    public void setHub(boolean on) {
+        if (on && hub == null) {
+            hub = new FencingBoxHub();
+            nextHubFrame = 0;
+        } else if (!on) {
+            hub = null;
+        }
+        subscriptionChanged = true;
+        wake();
+    }
+
+    public boolean isHub() {
+        return hub != null;
+    }
+
+    /* A display client only needs the hub messages while a hub is sending them */
+    public boolean isHubAlive(long now) {
+        return lastHubRx != 0 && (now - lastHubRx) < C.HUB_TIMEOUT;
+    }
+
+    /* The shared network timebase */
+    public NetworkTime getNetworkTime() {
+        return netTime;
+    }
+
+    private void txTimeSync(long now) {
+        if (timers.timeSyncDue(now, netTime.getInterval())) {
+            txControl(netTime.buildRequest(now));
+        }
+    }
+
+    private void txHub(FencingBoxHub h, long now) {
+        if (now >= nextHubFrame) {
+            for (String frame : h.buildFrames(now)) {
+                txControl(frame);
+            }
+            nextHubFrame = now + C.HUB_INTERVAL;
+        }
+    }
+
+    /* Pass each piste message in the hub message to the box list, straight
+       from the received bytes */
+    private void rxHub(byte[] buf, int off, int len, InetAddress host) {
+        /* The hub ignores any other hub */
+        if (hub == null && len > FencingBoxHub.HEADER_LENGTH) {
+            long now = SystemClock.elapsedRealtime();
+            boolean wasAlive = isHubAlive(now);
+            lastHubRx = now;
+            if (!wasAlive) {
+                /* Leave the zone groups straight away, now the hub sends every piste */
+                wake();
+            }
+            int end = off + len;
+            int start = off + FencingBoxHub.HEADER_LENGTH;
+            for (int i = start; i <= end; i++) {
+                if (i == end || buf[i] == FencingBoxHub.SEPARATOR) {
+                    mainActivity.boxList.updateBox(buf, start, i - start, host, true);
+                    start = i + 1;
+                }
+            }
+        }
+    }
+
+    private void txFull(String msg, long now) {
+        FencingBoxHub h = hub;
+        if (h != null) {
+            h.ingest(msg, now);
+        }
+        if (unicastMode) {
+            /* Send to each subscriber in turn, and only multicast
+               at a slow rate so that display clients can find us -
+               with no subscribers yet, any display client is listening
+               to the multicast, so that is sent at the full rate */
+            int n = subscribers.getSubscribers(subscriberHosts, now);
+            for (int i = 0; i < n; i++) {
+                txMessage(msg, subscriberHosts[i]);
+            }
+            if (n == 0 || now >= nextDiscovery) {
+                txMessage(msg, pisteGroup());
+                nextDiscovery = now + C.DISCOVERY_INTERVAL;
+            }
+        } else {
+            txMessage(msg, pisteGroup());
+        }
+    }
+
+    /* The hub subscribes to every piste it knows about, and a display client
+       to the piste it is showing (or every piste, for the wall display),
+       unless it is getting that from a hub */
+    private long wantedMask(long now) {
+        long mask = 0;
+        FencingBoxHub h = hub;
+        if (h != null) {
+            mask |= h.liveMask(now);
+        }
+        if (h != null || !isHubAlive(now)) {
+            if (subscribeAll) {
+                mask |= mainActivity.boxList.snapshot().mask;
+            } else if (displayPiste > 0) {
+                mask |= (1L << displayPiste);
+            }
+        }
+        return mask;
+    }
+
+    private void txSubscription(long now) {
+        /* Cleared before the mask is worked out, so that a change made
+           meanwhile is sent on the next pass rather than lost */
+        boolean changed = subscriptionChanged;
+        subscriptionChanged = false;
+        long mask = wantedMask(now);
+        if (mask != 0 && (changed || mask != subscribedMask || timers.subscriptionDue(now))) {
+            StringBuilder msg = new StringBuilder(MSG_SUBSCRIBE);
+            for (int piste = 1; piste <= C.MAX_PISTE; piste++) {
+                if ((mask & (1L << piste)) != 0) {
+                    if (msg.length() > MSG_SUBSCRIBE.length()) {
+                        msg.append('|');
+                    }
+                    msg.append(String.format("%02d", piste));
+                }
+            }
+            txControl(msg.toString());
+            timers.subscribed(now);
+        }
+        subscribedMask = mask;
+    }
+
+    private void rxSubscription(String msg, InetAddress host) {
+        if (!unicastMode || !FencingBoxActivity.isSerialConnected()) {
+            return;
+        }
         try {
+            for (int i = MSG_SUBSCRIBE.length(); i+2 <= msg.length(); i += 3) {
+                int piste = Integer.parseInt(msg.substring(i, i+2));
+                if (piste == mainActivity.getPiste()) {
+                    if (!subscribers.subscribe(host, SystemClock.elapsedRealtime()) && C.DEBUGNET) {
+                        Log.d(TAG, "Subscriber table full, " + host + " ignored");
+                    }
+                    break;
+                }
+            }
+        } catch (NumberFormatException e) {
+            /* Ignore */
+        }
+    }
+
+    /* In unicast mode, only process a message if it is for a piste
+       subscribed to, or it is from a box which is not yet known */
+    private boolean isWanted(byte[] buf, int off, int len) {
+        int piste = FrameParser.pisteOf(buf, off, len);
+        return piste > 0 &&
+                ((subscribedMask & (1L << piste)) != 0 || !mainActivity.boxList.hasBox(piste));
+    }
+
+    private void txControl(String msg) {
+        if (networkOnline) {
             if (C.DEBUGNET) {
-                Log.d(TAG, "Add TX message " + msg);
+                Log.d(TAG, "TX control message " + msg);
             }
-            txMsgs.add(msg);
-        } catch (Exception e) {
-            return;
+            txPacket(msg, bcAddr);
         }
     }
 
-    public void connected(boolean c) { connected = c; }
+    private void txMessage(String msg) {
+        txMessage(msg, pisteGroup());
+    }
+
+    private void txMessage(String msg, InetAddress addr) {
+        /* Only send the message if we are connected to a box, otherwise junk it */
+        if (FencingBoxActivity.isSerialConnected() && networkOnline) {
+            if (C.DEBUGNET) {
+                Log.d(TAG, "TX message " + msg);
+            }
+            txPacket(msg, addr);
+        }
+    }
+
+    /* Connected to a box (or not) - on connecting, the state of the box is
+       sent straight away, so that the displays do not show the piste as
+       offline until the next interval */
+    public void connected(boolean c) {
+        boolean wasConnected = connected;
+        connected = c;
+        if (c && !wasConnected) {
+            kick();
+        }
+    }
 
     public boolean isNetworkOnline() {
         return networkOnline;
     }
 
-    public void start() {
+    /* Stop the network thread, and close the channels and the selector - the
+       thread is woken by the selector closing, and is waited for so that
+       nothing more is sent once this returns */
+    public void stop() {
         if (!isThreadRunning) {
-            txThread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    if (C.DEBUGNET) {
-                        Log.d(TAG, "TX thread running");
-                    }
-                    while (true) {
-                        /* If there's a message, fetch it */
-                        while (txMsgs.peek() != null) {
-                            String msg;
-                            try {
-                                msg = txMsgs.remove();
-                            } catch (NoSuchElementException e) {
-                                break;
-                            }
-
-                            /* Only send the message if we are connected to a box, otherwise junk it */
-                            if (FencingBoxActivity.isSerialConnected()) {
-                                DatagramPacket p = new DatagramPacket(msg.getBytes(), msg.length(), bcAddr, port);
-                                /* Keep sending this message if this is the only one */
-                                if (C.DEBUGNET) {
-                                    Log.d(TAG, "Connection state " +
-                                            FencingBoxActivity.isSerialConnected() + ", TX socket " + txSocket);
-                                }
-                                if (!txSocket.isClosed()) {
-                                    do {
-                                        try {
-                                            if (FencingBoxActivity.isSerialConnected()) {
-                                                if (C.DEBUGNET) {
-                                                    Log.d(TAG, "TX message " + msg);
-                                                }
-                                                txSocket.send(p);
-                                                networkOnline = true;
-                                                if (txMsgs.peek() != null) {
-                                                    break;
-                                                } else {
-                                                    /* If there are no more messages, wait a bit before resending */
-                                                    Thread.sleep(250);
-                                                }
-                                            } else {
-                                                break;
-                                            }
-                                        } catch (Exception e) {
-                                            if (C.DEBUGNET) {
-                                                Log.e(TAG, "Unable to TX message, error " + e);
-                                            }
-                                            networkOnline = false;
-                                            /* Wait a second before trying again */
-                                            try {
-                                                Thread.sleep(1000);
-                                            } catch (Exception f) {
-                                                /* Ignore */
-                                            }
-                                        }
-                                    } while (txMsgs.peek() == null);
-                                }
-                            }
-                        }
-                    }
-                }
-            });
+            return;
+        }
+        stopping = true;
+        connMgr.stop();
+        synchronized (this) {
+            closeSocket();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            /* Ignore */
+        }
+        try {
+            netThread.join(C.NET_STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (netThread.isAlive()) {
+            Log.e(TAG, "Network thread did not stop");
+        }
+        netThread = null;
+        selector = null;
+        registered = null;
+        isThreadRunning = false;
+    }
 
-            rxThread = new Thread(new Runnable() {
+    public void start() {
+        if (!isThreadRunning) {
+            stopping = false;
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to open selector, error " + e);
+                return;
+            }
+            netThread = new Thread(new Runnable() {
                 @Override
                 public void run() {
-                    byte[] buf = new byte[100];
                     if (C.DEBUGNET) {
-                        Log.d(TAG, "RX thread running");
+                        Log.d(TAG, "Network thread running");
                     }
-                    while (true) {
-                        DatagramPacket p = new DatagramPacket(buf, 100);
-                        while (true) {
-                            if (networkOnline) {
-                                try {
-                                    rxSocket.receive(p);
-                                    String msg = new String(p.getData(), p.getOffset(), p.getLength());
-                                    if (C.DEBUGNET) {
-                                        Log.d(TAG, "RX message " + msg);
-                                    }
-                                    try {
-                                        /* Add this box to the list, if it is not already there */
-                                        mainActivity.boxList.updateBox(msg, p.getAddress().getHostAddress());
-                                    } catch (IllegalStateException e) {
-                                        /* Ignore (queue full) */
-                                    }
-                                } catch (SocketTimeoutException e) {
-                                    /* Ignore - wait for network to be reconnected */
-                                    if (C.DEBUGNET) {
-                                        Log.d(TAG, "RX socket timeout, ignored " + e);
-                                    }
-                                    //networkOnline = false;
-                                } catch (NullPointerException e) {
-                                    return;
-                                } catch (IOException e) {
-                                    if (C.DEBUGNET) {
-                                        Log.e(TAG, "Unable to RX message, error " + e);
-                                    }
-                                    networkOnline = false;
-                                }
-                            } else {
-                                try {
-                                    if (C.DEBUGNET) {
-                                        Log.d(TAG, "Waiting to connect RX");
-                                    }
-                                    Thread.sleep(500);
-                                    tryConnect();
-                                } catch (Exception e) {
-                                    if (C.DEBUGNET) {
-                                        Log.d(TAG, "RX connect failed, error " + e);
-                                    }
-                                    /* Ignore */
-                                }
-                            }
-                        }
+                    try {
+                        loop();
+                    } catch (ClosedSelectorException e) {
+                        /* Stopped */
                     }
                 }
-            });
+            }, "network");
 
-            /* Start the TX and RX threads */
-            rxThread.start();
-            txThread.start();
+            /* Start the network thread */
+            netThread.start();
             isThreadRunning = true;
+
+            /* Connect whenever a Wifi network is available */
+            connMgr.start();
         }
     }
 
-    public boolean checkNetworkConnection(Context context) {
-        final ConnectivityManager connMgr = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-        if (connMgr != null) {
-            NetworkInfo activeNetwork = connMgr.getActiveNetworkInfo();
+    /* The local time of the next transmit slot for this piste - the slots
+       are on the shared network time, so that the repeaters agree on where
+       they are, or on the wall clock until that is synchronised */
+    private long nextTxTime(long now, int interval) {
+        long slotNow = netTime.isSynchronised() ? netTime.toNetwork(now) : System.currentTimeMillis();
+        return now + txSchedule.nextTxTime(slotNow, mainActivity.getPiste(), interval) - slotNow;
+    }
 
-            if (activeNetwork != null) {
-                if (activeNetwork.getType() == ConnectivityManager.TYPE_WIFI) {
-                    if (C.DEBUGNET) {
-                        Log.d(TAG, "Wifi connection valid");
-                    }
-                    return true;
-                } else if (activeNetwork.getType() == ConnectivityManager.TYPE_MOBILE) {
-                    /* Drop through, as this is not a valid connection */
+    private void loop() {
+        long nextFull = 0;
+        boolean sendFull = true;
+        while (!stopping) {
+            long now = SystemClock.elapsedRealtime();
+            if (sendFull || now >= nextFull) {
+                /* Send the full message at the rate for the current phase of the box */
+                TxRateProfile.Phase phase = mainActivity.getTxPhase(txRate);
+                if (phase != TxRateProfile.Phase.Silent) {
+                    txFull(mainActivity.msgFull(), now);
                 }
+
+                /* The next one is sent in the transmit slot for this piste in the next interval */
+                nextFull = nextTxTime(SystemClock.elapsedRealtime(), txRate.getInterval(phase));
+            }
+            long deadline = nextFull;
+
+            /* Join only the zone groups needed - a display client joins the
+               zone groups again as soon as the hub goes quiet */
+            updateGroups(now);
+            if (hub == null && isHubAlive(now)) {
+                deadline = Math.min(deadline, lastHubRx + C.HUB_TIMEOUT);
             }
+            updateLinkStats(now);
+
+            /* Display clients and the hub renew their subscriptions, whether or
+               not they are in unicast mode, so that a repeater in unicast mode
+               sends to every display client at the full rate */
+            txSubscription(now);
+
+            /* Keep the network time synchronised */
+            txTimeSync(now);
+            deadline = timers.next(deadline, subscribedMask != 0);
+
+            /* The hub sends the aggregated message for all pistes - with no
+               piste live it has nothing to send, and the next piste message
+               received wakes this loop anyway */
+            FencingBoxHub h = hub;
+            if (h != null) {
+                txHub(h, now);
+                if (h.liveMask(now) != 0) {
+                    deadline = Math.min(deadline, nextHubFrame);
+                }
+            }
+
+            /* Until the next timer is due, process the messages received,
+               and send any other messages straight away */
+            sendFull = waitForEvents(deadline);
         }
-        /* Not connected to Wifi (mobile is not counted) */
-        networkOnline = false;
-        return false;
     }
 }
@@ -0,0 +1,222 @@
+package com.robinterry.fencingboxapp;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.robinterry.constants.C;
+
+/* Network connection manager.
+
+   Connects the network sockets when a Wifi or Ethernet network becomes
+   available, and disconnects them when the last one is lost, as told by
+   the connectivity service - rather than polling the network state. When
+   a network comes or goes, or its interface or address changes, the
+   sockets are bound to the interfaces again. All of the socket work is
+   done on the connection manager's own thread, and a failed connection
+   is retried with exponential backoff. */
+
+@SuppressWarnings("ALL")
+public class NetworkConnectionManager {
+    public static final String TAG = NetworkConnectionManager.class.getSimpleName();
+    private final Context context;
+    private final NetworkBroadcast bc;
+    private ConnectivityManager connMgr = null;
+    private ConnectivityManager.NetworkCallback callback = null;
+    private HandlerThread handlerThread = null;
+    private Handler handler = null;
+
+    /* The following are only used on the handler thread */
+    private final Map<Network, String> networks = new HashMap<Network, String>();
+    private int backoff = C.NET_BACKOFF_MIN;
+    private boolean pending = false;
+
+    private final Runnable connectTask = new Runnable() {
+        @Override
+        public void run() {
+            pending = false;
+            connect();
+        }
+    };
+
+    public NetworkConnectionManager(Context context, NetworkBroadcast bc) {
+        this.context = context;
+        this.bc = bc;
+    }
+
+    public synchronized void start() {
+        if (handlerThread != null) {
+            return;
+        }
+        handlerThread = new HandlerThread("networkConnection");
+        handlerThread.start();
+        handler = new Handler(handlerThread.getLooper());
+
+        connMgr = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connMgr == null) {
+            Log.e(TAG, "No connectivity service");
+            return;
+        }
+
+        /* Only a Wifi or Ethernet network is any use (mobile is not counted) */
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                .addTransportType(NetworkCapabilities.TRANSPORT_ETHERNET)
+                .build();
+        callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(final Network n) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (C.DEBUGNET) {
+                            Log.d(TAG, "Network available " + n);
+                        }
+                        networks.put(n, "");
+                        backoff = C.NET_BACKOFF_MIN;
+                        schedule(0);
+                    }
+                });
+            }
+
+            @Override
+            public void onLinkPropertiesChanged(final Network n, final LinkProperties lp) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        /* Only reconnect if the interface or address has changed */
+                        String key = lp.getInterfaceName() + " " + lp.getLinkAddresses();
+                        String oldKey = networks.get(n);
+                        if (oldKey != null && !key.equals(oldKey)) {
+                            if (!oldKey.isEmpty()) {
+                                if (C.DEBUGNET) {
+                                    Log.d(TAG, "Network link changed " + key);
+                                }
+                                backoff = C.NET_BACKOFF_MIN;
+                                schedule(0);
+                            }
+                            networks.put(n, key);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onLost(final Network n) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (networks.remove(n) != null) {
+                            if (C.DEBUGNET) {
+                                Log.d(TAG, "Network lost " + n);
+                            }
+                            if (networks.isEmpty()) {
+                                handler.removeCallbacks(connectTask);
+                                pending = false;
+                                bc.disconnect();
+                            } else {
+                                /* Bind to the interfaces which are left */
+                                backoff = C.NET_BACKOFF_MIN;
+                                schedule(0);
+                            }
+                        }
+                    }
+                });
+            }
+        };
+        connMgr.registerNetworkCallback(request, callback);
+    }
+
+    public synchronized void stop() {
+        if (connMgr != null && callback != null) {
+            try {
+                connMgr.unregisterNetworkCallback(callback);
+            } catch (IllegalArgumentException e) {
+                /* Ignore - not registered */
+            }
+            callback = null;
+        }
+        if (handlerThread != null) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    bc.disconnect();
+                }
+            });
+            handlerThread.quitSafely();
+            handlerThread = null;
+        }
+    }
+
+    /* Called when the sockets fail - reconnect after the backoff delay,
+       unless a reconnection is already on its way */
+    public void reconnect() {
+        Handler h = handler;
+        if (h != null) {
+            h.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!networks.isEmpty()) {
+                        schedule(backoff);
+                    }
+                }
+            });
+        }
+    }
+
+    /* Bind to the interfaces again straight away, for example when a
+       different interface is selected */
+    public void rebind() {
+        Handler h = handler;
+        if (h != null) {
+            h.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!networks.isEmpty()) {
+                        handler.removeCallbacks(connectTask);
+                        pending = false;
+                        backoff = C.NET_BACKOFF_MIN;
+                        schedule(0);
+                    }
+                }
+            });
+        }
+    }
+
+    private void schedule(int delay) {
+        if (!pending) {
+            pending = true;
+            handler.postDelayed(connectTask, delay);
+        }
+    }
+
+    private void connect() {
+        if (networks.isEmpty()) {
+            return;
+        }
+        try {
+            Log.i(TAG, "Trying to connect");
+            bc.connect();
+            backoff = C.NET_BACKOFF_MIN;
+            if (C.DEBUGNET) {
+                Log.d(TAG, "Network connected");
+            }
+        } catch (IOException e) {
+            if (C.DEBUGNET) {
+                Log.e(TAG, "Unable to connect, retry in " + backoff + "ms, error " + e);
+            }
+            schedule(backoff);
+            backoff = Math.min(backoff * 2, C.NET_BACKOFF_MAX);
+        }
+    }
+}
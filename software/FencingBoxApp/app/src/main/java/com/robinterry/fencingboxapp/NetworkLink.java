@@ -0,0 +1,372 @@
+package com.robinterry.fencingboxapp;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import com.robinterry.constants.C;
+
+/* A network interface which the multicast messages are sent and received on.
+
+   Each link has two channels of its own, so that a message received is
+   counted on the link it arrived on:
+   - a multicast channel, bound to the port on any address, which joins
+     the groups on this link's interface only, and sends with its outgoing
+     interface set to this one - so that multicast messages go out on
+     every link rather than only on the default interface
+   - a unicast channel, bound to the port on this link's address, which
+     gets the messages sent to that address and sends the unicast ones
+   The counts of the messages sent and received on the link are kept, to
+   give the throughput of each link.
+
+   A device on two networks which both carry the multicast groups gets
+   each message once on each - the second copy is dropped, and only
+   counted as a duplicate, so the message is only processed once and the
+   link's throughput is of the messages sent to it. */
+
+@SuppressWarnings("ALL")
+public class NetworkLink {
+    /* Interfaces which are never used - mobile data, VPN, and so on */
+    private static final String[] EXCLUDED = { "rmnet", "ccmni", "pdp", "tun", "ppp", "dummy", "ip6tnl", "sit" };
+    private static final String TAG = NetworkLink.class.getSimpleName();
+    /* Linux socket option (not in OsConstants) - when on, as it is by
+       default, a socket gets a multicast message for a group which any
+       socket has joined, on any interface */
+    private static final int IP_MULTICAST_ALL = 49;
+
+    private final NetworkInterface netIf;
+    private final Inet4Address addr;
+    private final int prefixLength;
+    private DatagramChannel multicast = null;
+    private DatagramChannel unicast = null;
+
+    private long txPackets = 0, txBytes = 0, txErrors = 0, txDropped = 0;
+    private long rxPackets = 0, rxBytes = 0, rxDuplicates = 0;
+    private final int[] recentHash = new int[C.RX_DUPLICATE_HISTORY];
+    private final long[] recentTime = new long[C.RX_DUPLICATE_HISTORY];
+    private int nextRecent = 0;
+    private long rateTime = 0, rateTxBytes = 0, rateRxBytes = 0;
+    private int txRate = 0, rxRate = 0;
+
+    public NetworkLink(NetworkInterface netIf, Inet4Address addr, int prefixLength) {
+        this.netIf = netIf;
+        this.addr = addr;
+        this.prefixLength = prefixLength;
+    }
+
+    /* Find the interfaces which can be used - these are up, not loopback,
+       support multicast and have an IPV4 address. If 'only' is given, then
+       just that interface is used. Wired interfaces are put first. */
+    public static List<NetworkLink> findLinks(String only) throws SocketException {
+        List<NetworkLink> links = new ArrayList<NetworkLink>();
+        Enumeration<NetworkInterface> netIfs = NetworkInterface.getNetworkInterfaces();
+        if (netIfs == null) {
+            return links;
+        }
+        for (NetworkInterface netIf : Collections.list(netIfs)) {
+            if (!isEligible(netIf) || (only != null && !only.equals(netIf.getName()))) {
+                continue;
+            }
+            for (InterfaceAddress ifAddr : netIf.getInterfaceAddresses()) {
+                /* Only look at it if it is an IPV4 address */
+                if (ifAddr.getAddress() instanceof Inet4Address) {
+                    NetworkLink link = new NetworkLink(netIf,
+                            (Inet4Address) ifAddr.getAddress(), ifAddr.getNetworkPrefixLength());
+                    if (link.isWired()) {
+                        links.add(0, link);
+                    } else {
+                        links.add(link);
+                    }
+                    break;
+                }
+            }
+        }
+        return links;
+    }
+
+    /* The names of the interfaces which can be used */
+    public static List<String> findNames() {
+        List<String> names = new ArrayList<String>();
+        try {
+            for (NetworkLink link : findLinks(null)) {
+                names.add(link.getName());
+            }
+        } catch (SocketException e) {
+            /* Ignore */
+        }
+        return names;
+    }
+
+    private static boolean isEligible(NetworkInterface netIf) {
+        try {
+            if (!netIf.isUp() || netIf.isLoopback() || netIf.isVirtual() || !netIf.supportsMulticast()) {
+                return false;
+            }
+        } catch (SocketException e) {
+            return false;
+        }
+        for (String prefix : EXCLUDED) {
+            if (netIf.getName().startsWith(prefix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Open the channels on the port */
+    public synchronized void open(int port) throws IOException {
+        close();
+        try {
+            multicast = DatagramChannel.open(StandardProtocolFamily.INET);
+            multicast.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            multicast.bind(new InetSocketAddress(port));
+            multicast.setOption(StandardSocketOptions.IP_MULTICAST_IF, netIf);
+            multicast.configureBlocking(false);
+            onlyGroupsJoined(multicast);
+
+            unicast = DatagramChannel.open(StandardProtocolFamily.INET);
+            unicast.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            unicast.bind(new InetSocketAddress(addr, port));
+            unicast.configureBlocking(false);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /* Only get the multicast messages for the groups joined on this channel's
+       interface - otherwise each channel gets the messages from every link */
+    private void onlyGroupsJoined(DatagramChannel ch) {
+        ParcelFileDescriptor fd = null;
+        try {
+            fd = ParcelFileDescriptor.fromDatagramSocket(ch.socket());
+            if (fd != null) {
+                Os.setsockoptInt(fd.getFileDescriptor(), OsConstants.IPPROTO_IP, IP_MULTICAST_ALL, 0);
+            }
+        } catch (ErrnoException | RuntimeException e) {
+            /* The copies from the other links are then dropped as duplicates */
+            if (C.DEBUGNET) {
+                Log.e(TAG, "Unable to limit " + getName() + " to its own groups, error " + e);
+            }
+        } finally {
+            if (fd != null) {
+                try {
+                    fd.close();
+                } catch (IOException e) {
+                    /* Ignore */
+                }
+            }
+        }
+    }
+
+    public synchronized void close() {
+        for (DatagramChannel ch : new DatagramChannel[] { multicast, unicast }) {
+            if (ch != null) {
+                try {
+                    ch.close();
+                } catch (IOException e) {
+                    /* Ignore */
+                }
+            }
+        }
+        multicast = unicast = null;
+    }
+
+    public synchronized boolean isOpen() {
+        return multicast != null && multicast.isOpen() && unicast != null && unicast.isOpen();
+    }
+
+    /* Join the group on this link's interface - joining a group already
+       joined gives the same key */
+    public MembershipKey join(InetAddress group) throws IOException {
+        DatagramChannel ch;
+        synchronized (this) {
+            ch = multicast;
+        }
+        if (ch == null) {
+            throw new SocketException("Link " + getName() + " is not open");
+        }
+        return ch.join(group, netIf);
+    }
+
+    /* Wait for messages on both channels, with the link attached to their keys */
+    public synchronized void register(Selector selector) throws IOException {
+        if (multicast != null && unicast != null) {
+            multicast.register(selector, SelectionKey.OP_READ, this);
+            unicast.register(selector, SelectionKey.OP_READ, this);
+        }
+    }
+
+    /* Send the message on this link - returns false if it was dropped
+       because the socket buffer is full */
+    public boolean send(ByteBuffer b, SocketAddress to, boolean toGroup) throws IOException {
+        int length = b.remaining();
+        DatagramChannel channel;
+        synchronized (this) {
+            channel = toGroup ? multicast : unicast;
+        }
+        if (channel == null) {
+            throw new SocketException("Link " + getName() + " is not open");
+        }
+        try {
+            if (channel.send(b, to) == 0) {
+                synchronized (this) {
+                    txDropped++;
+                }
+                return false;
+            }
+            synchronized (this) {
+                txPackets++;
+                txBytes += length;
+            }
+            return true;
+        } catch (IOException e) {
+            synchronized (this) {
+                txErrors++;
+            }
+            throw e;
+        }
+    }
+
+    /* Hash of a message and the host it came from, for finding copies */
+    public static int hashOf(byte[] data, int off, int len, InetAddress from) {
+        int hash = from.hashCode();
+        for (int i = off; i < off + len; i++) {
+            hash = 31*hash + data[i];
+        }
+        return hash;
+    }
+
+    /* True if a message with this hash was received on this link in the
+       last RX_DUPLICATE_TIME */
+    public synchronized boolean hasRecent(int hash, long now) {
+        for (int i = 0; i < recentHash.length; i++) {
+            if (recentHash[i] == hash && recentTime[i] != 0 && now - recentTime[i] < C.RX_DUPLICATE_TIME) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Count a message received on this link - returns false if it is a
+       copy of one received from the same host in the last
+       RX_DUPLICATE_TIME, on this link or (as 'copy' says) another */
+    public synchronized boolean received(int hash, int len, boolean copy, long now) {
+        if (copy || hasRecent(hash, now)) {
+            rxDuplicates++;
+            return false;
+        }
+        recentHash[nextRecent] = hash;
+        recentTime[nextRecent] = now;
+        nextRecent = (nextRecent + 1) % recentHash.length;
+        rxPackets++;
+        rxBytes += len;
+        return true;
+    }
+
+    /* True if the address is on the same subnet as this link */
+    public boolean isOnSubnet(InetAddress a) {
+        if (!(a instanceof Inet4Address) || prefixLength <= 0 || prefixLength > 32) {
+            return false;
+        }
+        int mask = (prefixLength == 32) ? -1 : ~(-1 >>> prefixLength);
+        return (toInt(a) & mask) == (toInt(addr) & mask);
+    }
+
+    private static int toInt(InetAddress a) {
+        byte[] b = a.getAddress();
+        return ((b[0] & 0xff) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+    }
+
+    /* Work out the throughput since this was last called */
+    public synchronized void updateRates(long now) {
+        if (rateTime != 0 && now > rateTime) {
+            txRate = (int) ((txBytes - rateTxBytes) * 1000 / (now - rateTime));
+            rxRate = (int) ((rxBytes - rateRxBytes) * 1000 / (now - rateTime));
+        }
+        rateTime = now;
+        rateTxBytes = txBytes;
+        rateRxBytes = rxBytes;
+    }
+
+    public boolean isWired() {
+        return netIf.getName().startsWith("eth");
+    }
+
+    public NetworkInterface getInterface() {
+        return netIf;
+    }
+
+    public String getName() {
+        return netIf.getName();
+    }
+
+    public Inet4Address getAddress() {
+        return addr;
+    }
+
+    public synchronized long getTxPackets() {
+        return txPackets;
+    }
+
+    public synchronized long getRxPackets() {
+        return rxPackets;
+    }
+
+    public synchronized long getRxDuplicates() {
+        return rxDuplicates;
+    }
+
+    public synchronized long getTxErrors() {
+        return txErrors;
+    }
+
+    public synchronized long getTxDropped() {
+        return txDropped;
+    }
+
+    /* Throughput in bytes per second */
+    public synchronized int getTxRate() {
+        return txRate;
+    }
+
+    public synchronized int getRxRate() {
+        return rxRate;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getName() + " " + addr.getHostAddress() + "/" + prefixLength +
+                " TX " + txPackets + " (" + txRate + " B/s, " + txErrors + " errors, " + txDropped + " dropped)" +
+                " RX " + rxPackets + " (" + rxRate + " B/s, " + rxDuplicates + " duplicates)";
+    }
+
+    /* A summary for the diagnostics screen */
+    public synchronized String summary() {
+        return String.format("%-8s %s/%d\n  TX %6d B/s  %d sent  %d errors  %d dropped\n  RX %6d B/s  %d received  %d duplicates",
+                getName(), addr.getHostAddress(), prefixLength,
+                txRate, txPackets, txErrors, txDropped, rxRate, rxPackets, rxDuplicates);
+    }
+}
@@ -0,0 +1,273 @@
+package com.robinterry.fencingboxapp;
+
+import java.util.Random;
+
+import com.robinterry.constants.C;
+
+/* Network time, shared between the repeaters and display clients.
+
+   One node is the time reference - this is the node with the lowest id
+   which has been heard from recently. Every other node estimates the
+   offset (and drift) of its own clock from the reference, in the same
+   way as NTP, by exchanging timestamps over the control multicast group:
+
+   #TQ|<from>|<to>|<t1>              request, sent at t1 (sender's clock)
+   #TR|<from>|<to>|<t1>|<t2>|<t3>    response, request received at t2 and
+                                     response sent at t3 (reference's clock)
+
+   and the response is received at t4 (requester's clock). Then:
+
+   offset = ((t2 - t1) + (t3 - t4)) / 2
+   delay  = (t4 - t1) - (t3 - t2)
+
+   Only the samples with a round trip delay close to the best one are
+   used, as those are the least affected by queueing on the network. The
+   drift is too small to measure over the few samples kept, so it is
+   measured against an earlier offset estimate (an anchor). An anchor is
+   kept every NETTIME_DRIFT_BASELINE, and the oldest of the last
+   NETTIME_ANCHORS is used, so that once running the drift is measured
+   over several baselines rather than starting again from one.
+
+   The reference sends a request addressed to itself, so that the other
+   nodes know that it is there. <from> and <to> are the node ids in hex,
+   and the times are in milliseconds. */
+
+@SuppressWarnings("ALL")
+public class NetworkTime {
+    public static final String MSG_TIME = "#T";
+    public static final String MSG_REQUEST = "#TQ|";
+    public static final String MSG_RESPONSE = "#TR|";
+
+    private final int id;
+    private int reference;
+    private long referenceSeen = 0;
+
+    /* Samples - local time, offset and round trip delay */
+    private final long[] sampleTime = new long[C.NETTIME_SAMPLES];
+    private final double[] sampleOffset = new double[C.NETTIME_SAMPLES];
+    private final long[] sampleDelay = new long[C.NETTIME_SAMPLES];
+    private int samples = 0;
+    private int nextSample = 0;
+
+    /* Estimate - network time = local + offset + drift * (local - base) */
+    private boolean synced = false;
+    private double offset = 0;
+    private double drift = 0;
+    private long base = 0;
+    private long bestDelay = 0;
+    private long lastSample = 0;
+    private final long[] anchorTime = new long[C.NETTIME_ANCHORS];
+    private final double[] anchorOffset = new double[C.NETTIME_ANCHORS];
+    private int anchors = 0;
+    private int nextAnchor = 0;
+
+    public NetworkTime() {
+        this(new Random().nextInt(Integer.MAX_VALUE));
+    }
+
+    public NetworkTime(int id) {
+        this.id = id;
+        this.reference = id;
+    }
+
+    public static boolean isTimeMessage(String msg) {
+        return msg.startsWith(MSG_TIME);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public synchronized int getReference() {
+        return reference;
+    }
+
+    public synchronized boolean isReference() {
+        return reference == id;
+    }
+
+    /* True if this node is the reference, or has an estimate of the reference's time */
+    public synchronized boolean isSynchronised() {
+        return reference == id || synced;
+    }
+
+    /* Offset in milliseconds of the network time from the local time */
+    public synchronized double getOffset(long now) {
+        if (reference == id || !synced) {
+            return 0;
+        }
+        return offset + drift * (now - base);
+    }
+
+    /* Drift of the local clock from the reference in parts per million */
+    public synchronized double getDriftPpm() {
+        return (reference == id) ? 0 : drift * 1e6;
+    }
+
+    /* Best round trip delay in milliseconds to the reference */
+    public synchronized long getRoundTrip() {
+        return (reference == id) ? 0 : bestDelay;
+    }
+
+    /* Bound on the error in the network time in milliseconds - this is
+       half the longest round trip of the samples used, plus the drift
+       allowed for since the last sample, or -1 if there is no estimate yet */
+    public synchronized int getErrorBound(long now) {
+        if (reference == id) {
+            return 0;
+        } else if (!synced) {
+            return -1;
+        }
+        long age = Math.max(0, now - lastSample);
+        return (int) ((bestDelay + C.NETTIME_DELAY_MARGIN + 1) / 2 + (age * C.NETTIME_MAX_DRIFT_PPM) / 1000000);
+    }
+
+    /* A summary for the diagnostics screen */
+    public synchronized String summary(long now) {
+        if (reference == id) {
+            return String.format("reference %08x", id);
+        } else if (!synced) {
+            return String.format("not synchronised to %08x", reference);
+        }
+        return String.format("synchronised to %08x  error <%dms  round trip %dms  drift %.1fppm",
+                reference, getErrorBound(now), bestDelay, drift * 1e6);
+    }
+
+    /* Convert a local time to network time */
+    public long toNetwork(long now) {
+        return now + Math.round(getOffset(now));
+    }
+
+    /* Convert a network time to local time */
+    public long toLocal(long networkTime) {
+        return networkTime - Math.round(getOffset(networkTime));
+    }
+
+    /* Interval until the next request should be sent */
+    public synchronized int getInterval() {
+        return (reference == id || samples >= C.NETTIME_SAMPLES/2) ?
+                C.NETTIME_INTERVAL : C.NETTIME_FAST_INTERVAL;
+    }
+
+    public synchronized String buildRequest(long now) {
+        checkReference(now);
+        return MSG_REQUEST + hex(id) + "|" + hex(reference) + "|" + now;
+    }
+
+    /* Process a received time message - returns the response to send, if any */
+    public synchronized String receive(String msg, long now) {
+        String[] f = msg.split("\\|");
+        try {
+            if (msg.startsWith(MSG_REQUEST) && f.length >= 4) {
+                int from = Integer.parseInt(f[1], 16);
+                int to = Integer.parseInt(f[2], 16);
+                heard(from, now);
+                if (to == id && from != id && reference == id) {
+                    return MSG_RESPONSE + hex(id) + "|" + hex(from) + "|" + f[3] + "|" + now + "|" + now;
+                }
+            } else if (msg.startsWith(MSG_RESPONSE) && f.length >= 6) {
+                int from = Integer.parseInt(f[1], 16);
+                int to = Integer.parseInt(f[2], 16);
+                heard(from, now);
+                if (to == id && from == reference && from != id) {
+                    addSample(Long.parseLong(f[3]), Long.parseLong(f[4]), Long.parseLong(f[5]), now);
+                }
+            }
+        } catch (NumberFormatException e) {
+            /* Ignore */
+        }
+        return null;
+    }
+
+    private void heard(int node, long now) {
+        if (node == reference) {
+            referenceSeen = now;
+        } else if (node < reference) {
+            /* A node with a lower id takes over as the reference */
+            reference = node;
+            referenceSeen = now;
+            reset();
+        }
+    }
+
+    private void checkReference(long now) {
+        if (reference != id && (now - referenceSeen) > C.NETTIME_REFERENCE_TIMEOUT) {
+            /* The reference has gone away, so act as the reference until
+               another node with a lower id is heard from */
+            reference = id;
+            reset();
+        }
+    }
+
+    private void reset() {
+        samples = 0;
+        nextSample = 0;
+        synced = false;
+        anchors = 0;
+        nextAnchor = 0;
+        offset = drift = 0;
+    }
+
+    private void addSample(long t1, long t2, long t3, long t4) {
+        long delay = (t4 - t1) - (t3 - t2);
+        if (delay < 0 || t4 < t1) {
+            return;
+        }
+        sampleTime[nextSample] = t1 + (t4 - t1)/2;
+        sampleOffset[nextSample] = ((t2 - t1) + (t3 - t4)) / 2.0;
+        sampleDelay[nextSample] = delay;
+        nextSample = (nextSample + 1) % C.NETTIME_SAMPLES;
+        if (samples < C.NETTIME_SAMPLES) {
+            samples++;
+        }
+        lastSample = t4;
+        estimate();
+    }
+
+    private void estimate() {
+        bestDelay = Long.MAX_VALUE;
+        for (int i = 0; i < samples; i++) {
+            bestDelay = Math.min(bestDelay, sampleDelay[i]);
+        }
+
+        /* Average the offsets of the samples with a low delay, allowing for
+           the drift between them */
+        int n = 0;
+        double sumT = 0, sumO = 0;
+        for (int i = 0; i < samples; i++) {
+            if (sampleDelay[i] <= bestDelay + C.NETTIME_DELAY_MARGIN) {
+                sumT += sampleTime[i];
+                sumO += sampleOffset[i] - drift * sampleTime[i];
+                n++;
+            }
+        }
+        double meanT = sumT / n;
+        double meanO = sumO / n + drift * meanT;
+
+        /* Measure the drift against the oldest anchor, once it is far enough
+           back. The oldest anchor is dropped as each new one is kept, so that
+           the drift can follow any change (for example, as the devices warm up) */
+        int newest = (nextAnchor + C.NETTIME_ANCHORS - 1) % C.NETTIME_ANCHORS;
+        if (anchors == 0 || meanT - anchorTime[newest] >= C.NETTIME_DRIFT_BASELINE) {
+            anchorTime[nextAnchor] = Math.round(meanT);
+            anchorOffset[nextAnchor] = meanO;
+            nextAnchor = (nextAnchor + 1) % C.NETTIME_ANCHORS;
+            if (anchors < C.NETTIME_ANCHORS) {
+                anchors++;
+            }
+        }
+        int oldest = (nextAnchor + C.NETTIME_ANCHORS - anchors) % C.NETTIME_ANCHORS;
+        if (meanT - anchorTime[oldest] >= C.NETTIME_DRIFT_BASELINE) {
+            double maxDrift = C.NETTIME_MAX_DRIFT_PPM / 1e6;
+            drift = Math.max(-maxDrift, Math.min(maxDrift,
+                    (meanO - anchorOffset[oldest]) / (meanT - anchorTime[oldest])));
+        }
+        base = Math.round(meanT);
+        offset = meanO;
+        synced = true;
+    }
+
+    private static String hex(int n) {
+        return String.format("%08x", n);
+    }
+}
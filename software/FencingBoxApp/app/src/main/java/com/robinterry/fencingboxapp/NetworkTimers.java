@@ -0,0 +1,73 @@
+package com.robinterry.fencingboxapp;
+
+import com.robinterry.constants.C;
+
+/* The timers of the network thread, other than the full message and the
+   hub message - when the link statistics, the subscription and the
+   network time request are next due.
+
+   While the app is idle (see IdlePolicy) they are due less often, but the
+   subscription and the network time are still sent often enough that the
+   other devices do not time them out if one is lost: SUBSCRIPTION_LIFETIME
+   and NETTIME_REFERENCE_TIMEOUT are three of their idle intervals. Until
+   the network time is synchronised, its requests are sent at the fast
+   interval whether idle or not.
+
+   Only used on the network thread. All times are in milliseconds. */
+
+@SuppressWarnings("ALL")
+public class NetworkTimers {
+    private volatile IdlePolicy idle = null;
+    private long nextLinkStats = 0;
+    private long nextSubscribe = 0;
+    private long nextTimeSync = 0;
+
+    public void setIdlePolicy(IdlePolicy idle) {
+        this.idle = idle;
+    }
+
+    private int interval(int active, int idleInterval, long now) {
+        IdlePolicy p = idle;
+        return (p != null) ? p.interval(active, idleInterval, now) : active;
+    }
+
+    /* True if the link statistics are due, in which case the next time is set */
+    public boolean linkStatsDue(long now) {
+        if (now < nextLinkStats) {
+            return false;
+        }
+        nextLinkStats = now + interval(C.LINK_STATS_INTERVAL, C.IDLE_LINK_STATS_INTERVAL, now);
+        return true;
+    }
+
+    /* True if the subscription needs renewing */
+    public boolean subscriptionDue(long now) {
+        return now >= nextSubscribe;
+    }
+
+    /* The subscription has been sent */
+    public void subscribed(long now) {
+        nextSubscribe = now + interval(C.SUBSCRIPTION_REFRESH, C.IDLE_SUBSCRIPTION_REFRESH, now);
+    }
+
+    /* True if a network time request is due, in which case the next time is
+       set - 'syncInterval' is the interval the network time asks for */
+    public boolean timeSyncDue(long now, int syncInterval) {
+        if (now < nextTimeSync) {
+            return false;
+        }
+        nextTimeSync = now + ((syncInterval == C.NETTIME_INTERVAL) ?
+                interval(C.NETTIME_INTERVAL, C.IDLE_NETTIME_INTERVAL, now) : syncInterval);
+        return true;
+    }
+
+    /* The earliest of the timers and 'deadline' - the subscription only
+       counts while there is one to renew */
+    public long next(long deadline, boolean subscribed) {
+        deadline = Math.min(deadline, nextLinkStats);
+        if (subscribed) {
+            deadline = Math.min(deadline, nextSubscribe);
+        }
+        return Math.min(deadline, nextTimeSync);
+    }
+}
@@ -0,0 +1,93 @@
+package com.robinterry.fencingboxapp;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+
+/* Import constant values */
+import com.robinterry.constants.C;
+
+/* Keeps the app running while the video overlay is being served, with the
+   app in the background or the screen off - a foreground service, so that
+   the app is not stopped, and a wake lock and Wifi lock, so that the
+   overlay thread keeps drawing and the frames keep going out.
+
+   The overlay itself is run by FencingBoxActivity, which starts this
+   service when the overlay starts and stops it when the overlay stops. */
+
+@SuppressWarnings("ALL")
+public class OverlayService extends Service {
+    private static final String TAG = OverlayService.class.getSimpleName();
+    public static final String EXTRA_PORT = "port";
+
+    private PowerManager.WakeLock wakeLock = null;
+    private WifiManager.WifiLock wifiLock = null;
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        int port = (intent != null) ? intent.getIntExtra(EXTRA_PORT, C.OVERLAY_PORT) : C.OVERLAY_PORT;
+        startForeground(Constants.NOTIFY_MANAGER_OVERLAY, createNotification(port));
+        if (wakeLock == null) {
+            PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+            wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+            wakeLock.acquire();
+        }
+        if (wifiLock == null) {
+            WifiManager wifi = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+            if (wifi != null) {
+                wifiLock = wifi.createWifiLock(WifiManager.WIFI_MODE_FULL_HIGH_PERF, TAG);
+                wifiLock.acquire();
+            }
+        }
+        if (C.DEBUG) {
+            Log.d(TAG, "Overlay service started on port " + port);
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        if (wifiLock != null) {
+            wifiLock.release();
+            wifiLock = null;
+        }
+        if (wakeLock != null) {
+            wakeLock.release();
+            wakeLock = null;
+        }
+        stopForeground(true);
+        super.onDestroy();
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private Notification createNotification(int port) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(Constants.NOTIFICATION_CHANNEL,
+                    getString(R.string.overlay_channel), NotificationManager.IMPORTANCE_LOW);
+            NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            nm.createNotificationChannel(channel);
+        }
+        return new NotificationCompat.Builder(this, Constants.NOTIFICATION_CHANNEL)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.overlay_started, port))
+                .setOngoing(true)
+                .build();
+    }
+}
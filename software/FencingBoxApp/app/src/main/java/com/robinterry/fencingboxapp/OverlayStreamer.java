@@ -0,0 +1,391 @@
+package com.robinterry.fencingboxapp;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Import constant values */
+import com.robinterry.constants.C;
+
+/* The scoreboard drawn offscreen and served over HTTP, for the overlay on a
+   video stream.
+
+   A thread of its own checks the source at the frame rate (or every
+   IDLE_OVERLAY_INTERVAL while the app is idle), and when what is shown
+   has changed draws it into a bitmap (which is kept and reused),
+   then encodes it once as a JPEG and once as raw RGBA. Nothing is drawn or
+   encoded while the scoreboard stays the same, and the clients are sent
+   the last frame encoded. It needs no view or activity, so it carries on
+   while the app is in the background (OverlayService keeps the app in the
+   foreground while it runs).
+
+   The raw frames are written into two buffers in turn, rather than a new
+   buffer for each frame. A buffer which is still being sent to a client
+   when its turn comes round is replaced rather than written over. Each
+   client has a thread of its own, so only OVERLAY_MAX_CLIENTS are served
+   at once, and the rest are turned away.
+
+   GET /mjpeg        - multipart/x-mixed-replace JPEG stream
+   GET /frame.jpg    - the latest frame as a JPEG
+   GET /frame.rgba   - the latest frame as raw RGBA, 4 bytes a pixel, with
+                       its size in the X-Width and X-Height headers */
+
+@SuppressWarnings("ALL")
+public class OverlayStreamer {
+    private static final String TAG = OverlayStreamer.class.getSimpleName();
+    private static final String BOUNDARY = "fencingboxframe";
+
+    private final ScoreboardSource source;
+    private final ScoreboardRenderer renderer;
+    private final ScoreboardSnapshot shown = new ScoreboardSnapshot();
+    private final int width, height, fps, port;
+    private final Bitmap bitmap;
+    private final Canvas canvas;
+    private final ByteArrayOutputStream jpegOut = new ByteArrayOutputStream();
+
+    /* The latest frame, replaced (never changed) under 'frameLock' - the
+       raw frame is rgba[front], and the number of clients sending each raw
+       buffer is held so that one being sent is not written over */
+    private final Object frameLock = new Object();
+    private byte[] jpeg = null;
+    private final byte[][] rgba = new byte[2][];
+    private final int[] rgbaSending = new int[2];
+    private int front = 0;
+    private int frameIndex = 0;
+    private final AtomicInteger clients = new AtomicInteger(0);
+
+    /* Encode times */
+    private int encoded = 0;
+    private long encodeNanos = 0;
+
+    private IdlePolicy idle = null;
+    private HandlerThread thread = null;
+    private IdleLoop tick = null;
+    private ServerSocket server = null;
+    private volatile boolean running = false;
+
+    public OverlayStreamer(ScoreboardSource source, Typeface face, int width, int height, int fps, int port) {
+        this.source = source;
+        this.width = width;
+        this.height = height;
+        this.fps = Math.max(1, fps);
+        this.port = port;
+        renderer = new ScoreboardRenderer(face);
+        renderer.setSize(width, height);
+        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(bitmap);
+    }
+
+    /* Check for changes less often while the app is idle */
+    public synchronized void setIdlePolicy(IdlePolicy idle) {
+        this.idle = idle;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        server = new ServerSocket(port);
+        running = true;
+        thread = new HandlerThread("overlay");
+        thread.start();
+        tick = new IdleLoop(idle, IdleLoop.onHandler(new Handler(thread.getLooper())),
+                1000/fps, C.IDLE_OVERLAY_INTERVAL) {
+            @Override
+            protected void tick(long now) {
+                render();
+            }
+        };
+        tick.start(0);
+
+        Thread accept = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptClients();
+            }
+        }, "overlayServer");
+        accept.start();
+        if (C.DEBUG) {
+            Log.d(TAG, "Overlay " + width + "x" + height + " at " + fps + " fps on port " + port);
+        }
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        tick.stop();
+        tick = null;
+        thread.quitSafely();
+        thread = null;
+        try {
+            server.close();
+        } catch (IOException e) {
+            /* Ignore */
+        }
+        server = null;
+        synchronized (frameLock) {
+            frameLock.notifyAll();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /* Frames encoded, and their mean encode time in microseconds */
+    public synchronized int getFramesEncoded() {
+        return encoded;
+    }
+
+    public synchronized long getMeanEncodeMicros() {
+        return (encoded > 0) ? encodeNanos/encoded/1000 : 0;
+    }
+
+    /* Draws and encodes a frame if what is shown has changed, and returns true if so */
+    boolean render() {
+        Box b = source.getShownBox();
+        if (b == null) {
+            return false;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (!shown.update(b, source.getShownClock(b), source.isShownOffline(b, now), now)) {
+            return false;
+        }
+        long start = System.nanoTime();
+        renderer.draw(canvas, shown.box, shown.clock, shown.offline);
+
+        jpegOut.reset();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, C.OVERLAY_JPEG_QUALITY, jpegOut);
+        byte[] j = jpegOut.toByteArray();
+
+        /* Only this thread changes 'front', so the back buffer is not
+           taken by a client once it is found to be free */
+        int back = 1 - front;
+        byte[] r;
+        synchronized (frameLock) {
+            if (rgba[back] == null || rgbaSending[back] > 0) {
+                rgba[back] = new byte[bitmap.getByteCount()];
+                rgbaSending[back] = 0;
+            }
+            r = rgba[back];
+        }
+        bitmap.copyPixelsToBuffer(ByteBuffer.wrap(r));
+        long t = System.nanoTime() - start;
+
+        synchronized (frameLock) {
+            jpeg = j;
+            front = back;
+            frameIndex++;
+            frameLock.notifyAll();
+        }
+        synchronized (this) {
+            encoded++;
+            encodeNanos += t;
+        }
+        return true;
+    }
+
+    private void acceptClients() {
+        ServerSocket s = server;
+        while (running && s != null) {
+            try {
+                final Socket client = s.accept();
+                if (clients.incrementAndGet() > C.OVERLAY_MAX_CLIENTS) {
+                    clients.decrementAndGet();
+                    refuse(client);
+                    continue;
+                }
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            serve(client);
+                        } finally {
+                            clients.decrementAndGet();
+                        }
+                    }
+                }, "overlayClient");
+                t.start();
+            } catch (IOException e) {
+                if (running) {
+                    Log.e(TAG, "Overlay server error " + e);
+                }
+                break;
+            }
+        }
+    }
+
+    /* Turn a client away, as there are too many already */
+    private void refuse(Socket client) {
+        if (C.DEBUG) {
+            Log.d(TAG, "Overlay client " + client.getInetAddress() + " refused");
+        }
+        try {
+            client.getOutputStream().write(("HTTP/1.0 503 Service Unavailable\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            /* Ignore */
+        } finally {
+            try {
+                client.close();
+            } catch (IOException e) {
+                /* Ignore */
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try {
+            client.setTcpNoDelay(true);
+            /* A client which never sends its request does not hold on to its place */
+            client.setSoTimeout(C.OVERLAY_REQUEST_TIMEOUT);
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+            String request = in.readLine();
+            /* Skip the headers */
+            String line;
+            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                /* Nothing needed from them */
+            }
+            String[] parts = (request != null) ? request.split(" ") : new String[0];
+            String path = (parts.length > 1) ? parts[1] : "";
+            OutputStream out = client.getOutputStream();
+            if (C.DEBUG) {
+                Log.d(TAG, "Overlay request " + path + " from " + client.getInetAddress());
+            }
+            if (path.equals("/mjpeg")) {
+                streamJpeg(out);
+            } else if (path.equals("/frame.jpg")) {
+                sendFrame(out, "image/jpeg", latestJpeg(), "");
+            } else if (path.equals("/frame.rgba")) {
+                sendRaw(out);
+            } else {
+                out.write(("HTTP/1.0 404 Not Found\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            }
+            out.flush();
+        } catch (SocketException e) {
+            /* Client went away */
+        } catch (SocketTimeoutException e) {
+            /* Client sent no request */
+        } catch (IOException e) {
+            Log.e(TAG, "Overlay client error " + e);
+        } finally {
+            try {
+                client.close();
+            } catch (IOException e) {
+                /* Ignore */
+            }
+        }
+    }
+
+    /* Wait for the first frame if need be - called with 'frameLock' held */
+    private void waitForFirstFrame() {
+        long end = SystemClock.elapsedRealtime() + C.OVERLAY_KEEPALIVE;
+        while (running && jpeg == null && SystemClock.elapsedRealtime() < end) {
+            try {
+                frameLock.wait(C.OVERLAY_KEEPALIVE);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private byte[] latestJpeg() {
+        synchronized (frameLock) {
+            waitForFirstFrame();
+            return jpeg;
+        }
+    }
+
+    /* The raw buffer is marked as being sent until it has all gone */
+    private void sendRaw(OutputStream out) throws IOException {
+        int i;
+        byte[] frame;
+        synchronized (frameLock) {
+            waitForFirstFrame();
+            i = front;
+            frame = (jpeg != null) ? rgba[i] : null;
+            if (frame != null) {
+                rgbaSending[i]++;
+            }
+        }
+        try {
+            sendFrame(out, "application/octet-stream", frame,
+                    "X-Width: " + width + "\r\nX-Height: " + height + "\r\n");
+        } finally {
+            if (frame != null) {
+                synchronized (frameLock) {
+                    /* Unless it has been replaced meanwhile */
+                    if (rgba[i] == frame) {
+                        rgbaSending[i]--;
+                    }
+                }
+            }
+        }
+    }
+
+    private void sendFrame(OutputStream out, String type, byte[] frame, String headers) throws IOException {
+        if (frame == null) {
+            out.write(("HTTP/1.0 503 Service Unavailable\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        out.write(("HTTP/1.0 200 OK\r\nContent-Type: " + type
+                + "\r\nContent-Length: " + frame.length
+                + "\r\nCache-Control: no-cache\r\n" + headers
+                + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(frame);
+    }
+
+    /* Sends each new frame as it is encoded, and the last one again after
+       OVERLAY_KEEPALIVE milliseconds without a change, as some players give
+       up on a stream which goes quiet */
+    private void streamJpeg(OutputStream out) throws IOException {
+        out.write(("HTTP/1.0 200 OK\r\nContent-Type: multipart/x-mixed-replace; boundary=" + BOUNDARY
+                + "\r\nCache-Control: no-cache\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        int sent = -1;
+        while (running) {
+            byte[] frame;
+            synchronized (frameLock) {
+                if (frameIndex == sent) {
+                    try {
+                        frameLock.wait(C.OVERLAY_KEEPALIVE);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                frame = jpeg;
+                sent = frameIndex;
+            }
+            if (frame == null) {
+                continue;
+            }
+            out.write(("--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: " + frame.length
+                    + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(frame);
+            out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+    }
+}
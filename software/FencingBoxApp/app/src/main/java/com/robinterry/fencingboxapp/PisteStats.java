@@ -0,0 +1,203 @@
+package com.robinterry.fencingboxapp;
+
+import java.util.Locale;
+
+import com.robinterry.constants.C;
+
+/* Network quality of the messages received from one piste.
+
+   The message counts come from the piste's sequence window, and a copy of
+   them is kept once a second for the last STATS_WINDOW seconds, so that
+   the message rate and loss are over the last few seconds rather than
+   since the start. The jitter is worked out as in RFC 3550, from the
+   difference in the time taken by successive messages if the network time
+   is synchronised, otherwise from the difference in the time between them.
+   The time between messages and the time taken (latency) are also counted
+   in histograms, from when the counts were last reset.
+
+   All times are in milliseconds. */
+
+@SuppressWarnings("ALL")
+public class PisteStats {
+    /* Latency when the network time is not known */
+    public static final int NO_LATENCY = Integer.MIN_VALUE;
+    /* Upper bounds of the histogram buckets - the last bucket is everything above */
+    public static final int[] BUCKETS = { 10, 20, 50, 100, 200, 500, 1000, 2000 };
+    public static final String CSV_HEADER = "piste,host,offline,received,lost,duplicate,reordered,resets," +
+            "rate,loss%,jitter,age,latency,maxlatency,interval histogram,latency histogram";
+
+    private final int piste;
+    private final SequenceWindow window;
+
+    /* Counts once a second, oldest first from 'first' */
+    private final long[] slotTime = new long[C.STATS_WINDOW+1];
+    private final long[] slotReceived = new long[C.STATS_WINDOW+1];
+    private final long[] slotLost = new long[C.STATS_WINDOW+1];
+    private final long[] slotDuplicate = new long[C.STATS_WINDOW+1];
+    private int first = 0, slots = 0;
+
+    private long lastRx = 0;
+    private int lastInterval = -1;
+    private int lastLatency = NO_LATENCY;
+    private int maxLatency = NO_LATENCY;
+    private double jitter = 0;
+    private final long[] intervals = new long[BUCKETS.length+1];
+    private final long[] latencies = new long[BUCKETS.length+1];
+
+    public PisteStats(int piste, SequenceWindow window) {
+        this.piste = piste;
+        this.window = window;
+    }
+
+    /* Called for each message accepted from the piste */
+    public synchronized void record(long now, int latency) {
+        advance(now);
+        if (lastRx != 0) {
+            int interval = (int) (now - lastRx);
+            intervals[bucketOf(interval)]++;
+
+            /* The change in the time taken, or if that is not known, in the time between */
+            int d;
+            if (latency != NO_LATENCY && lastLatency != NO_LATENCY) {
+                d = latency - lastLatency;
+            } else {
+                d = (lastInterval >= 0) ? interval - lastInterval : 0;
+            }
+            jitter += (Math.abs(d) - jitter) / 16.0;
+            lastInterval = interval;
+        }
+        if (latency != NO_LATENCY) {
+            latencies[bucketOf(latency)]++;
+            maxLatency = Math.max(maxLatency, latency);
+        }
+        lastLatency = latency;
+        lastRx = now;
+    }
+
+    private static int bucketOf(int t) {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            if (t < BUCKETS[i]) {
+                return i;
+            }
+        }
+        return BUCKETS.length;
+    }
+
+    /* Keep a copy of the counts once a second */
+    private void advance(long now) {
+        if (slots > 0 && now - slotTime[(first + slots - 1) % slotTime.length] < 1000) {
+            return;
+        }
+        int next;
+        if (slots < slotTime.length) {
+            next = (first + slots++) % slotTime.length;
+        } else {
+            next = first;
+            first = (first + 1) % slotTime.length;
+        }
+        slotTime[next] = now;
+        slotReceived[next] = window.getReceived();
+        slotLost[next] = window.getLost();
+        slotDuplicate[next] = window.getDuplicate();
+    }
+
+    public synchronized void reset() {
+        slots = 0;
+        jitter = 0;
+        lastInterval = -1;
+        maxLatency = NO_LATENCY;
+        for (int i = 0; i < intervals.length; i++) {
+            intervals[i] = latencies[i] = 0;
+        }
+    }
+
+    public int getPiste() {
+        return piste;
+    }
+
+    public SequenceWindow getWindow() {
+        return window;
+    }
+
+    /* Messages received per second over the last few seconds */
+    public synchronized float getRate(long now) {
+        advance(now);
+        long t = now - slotTime[first];
+        return (t > 0) ? (window.getReceived() - slotReceived[first]) * 1000f / t : 0f;
+    }
+
+    /* Percentage of the messages sent which were lost over the last few seconds */
+    public synchronized float getLossPercent(long now) {
+        advance(now);
+        long lost = window.getLost() - slotLost[first];
+        long sent = (window.getReceived() - slotReceived[first])
+                - (window.getDuplicate() - slotDuplicate[first]) + lost;
+        return (sent > 0) ? Math.max(0, lost) * 100f / sent : 0f;
+    }
+
+    public synchronized int getJitter() {
+        return (int) Math.round(jitter);
+    }
+
+    /* How old the latest state from the piste is - the time since its last
+       message, plus the time that message took if that is known */
+    public synchronized int getAge(long now) {
+        if (lastRx == 0) {
+            return -1;
+        }
+        return (int) (now - lastRx) + ((lastLatency != NO_LATENCY) ? Math.max(0, lastLatency) : 0);
+    }
+
+    public synchronized int getLatency() {
+        return lastLatency;
+    }
+
+    public synchronized int getMaxLatency() {
+        return maxLatency;
+    }
+
+    public synchronized long[] getIntervalHistogram() {
+        return intervals.clone();
+    }
+
+    public synchronized long[] getLatencyHistogram() {
+        return latencies.clone();
+    }
+
+    private static String histogram(long[] h) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < h.length; i++) {
+            if (i > 0) {
+                s.append(' ');
+            }
+            s.append((i < BUCKETS.length) ? "<" + BUCKETS[i] : ">=" + BUCKETS[BUCKETS.length-1]);
+            s.append(':').append(h[i]);
+        }
+        return s.toString();
+    }
+
+    private static String latencyOf(int latency) {
+        return (latency == NO_LATENCY) ? "" : String.valueOf(latency);
+    }
+
+    /* One line of the exported snapshot, in the order of CSV_HEADER */
+    public synchronized String toCsv(String host, boolean offline, long now) {
+        return piste + "," + ((host == null) ? "" : host) + "," + (offline ? "y" : "n") + "," +
+                window.getReceived() + "," + window.getLost() + "," + window.getDuplicate() + "," +
+                window.getReordered() + "," + window.getResets() + "," +
+                String.format(Locale.ROOT, "%.1f,%.1f", getRate(now), getLossPercent(now)) + "," +
+                getJitter() + "," + getAge(now) + "," +
+                latencyOf(lastLatency) + "," + latencyOf(maxLatency) + "," +
+                histogram(intervals) + "," + histogram(latencies);
+    }
+
+    /* A summary for the diagnostics screen */
+    public synchronized String summary(long now) {
+        String s = String.format("%5.1f/s  loss %4.1f%%  jitter %3dms  age %5dms",
+                getRate(now), getLossPercent(now), getJitter(), getAge(now));
+        if (lastLatency != NO_LATENCY) {
+            s += String.format("  latency %3dms (max %dms)", lastLatency, maxLatency);
+        }
+        return s;
+    }
+}
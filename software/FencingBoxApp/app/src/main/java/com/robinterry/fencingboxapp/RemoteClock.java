@@ -0,0 +1,167 @@
+package com.robinterry.fencingboxapp;
+
+import com.robinterry.constants.C;
+
+/* Clock of a remote piste, as shown on a display client.
+
+   The network messages only carry the clock as shown on the box, and
+   messages are lost, so rather than showing the clock from each message
+   the display counts the clock down itself while the box says that the
+   clock is running - starting from the last clock received, and timed
+   with the monotonic clock.
+
+   The box shows the time rounded up to its resolution (a second, or a
+   hundredth under ten seconds), so a message says that the actual time
+   is between the time shown less the resolution and the time shown. If
+   the local clock has drifted outside this, it is brought back a bounded
+   amount on each message - if it is ahead, it is held still for a while
+   rather than going backwards, and if it is behind, it jumps forward.
+   Only a large difference (such as the clock being reset) is applied
+   straight away.
+
+   The box has no command to say that its clock has started or stopped -
+   the sender only knows that the clock is running from its ticks, so it
+   goes on saying that the clock is running until CLOCK_RUNNING_TIMEOUT
+   (just over a second) after the last one. The clock moves on to the next
+   second (or hundredth) when it is due, without waiting for a message,
+   but it is not counted down more than CLOCK_MAX_OVERRUN below the time
+   that the box last showed - so after a halt it only goes back up by
+   that much at most, when the clock is seen to have stopped. While it is
+   stopped it is left where it is, as long as that shows as the box does.
+
+   All times are in milliseconds. */
+
+@SuppressWarnings("ALL")
+public class RemoteClock {
+    private boolean valid = false;
+    private boolean running = false;
+    /* The clock was 'base' at local time 'baseTime' */
+    private int base = 0;
+    private long baseTime = 0;
+    /* The clock is not counted down below this until the next message */
+    private int floor = 0;
+
+    /* The clock value shown by the box, or -1 if it is not a clock */
+    public static int valueOf(String mins, String secs, String hund) {
+        try {
+            return (Integer.parseInt(mins)*60 + Integer.parseInt(secs))*1000 + Integer.parseInt(hund)*10;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public synchronized void update(Box box, long now) {
+        update(valueOf(box.timeMins, box.timeSecs, box.timeHund), box.clockRunning, now);
+    }
+
+    public synchronized void update(int value, boolean nowRunning, long now) {
+        if (value < 0) {
+            valid = running = false;
+            return;
+        }
+        /* At the limit the box has just gone to hundredths */
+        int res = (value <= C.CLOCK_HUND_LIMIT) ? 10 : 1000;
+        int low = Math.max(0, value - res);
+
+        if (!valid) {
+            set(value, now);
+        } else if (!running) {
+            /* Stopped, or starting again - from where it is, if that shows
+               as the box does */
+            set((base > low && base <= value) ? base : value, now);
+        } else if (!nowRunning) {
+            /* Just stopped - as near to where it had got as shows as the box
+               does, so that it only goes back up by the overrun */
+            int predicted = get(now);
+            set((Math.abs(predicted - value) > C.CLOCK_MAX_ERROR) ?
+                    value : Math.min(Math.max(predicted, low + 1), value), now);
+        } else {
+            int predicted = get(now);
+            if (now > baseTime && predicted == floor) {
+                /* Held at the floor - go on from there, not from below it */
+                set(predicted, now);
+            }
+            int error = 0;
+            if (predicted > value) {
+                error = value - predicted;
+            } else if (predicted < low) {
+                error = low - predicted;
+            }
+            if (Math.abs(error) > C.CLOCK_MAX_ERROR) {
+                set(value, now);
+            } else if (error < 0) {
+                /* Behind the box - jump forward */
+                set(predicted + Math.max(error, -C.CLOCK_MAX_CORRECTION), now);
+            } else if (error > 0) {
+                /* Ahead of the box - hold the clock */
+                set(predicted, now + Math.min(error, C.CLOCK_MAX_CORRECTION));
+            }
+        }
+        /* The overrun below the lowest time that still shows as 'value' */
+        floor = Math.max(0, low + 1 - C.CLOCK_MAX_OVERRUN);
+        running = nowRunning;
+        valid = true;
+    }
+
+    private void set(int value, long time) {
+        base = value;
+        baseTime = time;
+    }
+
+    /* The clock at this local time */
+    public synchronized int get(long now) {
+        if (!running || now <= baseTime) {
+            return base;
+        }
+        return (int) Math.max(base - (now - baseTime), floor);
+    }
+
+    /* The time until the clock as shown next changes, or -1 if it will not
+       change without a message - it is stopped, or it has counted down as
+       far past the last time the box showed as it may */
+    public synchronized int untilChange(long now) {
+        if (!valid || !running) {
+            return -1;
+        }
+        int t = get(now);
+        int until = (t - 1) % (isHundActive(t) ? 10 : 1000) + 1;
+        if (t <= 0 || t - until < floor) {
+            return -1;
+        }
+        return (int) Math.max(0, baseTime - now) + until;
+    }
+
+    /* When whatever shows a clock should next look at it - when the clock
+       as shown is due to change, but no sooner than CLOCK_REFRESH_INTERVAL,
+       or after 'longest' if it will not change without a message */
+    public static long nextCheck(RemoteClock c, long now, long longest) {
+        int until = (c != null) ? c.untilChange(now) : -1;
+        return (until >= 0) ? Math.min(longest, Math.max(until, C.CLOCK_REFRESH_INTERVAL)) : longest;
+    }
+
+    public synchronized boolean isRunning() {
+        return valid && running;
+    }
+
+    public synchronized boolean isValid() {
+        return valid;
+    }
+
+    /* The clock as the box would show it - rounded up to the second,
+       or to the hundredth under ten seconds */
+    public static String minsOf(int t) {
+        return FrameParser.twoDigits(((t + 999)/1000)/60);
+    }
+
+    public static String secsOf(int t) {
+        return FrameParser.twoDigits((t < C.CLOCK_HUND_LIMIT) ? ((t + 9)/10)/100 : ((t + 999)/1000) % 60);
+    }
+
+    public static String hundOf(int t) {
+        return FrameParser.twoDigits(((t + 9)/10) % 100);
+    }
+
+    public static boolean isHundActive(int t) {
+        return t < C.CLOCK_HUND_LIMIT;
+    }
+}
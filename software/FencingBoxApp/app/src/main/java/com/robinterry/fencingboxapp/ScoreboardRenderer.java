@@ -0,0 +1,200 @@
+package com.robinterry.fencingboxapp;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+
+/* Draws the scoreboard of one piste onto a canvas - the piste number,
+   period and passivity timer along the top, then the hit lights, the card
+   lights and priority, and the scores either side of the clock.
+
+   It does not depend on any view, so the same drawing is used for each
+   tile of the wall display, and for displays which are drawn off the UI
+   thread. Everything which depends on the size is worked out in setSize(),
+   and nothing is allocated when drawing. A renderer should only be used by
+   one thread at a time. */
+
+@SuppressWarnings("ALL")
+public class ScoreboardRenderer {
+    private static final char[] SAMPLE = "00:00".toCharArray();
+    /* Card lights, in the order they are plotted for fencer A */
+    private static final int YELLOW = 0, RED = 1, WHITE = 2;
+
+    private final Typeface face;
+    private int width = 0, height = 0;
+    private float margin;
+
+    private final RectF background = new RectF();
+    private final RectF[] hitRect = new RectF[] { new RectF(), new RectF() };
+    private final float[][] cardX = new float[2][3];
+    private final float[] priorityX = new float[2];
+    private float cardY, cardRadius;
+    private GlyphCache digits, labels;
+    private float digitsY, labelsY;
+
+    private final Paint backgroundPaint = fillPaint(Color.BLACK);
+    private final Paint[] onTargetPaint = new Paint[] { fillPaint(Color.RED), fillPaint(Color.GREEN) };
+    private final Paint offTargetPaint = fillPaint(Color.WHITE);
+    private final Paint[] cardPaint = new Paint[] { fillPaint(Color.YELLOW), fillPaint(Color.RED), fillPaint(Color.WHITE) };
+    private final Paint offPaint = fillPaint(Color.DKGRAY);
+    private final Paint priorityPaint = fillPaint(Color.RED);
+    private final Paint scorePaint = fillPaint(Color.RED);
+    private final Paint clockPaint = fillPaint(Color.GREEN);
+    private final Paint pistePaint = fillPaint(Color.WHITE);
+    private final Paint offlinePaint = fillPaint(Color.RED);
+    private final Paint periodPaint = fillPaint(Color.YELLOW);
+    private final Paint passivityPaint = fillPaint(Color.GREEN);
+
+    private final char[] buf = new char[8];
+
+    public ScoreboardRenderer(Typeface face) {
+        this.face = face;
+    }
+
+    private static Paint fillPaint(int color) {
+        Paint p = new Paint();
+        p.setStyle(Paint.Style.FILL);
+        p.setColor(color);
+        p.setAntiAlias(true);
+        p.setFilterBitmap(true);
+        return p;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setSize(int w, int h) {
+        if (w == width && h == height) {
+            return;
+        }
+        width = w;
+        height = h;
+        margin = w/20f;
+        background.set(0, 0, w, h);
+
+        /* Piste number, period and passivity along the top */
+        labels = GlyphCache.get(null, h*0.10f);
+        labelsY = margin/2;
+
+        /* Hit lights */
+        float top = h*0.16f, bottom = h*0.50f;
+        hitRect[0].set(margin, top, w/2f - margin/2, bottom);
+        hitRect[1].set(w/2f + margin/2, top, w - margin, bottom);
+
+        /* Card lights under the hit lights - yellow, red, white for fencer A
+           and white, yellow, red for fencer B - with priority on the inside */
+        cardRadius = Math.min(h*0.035f, w/40f);
+        cardY = h*0.57f;
+        cardX[0][YELLOW] = hitRect[0].left + cardRadius;
+        cardX[0][RED] = cardX[0][YELLOW] + cardRadius*3;
+        cardX[0][WHITE] = cardX[0][RED] + cardRadius*3;
+        cardX[1][RED] = hitRect[1].right - cardRadius;
+        cardX[1][YELLOW] = cardX[1][RED] - cardRadius*3;
+        cardX[1][WHITE] = cardX[1][YELLOW] - cardRadius*3;
+        priorityX[0] = hitRect[0].right - cardRadius;
+        priorityX[1] = hitRect[1].left + cardRadius;
+
+        /* The scores and clock along the bottom, as large as will fit */
+        float size = h*0.30f;
+        digits = GlyphCache.get(face, size);
+        float needed = digits.measure(SAMPLE, 2)*2 + digits.measure(SAMPLE, SAMPLE.length) + margin*2;
+        if (needed > w - margin*2) {
+            size *= (w - margin*2)/needed;
+            digits = GlyphCache.get(face, size);
+        }
+        digitsY = h*0.64f + (h*0.34f - digits.getHeight())/2;
+    }
+
+    /* Draws the box, with its clock at 'clock' milliseconds (or -1 if it is
+       not a clock), at the top left of the canvas */
+    public void draw(Canvas canvas, Box b, int clock, boolean offline) {
+        canvas.drawRect(background, backgroundPaint);
+
+        int n = fill(FrameParser.twoDigits(b.piste), (char) 0, null);
+        labels.draw(canvas, buf, n, margin, labelsY, offline ? offlinePaint : pistePaint);
+        if (offline) {
+            n = fill("--", ':', "--");
+            digits.draw(canvas, buf, n, (width - digits.measure(buf, n))/2, digitsY, offPaint);
+            return;
+        }
+        n = fill(FrameParser.twoDigits(b.period), (char) 0, null);
+        labels.draw(canvas, buf, n, width - margin - labels.measure(buf, n), labelsY, periodPaint);
+        if (b.passivityActive) {
+            n = fill(FrameParser.twoDigits(b.passivityTimer), (char) 0, null);
+            labels.draw(canvas, buf, n, (width - labels.measure(buf, n))/2, labelsY, passivityPaint);
+        }
+
+        drawHit(canvas, 0, b.hitA);
+        drawHit(canvas, 1, b.hitB);
+        drawCards(canvas, 0, b.cardA);
+        drawCards(canvas, 1, b.cardB);
+        if (b.priIndicator) {
+            canvas.drawCircle(priorityX[0], cardY, cardRadius, offTargetPaint);
+            canvas.drawCircle(priorityX[1], cardY, cardRadius, offTargetPaint);
+        } else {
+            canvas.drawCircle(priorityX[0], cardY, cardRadius, b.priA ? priorityPaint : offPaint);
+            canvas.drawCircle(priorityX[1], cardY, cardRadius, b.priB ? priorityPaint : offPaint);
+        }
+
+        n = fill(b.scoreA, (char) 0, null);
+        digits.draw(canvas, buf, n, margin, digitsY, scorePaint);
+        n = fill(b.scoreB, (char) 0, null);
+        digits.draw(canvas, buf, n, width - margin - digits.measure(buf, n), digitsY, scorePaint);
+        if (clock < 0) {
+            n = fill("--", ':', "--");
+        } else if (RemoteClock.isHundActive(clock)) {
+            n = fill(RemoteClock.secsOf(clock), ':', RemoteClock.hundOf(clock));
+        } else {
+            n = fill(RemoteClock.minsOf(clock), ':', RemoteClock.secsOf(clock));
+        }
+        digits.draw(canvas, buf, n, (width - digits.measure(buf, n))/2, digitsY, clockPaint);
+    }
+
+    private void drawHit(Canvas canvas, int fencer, Box.Hit hit) {
+        switch (hit) {
+            case OnTarget:
+                canvas.drawRect(hitRect[fencer], onTargetPaint[fencer]);
+                break;
+
+            case OffTarget:
+                canvas.drawRect(hitRect[fencer], offTargetPaint);
+                break;
+
+            case None:
+            default:
+                break;
+        }
+    }
+
+    private void drawCards(Canvas canvas, int fencer, Integer card) {
+        int c = (card != null) ? card : 0;
+        canvas.drawCircle(cardX[fencer][YELLOW], cardY, cardRadius,
+                ((c & Box.yellowCardBit) != 0) ? cardPaint[YELLOW] : offPaint);
+        canvas.drawCircle(cardX[fencer][RED], cardY, cardRadius,
+                ((c & Box.redCardBit) != 0) ? cardPaint[RED] : offPaint);
+        canvas.drawCircle(cardX[fencer][WHITE], cardY, cardRadius,
+                ((c & Box.shortCircuitBit) != 0) ? cardPaint[WHITE] : offPaint);
+    }
+
+    /* Puts 'a', the separator (unless it is 0) and 'b' in the buffer */
+    private int fill(String a, char sep, String b) {
+        int n = 0;
+        for (int i = 0; a != null && i < a.length() && n < buf.length; i++) {
+            buf[n++] = a.charAt(i);
+        }
+        if (sep != 0 && n < buf.length) {
+            buf[n++] = sep;
+        }
+        for (int i = 0; b != null && i < b.length() && n < buf.length; i++) {
+            buf[n++] = b.charAt(i);
+        }
+        return n;
+    }
+}
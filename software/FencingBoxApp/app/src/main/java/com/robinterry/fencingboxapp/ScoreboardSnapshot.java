@@ -0,0 +1,41 @@
+package com.robinterry.fencingboxapp;
+
+/* A copy of what a scoreboard shows of a box, for a ScoreboardRenderer.
+
+   The box is copied so that it can be drawn while the box itself is
+   changed, and update() says whether anything shown has changed since the
+   last copy - using the parts of the box from Box.changesFrom(), whether
+   it is offline, and the clock as it would be shown, so that the clock
+   is only drawn again when the seconds (or hundredths) change. */
+
+@SuppressWarnings("ALL")
+public class ScoreboardSnapshot {
+    public final Box box = new Box();
+    /* The clock in milliseconds, or -1 if it is not a clock */
+    public int clock = -1;
+    public boolean offline = false;
+    private int shownClock = -1;
+    private boolean valid = false;
+
+    /* Copies the box if what is shown of it has changed, and returns true if so */
+    public boolean update(Box b, RemoteClock c, boolean nowOffline, long now) {
+        int t = (c != null && c.isRunning()) ? c.get(now)
+                : RemoteClock.valueOf(b.timeMins, b.timeSecs, b.timeHund);
+        int shown = (t < 0) ? -1
+                : RemoteClock.isHundActive(t) ? (t + 9)/10 : ((t + 999)/1000)*100;
+        if (valid && nowOffline == offline && shown == shownClock && b.changesFrom(box) == 0) {
+            return false;
+        }
+        box.copyFrom(b);
+        clock = t;
+        shownClock = shown;
+        offline = nowOffline;
+        valid = true;
+        return true;
+    }
+
+    /* Copy the box on the next update, whether it has changed or not */
+    public void invalidate() {
+        valid = false;
+    }
+}
@@ -0,0 +1,16 @@
+package com.robinterry.fencingboxapp;
+
+/* Where a display drawn off the UI thread gets the piste to show. These
+   are called from the drawing thread, and the box is only read. */
+
+public interface ScoreboardSource {
+    /* The box to show, or null if there is nothing to show */
+    Box getShownBox();
+
+    /* The clock of the box as counted locally, or null if the box's own
+       clock is shown */
+    RemoteClock getShownClock(Box b);
+
+    /* True if nothing has been received from the box for a while */
+    boolean isShownOffline(Box b, long now);
+}
@@ -0,0 +1,151 @@
+package com.robinterry.fencingboxapp;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.view.View;
+import android.view.ViewGroup;
+
+/* The hit lights and card lights of both fencers, drawn by one view which
+   covers the whole display, over both the portrait and landscape layouts.
+
+   The positions of the lights only depend on the size of the view, so they
+   are worked out when the size changes rather than on each draw. Changing a
+   light only invalidates the area of that light - there is no layout pass,
+   so a hit is shown on the next frame. */
+
+@SuppressWarnings("ALL")
+public class ScoreboardView extends View {
+
+    private static final String TAG = ScoreboardView.class.getSimpleName();
+    public static final double LED_SIZE_X_DIV_PORT = 3.0;
+    public static final double LED_SIZE_Y_DIV_PORT = 4.0;
+    public static final double LED_SIZE_X_DIV_LAND = 3.5;
+    public static final double LED_SIZE_Y_DIV_LAND = 4.0;
+    private static final int LEFT_MARGIN_DIV = 10;
+    private static final int TOP_MARGIN_DIV = 12;
+    private static final int CARD_LEFT_MARGIN_DIV_PORT = 10;
+    private static final int CARD_LEFT_MARGIN_DIV_LAND = 7;
+    private static final int CARD_SIZE_Y_DIV_PORT = 14;
+    private static final int CARD_SIZE_Y_DIV_LAND = 8;
+
+    /* Card lights, in the order they are plotted for fencer A */
+    private static final int YELLOW = 0, RED = 1, WHITE = 2;
+
+    /* State of the lights for fencer A (0) and B (1) */
+    private final Box.Hit[] hit = new Box.Hit[] { Box.Hit.None, Box.Hit.None };
+    private final boolean[][] card = new boolean[2][3];
+
+    /* Geometry, worked out in onSizeChanged */
+    private final Rect[] hitRect = new Rect[] { new Rect(), new Rect() };
+    private final Rect[] cardRect = new Rect[] { new Rect(), new Rect() };
+    private final float[][] cardX = new float[2][3];
+    private final float[] cardY = new float[2];
+    private float cardRadius = 0;
+
+    /* Paints, set up once */
+    private final Paint[] onTargetPaint = new Paint[2];
+    private final Paint offTargetPaint;
+    private final Paint[] cardPaint = new Paint[3];
+    private final Paint cardOffPaint;
+
+    public ScoreboardView(FencingBoxActivity mainActivity, ViewGroup parent) {
+        super(mainActivity.getBaseContext());
+
+        /* On target is red for fencer A and green for fencer B */
+        onTargetPaint[0] = fillPaint(Color.RED);
+        onTargetPaint[1] = fillPaint(Color.GREEN);
+        offTargetPaint = fillPaint(Color.WHITE);
+        cardPaint[YELLOW] = fillPaint(Color.YELLOW);
+        cardPaint[RED] = fillPaint(Color.RED);
+        cardPaint[WHITE] = fillPaint(Color.WHITE);
+        cardOffPaint = fillPaint(Color.BLACK);
+
+        parent.addView(this, new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+    }
+
+    private static Paint fillPaint(int color) {
+        Paint p = new Paint();
+        p.setStyle(Paint.Style.FILL);
+        p.setColor(color);
+        p.setAntiAlias(true);
+        return p;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        boolean portrait = (h >= w);
+
+        /* Hit lights */
+        int ledSizeX = (int) (((double) w)/(portrait ? LED_SIZE_X_DIV_PORT : LED_SIZE_X_DIV_LAND));
+        int ledSizeY = (int) (((double) h)/(portrait ? LED_SIZE_Y_DIV_PORT : LED_SIZE_Y_DIV_LAND));
+        int top = h/TOP_MARGIN_DIV;
+        int bottom = top + ledSizeY;
+        int left = w/LEFT_MARGIN_DIV;
+        hitRect[0].set(left, top, left + ledSizeX, bottom);
+        left = w - w/LEFT_MARGIN_DIV - ledSizeX;
+        hitRect[1].set(left, top, left + ledSizeX, bottom);
+
+        /* Card lights, under the hit lights - yellow, red, white for
+           fencer A and white, yellow, red for fencer B */
+        int marginDiv = portrait ? CARD_LEFT_MARGIN_DIV_PORT : CARD_LEFT_MARGIN_DIV_LAND;
+        int areaYSize = h/(portrait ? CARD_SIZE_Y_DIV_PORT : CARD_SIZE_Y_DIV_LAND);
+        cardRadius = (float) ledSizeX/(portrait ? 8 : 16);
+        left = w/marginDiv;
+        cardRect[0].set(left, bottom, left + ledSizeX, bottom + areaYSize);
+        left = w - w/marginDiv - ledSizeX;
+        cardRect[1].set(left, bottom, left + ledSizeX, bottom + areaYSize);
+        for (int f = 0; f < 2; f++) {
+            cardY[f] = cardRect[f].top + (float) areaYSize/2;
+        }
+        cardX[0][YELLOW] = cardRect[0].left + cardRadius;
+        cardX[0][RED] = cardX[0][YELLOW] + cardRadius*3;
+        cardX[0][WHITE] = cardX[0][RED] + cardRadius*3;
+        cardX[1][RED] = cardRect[1].right - cardRadius;
+        cardX[1][YELLOW] = cardX[1][RED] - cardRadius*3;
+        cardX[1][WHITE] = cardX[1][YELLOW] - cardRadius*3;
+    }
+
+    public void showHit(int fencer, Box.Hit h) {
+        if (hit[fencer] != h) {
+            hit[fencer] = h;
+            invalidate(hitRect[fencer]);
+        }
+    }
+
+    public void showCards(int fencer, boolean yellowCardOn, boolean redCardOn, boolean shortCircuitOn) {
+        boolean[] c = card[fencer];
+        if (c[YELLOW] != yellowCardOn || c[RED] != redCardOn || c[WHITE] != shortCircuitOn) {
+            c[YELLOW] = yellowCardOn;
+            c[RED] = redCardOn;
+            c[WHITE] = shortCircuitOn;
+            invalidate(cardRect[fencer]);
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        for (int f = 0; f < 2; f++) {
+            switch (hit[f]) {
+                case OnTarget:
+                    canvas.drawRect(hitRect[f], onTargetPaint[f]);
+                    break;
+
+                case OffTarget:
+                    canvas.drawRect(hitRect[f], offTargetPaint);
+                    break;
+
+                case None:
+                default:
+                    break;
+            }
+            for (int i = 0; i < 3; i++) {
+                canvas.drawCircle(cardX[f][i], cardY[f], cardRadius, card[f][i] ? cardPaint[i] : cardOffPaint);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.robinterry.fencingboxapp;
+
+import com.robinterry.constants.C;
+
+/* Window on the message indexes received from one piste.
+
+   The message index goes from 0 to MAX_MSGINDEX and then wraps round to 0,
+   so the distance between two indexes is worked out modulo the number of
+   indexes. A message is only accepted if its index is newer than any seen
+   before - a message which has already been seen (for example, when it
+   arrives on two interfaces) is a duplicate, and one which is older than
+   the newest is a late (reordered) message. Both are dropped, as the box
+   already holds newer state.
+
+   The indexes seen in the last SEQ_WINDOW are held in a bitmap, so that a
+   late message can be told from a duplicate. A late message was counted as
+   lost when the gap was seen, so it is taken off the lost count.
+
+   If the index jumps by more than SEQ_MAX_JUMP either way, or nothing has
+   been accepted for SEQ_RESET_TIMEOUT, the box is taken to have restarted
+   and the window starts again at the new index. The messages dropped do
+   not put off the timeout - a box which restarts at index 0 having got no
+   further than SEQ_MAX_JUMP sends only "late" messages until it passes its
+   old index, so the timeout is what lets it be taken back.
+
+   Messages relayed by the hub are not counted in the same way: the hub
+   leaves out messages which have not changed, and sends the latest
+   message from each piste again in each key message, so a gap is not a
+   loss and a message already seen is not a duplicate. */
+
+@SuppressWarnings("ALL")
+public class SequenceWindow {
+    private static final int MODULUS = C.MAX_MSGINDEX + 1;
+
+    private boolean started = false;
+    private int newest = 0;
+    /* Bit n is set if index (newest - n) has been received */
+    private long seen = 0;
+    private long lastTime = 0;
+
+    private long received = 0, lost = 0, duplicate = 0, reordered = 0, resets = 0;
+
+    /* The distance from 'from' to 'to', between -MODULUS/2 and MODULUS/2 */
+    public static int distance(int from, int to) {
+        int d = ((to - from) % MODULUS + MODULUS) % MODULUS;
+        return (d > MODULUS/2) ? d - MODULUS : d;
+    }
+
+    /* Returns true if the message with this index should be processed */
+    public synchronized boolean accept(int index, long now) {
+        received++;
+        if (!started || (now - lastTime) > C.SEQ_RESET_TIMEOUT) {
+            restart(index, now);
+            return true;
+        }
+        int d = distance(newest, index);
+        if (d > C.SEQ_MAX_JUMP || d < -C.SEQ_MAX_JUMP) {
+            restart(index, now);
+            return true;
+        }
+        if (d > 0) {
+            /* A newer message - any indexes skipped over are lost for now.
+               Only a message accepted puts off the timeout, so that a box
+               which restarts at a lower index is taken back once it runs out */
+            lastTime = now;
+            lost += d - 1;
+            seen = (d < C.SEQ_WINDOW) ? (seen << d) | 1 : 1;
+            newest = index;
+            return true;
+        }
+        int back = -d;
+        if (back >= C.SEQ_WINDOW) {
+            /* Too old to tell, so count it as a late message */
+            reordered++;
+        } else if ((seen & (1L << back)) != 0) {
+            duplicate++;
+        } else {
+            seen |= (1L << back);
+            reordered++;
+            lost--;
+        }
+        return false;
+    }
+
+    /* As accept(), for a message relayed by the hub - neither the gaps nor
+       the messages seen again are counted */
+    public synchronized boolean acceptRelayed(int index, long now) {
+        if (!started || (now - lastTime) > C.SEQ_RESET_TIMEOUT) {
+            received++;
+            restart(index, now);
+            return true;
+        }
+        int d = distance(newest, index);
+        if (d > C.SEQ_MAX_JUMP || d < -C.SEQ_MAX_JUMP) {
+            received++;
+            restart(index, now);
+            return true;
+        }
+        if (d > 0) {
+            lastTime = now;
+            received++;
+            seen = (d < C.SEQ_WINDOW) ? (seen << d) | 1 : 1;
+            newest = index;
+            return true;
+        }
+        return false;
+    }
+
+    private void restart(int index, long now) {
+        if (started) {
+            resets++;
+        }
+        started = true;
+        newest = index;
+        seen = 1;
+        lastTime = now;
+    }
+
+    public synchronized void reset() {
+        started = false;
+        seen = 0;
+    }
+
+    public synchronized int getNewest() {
+        return newest;
+    }
+
+    /* All of the messages received, including those dropped */
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    public synchronized long getLost() {
+        return lost;
+    }
+
+    public synchronized long getDuplicate() {
+        return duplicate;
+    }
+
+    public synchronized long getReordered() {
+        return reordered;
+    }
+
+    public synchronized long getResets() {
+        return resets;
+    }
+
+    /* The fraction of messages sent which were lost, from 0 to 1 */
+    public synchronized float getLossRate() {
+        long sent = received - duplicate + lost;
+        return (sent > 0) ? (float) lost / sent : 0f;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RX " + received + " lost " + lost + " dup " + duplicate +
+                " late " + reordered + " resets " + resets;
+    }
+}
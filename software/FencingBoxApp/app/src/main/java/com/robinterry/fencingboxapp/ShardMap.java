@@ -0,0 +1,130 @@
+package com.robinterry.fencingboxapp;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import com.robinterry.constants.C;
+
+/* Mapping of pistes to multicast groups.
+
+   The pistes are divided into zones (for example, one per hall), and
+   each zone has its own multicast group, so that a device only receives
+   the messages for the zones it has joined. Control messages (hub and
+   subscription messages) are sent on a separate group, which every
+   device joins.
+
+   The mapping is given as a list of piste ranges, one per zone:
+   "1-10,11-20,21-30" means zone 1 is pistes 1-10, zone 2 is pistes
+   11-20, and zone 3 is pistes 21-30. A piste which is not in any range
+   uses the control group. Every device at a venue needs the same mapping,
+   which is kept in the preferences, and is C.SHARD_MAP until it is set.
+*/
+
+@SuppressWarnings("ALL")
+public class ShardMap {
+    /* Zone 0 is the control group */
+    private final int[] zoneOf = new int[C.MAX_PISTE+1];
+    private final InetAddress[] groups = new InetAddress[C.MAX_ZONES+1];
+    private int zones = 0;
+    private String spec;
+
+    public ShardMap() throws UnknownHostException {
+        this(C.SHARD_MAP);
+    }
+
+    public ShardMap(String spec) throws UnknownHostException {
+        groups[0] = InetAddress.getByName(C.IPMCADDR);
+        if (!parse(spec)) {
+            parse(C.SHARD_MAP);
+        }
+    }
+
+    /* Returns false if the mapping is not valid, in which case nothing is changed */
+    private boolean parse(String spec) {
+        int[] z = new int[C.MAX_PISTE+1];
+        int n = 0;
+        if (spec == null) {
+            return false;
+        }
+        try {
+            for (String range : spec.split(",")) {
+                range = range.trim();
+                if (range.isEmpty()) {
+                    continue;
+                }
+                if (++n > C.MAX_ZONES) {
+                    return false;
+                }
+                int dash = range.indexOf('-');
+                int first = Integer.parseInt((dash < 0) ? range : range.substring(0, dash).trim());
+                int last = (dash < 0) ? first : Integer.parseInt(range.substring(dash+1).trim());
+                if (first < 1 || last > C.MAX_PISTE || first > last) {
+                    return false;
+                }
+                for (int piste = first; piste <= last; piste++) {
+                    z[piste] = n;
+                }
+            }
+            for (int i = 1; i <= n; i++) {
+                if (groups[i] == null) {
+                    groups[i] = InetAddress.getByName(C.IPMCZONEPREFIX + (C.IPMCZONEBASE + i));
+                }
+            }
+        } catch (NumberFormatException | UnknownHostException e) {
+            return false;
+        }
+        System.arraycopy(z, 0, zoneOf, 0, z.length);
+        zones = n;
+        this.spec = spec;
+        return true;
+    }
+
+    public String getSpec() {
+        return spec;
+    }
+
+    public int getZones() {
+        return zones;
+    }
+
+    public int zoneOf(int piste) {
+        return (piste >= 1 && piste <= C.MAX_PISTE) ? zoneOf[piste] : 0;
+    }
+
+    public InetAddress getControlGroup() {
+        return groups[0];
+    }
+
+    /* Zone 0 is the control group */
+    public InetAddress getGroup(int zone) {
+        return (zone >= 0 && zone <= zones) ? groups[zone] : groups[0];
+    }
+
+    public InetAddress getPisteGroup(int piste) {
+        return groups[zoneOf(piste)];
+    }
+
+    /* Bitmap of every zone */
+    public int allZones() {
+        return ((1 << zones) - 1) << 1;
+    }
+
+    /* The zone groups a device joins, as a bitmap - the hub joins every
+       zone, and a repeater none (it only sends on the group for its zone,
+       and does not need to receive the other pistes). A display client
+       joins the zone it is set to (or every zone, for zone 0), except
+       while a hub is sending, when it gets every piste from the hub on the
+       control group and joins none - it joins them again when the hub
+       goes quiet. */
+    public int wantedZones(boolean isHub, boolean isRepeater, boolean hubAlive, int zone) {
+        if (isHub) {
+            return allZones();
+        } else if (isRepeater || hubAlive) {
+            return 0;
+        } else if (zone == 0) {
+            return allZones();
+        } else {
+            return (1 << zone) & allZones();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.robinterry.fencingboxapp;
+
+/* What the display last showed of the box being displayed.
+
+   The boxes in the box list are shared, and never changed once they are
+   in the list (see FencingBoxList), so the parts of a box which need
+   redrawing cannot be marked on the box itself. Instead a copy of the box
+   last shown is kept, and each box to be shown is compared with it. Boxes
+   which came and went between two redraws are never seen, so a part which
+   changed and then changed back is not redrawn.
+
+   Only used on one thread (the UI thread). */
+
+@SuppressWarnings("ALL")
+public class ShownBox {
+    private final Box shown = new Box();
+    /* The piste shown, or 0 if nothing has been shown */
+    private int piste = 0;
+
+    /* The parts of this box to redraw - all of them if the piste is not the
+       one shown - and the box is then taken as shown */
+    public int show(Box b) {
+        int changes = (b.piste != piste) ? Box.CHANGED_ALL : b.changesFrom(shown);
+        if (changes != 0) {
+            shown.copyFrom(b);
+            piste = b.piste;
+        }
+        return changes;
+    }
+}
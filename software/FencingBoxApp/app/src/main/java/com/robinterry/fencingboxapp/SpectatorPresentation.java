@@ -0,0 +1,158 @@
+package com.robinterry.fencingboxapp;
+
+import android.app.Presentation;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Typeface;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Display;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.View;
+import android.view.WindowManager;
+
+/* Import constant values */
+import com.robinterry.constants.C;
+
+/* The scoreboard on a second screen (HDMI, a cast display or similar) for
+   the spectators, full screen and with no menus.
+
+   It is drawn by a thread of its own onto a SurfaceView, with its own
+   ScoreboardRenderer, so nothing the operator does on the main screen -
+   menus, dialogs or other activities - can hold it up. The thread checks
+   the source for changes every SPECTATOR_REFRESH_INTERVAL milliseconds (or
+   IDLE_SPECTATOR_REFRESH_INTERVAL while the app is idle), and only draws a
+   frame when what is shown has changed. */
+
+@SuppressWarnings("ALL")
+public class SpectatorPresentation extends Presentation implements SurfaceHolder.Callback {
+    private static final String TAG = SpectatorPresentation.class.getSimpleName();
+
+    private final ScoreboardSource source;
+    private final ScoreboardRenderer renderer;
+    private final ScoreboardSnapshot shown = new ScoreboardSnapshot();
+    private IdlePolicy idle = null;
+    private HandlerThread thread = null;
+    private IdleLoop refresh = null;
+    private SurfaceHolder holder = null;
+    /* Frames drawn, for testing */
+    private volatile int frames = 0;
+
+    public SpectatorPresentation(Context outerContext, Display display, ScoreboardSource source, Typeface face) {
+        super(outerContext, display);
+        this.source = source;
+        this.renderer = new ScoreboardRenderer(face);
+    }
+
+    /* Check for changes less often while the app is idle */
+    public void setIdlePolicy(IdlePolicy idle) {
+        this.idle = idle;
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        SurfaceView view = new SurfaceView(getContext());
+        view.getHolder().addCallback(this);
+        setContentView(view);
+        getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        view.setSystemUiVisibility(
+                View.SYSTEM_UI_FLAG_LAYOUT_STABLE
+                        | View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION
+                        | View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN
+                        | View.SYSTEM_UI_FLAG_HIDE_NAVIGATION
+                        | View.SYSTEM_UI_FLAG_FULLSCREEN
+                        | View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        thread = new HandlerThread("spectator");
+        thread.start();
+        refresh = new IdleLoop(idle, IdleLoop.onHandler(new Handler(thread.getLooper())),
+                C.SPECTATOR_REFRESH_INTERVAL, C.IDLE_SPECTATOR_REFRESH_INTERVAL) {
+            @Override
+            protected void tick(long now) {
+                draw();
+            }
+        };
+        refresh.start(0);
+        if (C.DEBUG) {
+            Log.d(TAG, "Spectator display started on " + getDisplay().getName());
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        /* This may be drawing meanwhile - it is not posted again once stopped */
+        refresh.stop();
+        refresh = null;
+        thread.quitSafely();
+        thread = null;
+        super.onStop();
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder h) {
+        /* Nothing to do until the size is known */
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder h, int format, int width, int height) {
+        synchronized (this) {
+            holder = h;
+            renderer.setSize(width, height);
+            shown.invalidate();
+        }
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder h) {
+        /* The surface must not be drawn on once this returns */
+        synchronized (this) {
+            holder = null;
+        }
+    }
+
+    /* Draws a frame if what is shown has changed */
+    private synchronized void draw() {
+        Box b = source.getShownBox();
+        if (holder == null || b == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (!shown.update(b, source.getShownClock(b), source.isShownOffline(b, now), now)) {
+            return;
+        }
+        Canvas canvas = null;
+        try {
+            canvas = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                    ? holder.getSurface().lockHardwareCanvas() : holder.lockCanvas();
+            if (canvas != null) {
+                renderer.draw(canvas, shown.box, shown.clock, shown.offline);
+                frames++;
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            Log.e(TAG, "Unable to draw the spectator display " + e);
+            shown.invalidate();
+        } finally {
+            if (canvas != null) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    holder.getSurface().unlockCanvasAndPost(canvas);
+                } else {
+                    holder.unlockCanvasAndPost(canvas);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.robinterry.fencingboxapp;
+
+import java.net.InetAddress;
+
+import com.robinterry.constants.C;
+
+/* Table of display clients which have subscribed to this repeater's piste.
+
+   A subscription is soft state - it expires unless the display client
+   renews it, so that a client which goes away (or moves on to show a
+   different piste) is dropped without needing to unsubscribe. */
+
+@SuppressWarnings("ALL")
+public class SubscriberTable {
+    private final InetAddress[] hosts;
+    private final long[] expiry;
+    private final int lifetime;
+
+    public SubscriberTable() {
+        this(C.MAX_SUBSCRIBERS, C.SUBSCRIPTION_LIFETIME);
+    }
+
+    public SubscriberTable(int maxSubscribers, int lifetime) {
+        this.hosts = new InetAddress[maxSubscribers];
+        this.expiry = new long[maxSubscribers];
+        this.lifetime = lifetime;
+    }
+
+    /* Add or renew a subscription - returns false if the table is full */
+    public synchronized boolean subscribe(InetAddress host, long now) {
+        int free = -1;
+        for (int i = 0; i < hosts.length; i++) {
+            if (hosts[i] != null && now < expiry[i]) {
+                if (hosts[i].equals(host)) {
+                    expiry[i] = now + lifetime;
+                    return true;
+                }
+            } else if (free < 0) {
+                free = i;
+            }
+        }
+        if (free < 0) {
+            return false;
+        }
+        hosts[free] = host;
+        expiry[free] = now + lifetime;
+        return true;
+    }
+
+    /* Copy the live subscribers into 'out', dropping any which have expired,
+       and return how many there are */
+    public synchronized int getSubscribers(InetAddress[] out, long now) {
+        int n = 0;
+        for (int i = 0; i < hosts.length; i++) {
+            if (hosts[i] != null) {
+                if (now >= expiry[i]) {
+                    hosts[i] = null;
+                } else if (n < out.length) {
+                    out[n++] = hosts[i];
+                }
+            }
+        }
+        return n;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = null;
+        }
+    }
+
+    public int capacity() {
+        return hosts.length;
+    }
+}
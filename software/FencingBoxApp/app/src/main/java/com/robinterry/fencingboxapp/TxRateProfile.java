@@ -0,0 +1,101 @@
+package com.robinterry.fencingboxapp;
+
+import com.robinterry.constants.C;
+
+/* Transmit rate profile for the network repeater messages.
+
+   The rate at which the full box message is sent follows the state
+   of the fencing scoring box:
+
+   Active - the clock is running, or lights are showing: fast
+   Break  - bout or stopwatch mode, but the clock is stopped: slow
+   Idle   - not in bout mode (none, sparring, weapon test): slowest
+   Silent - not connected to a fencing scoring box: nothing is sent
+*/
+
+@SuppressWarnings("ALL")
+public class TxRateProfile {
+    public enum Phase { Active, Break, Idle, Silent }
+    public enum Preset { Standard, Economy }
+
+    private Preset preset;
+    private int activeInterval;
+    private int breakInterval;
+    private int idleInterval;
+
+    public TxRateProfile() {
+        this(Preset.Standard);
+    }
+
+    public TxRateProfile(Preset preset) {
+        setPreset(preset);
+    }
+
+    public TxRateProfile(int activeInterval, int breakInterval, int idleInterval) {
+        this.preset = Preset.Standard;
+        this.activeInterval = activeInterval;
+        this.breakInterval = breakInterval;
+        this.idleInterval = idleInterval;
+    }
+
+    public void setPreset(Preset preset) {
+        this.preset = preset;
+        switch (preset) {
+            case Economy:
+                activeInterval = C.TX_INTERVAL_ACTIVE;
+                breakInterval = C.TX_INTERVAL_BREAK_ECONOMY;
+                idleInterval = C.TX_INTERVAL_IDLE_ECONOMY;
+                break;
+
+            case Standard:
+            default:
+                activeInterval = C.TX_INTERVAL_ACTIVE;
+                breakInterval = C.TX_INTERVAL_BREAK;
+                idleInterval = C.TX_INTERVAL_IDLE;
+                break;
+        }
+    }
+
+    public Preset getPreset() {
+        return preset;
+    }
+
+    public static Preset presetFromString(String s) {
+        if (s != null && s.equals("economy")) {
+            return Preset.Economy;
+        } else {
+            return Preset.Standard;
+        }
+    }
+
+    public static String presetToString(Preset p) {
+        return (p == Preset.Economy) ? "economy" : "standard";
+    }
+
+    public Phase getPhase(Box box, boolean connected, long now) {
+        if (!connected) {
+            return Phase.Silent;
+        } else if (box.hitA != Box.Hit.None || box.hitB != Box.Hit.None || box.priIndicator) {
+            return Phase.Active;
+        } else if (box.isModeBout() || box.isModeStopwatch()) {
+            return box.isClockRunning(now) ? Phase.Active : Phase.Break;
+        } else {
+            return Phase.Idle;
+        }
+    }
+
+    /* Returns the interval in milliseconds until the next message is
+       sent - when silent, this is how often the phase is checked again */
+    public int getInterval(Phase phase) {
+        switch (phase) {
+            case Active:
+                return activeInterval;
+            case Break:
+                return breakInterval;
+            case Idle:
+            case Silent:
+            default:
+                return idleInterval;
+        }
+    }
+}
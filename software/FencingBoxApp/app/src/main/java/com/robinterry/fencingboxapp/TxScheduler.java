@@ -0,0 +1,81 @@
+package com.robinterry.fencingboxapp;
+
+import java.util.Random;
+
+import com.robinterry.constants.C;
+
+/* Transmit scheduler for the network repeater messages.
+
+   If every repeater sends at the same period, the transmissions from many
+   pistes can line up and collide on the Wifi network. To avoid this, each
+   transmit period is divided into slots, one per piste, and each repeater
+   only sends in the slot for its own piste. The slots are aligned to the
+   shared network time (see NetworkTime), or to the wall clock until that
+   is synchronised, so that repeaters on different devices agree on where
+   the slots are, and a small amount of random jitter is added so that two
+   repeaters which share a slot do not stay locked together.
+
+   Example (period 250ms, 30 slots):
+   piste 1  -> 0ms, 250ms, 500ms...
+   piste 2  -> 8ms, 258ms, 508ms...
+   piste 30 -> 241ms, 491ms, 741ms...
+*/
+
+@SuppressWarnings("ALL")
+public class TxScheduler {
+    private final int slots;
+    private final int jitter;
+    private final Random random;
+
+    public TxScheduler() {
+        this(C.TX_SLOTS, C.TX_JITTER, new Random());
+    }
+
+    public TxScheduler(int slots, int jitter, Random random) {
+        this.slots = (slots > 0) ? slots : 1;
+        this.jitter = (jitter > 0) ? jitter : 0;
+        this.random = random;
+    }
+
+    /* The offset of the slot for this piste from the start of the period */
+    public long slotOffset(int piste, int interval) {
+        int slot = ((piste > 0) ? piste - 1 : 0) % slots;
+        return ((long) slot * interval) / slots;
+    }
+
+    /* The jitter is limited to a quarter of a slot, so that it
+       does not push a message into the neighbouring slots */
+    public int maxJitter(int interval) {
+        return Math.min(jitter, interval / (slots * 4));
+    }
+
+    /* Returns the time of the next transmit slot for this piste which is
+       after 'now', with jitter applied - 'now' and the returned time are
+       both in milliseconds of the shared clock */
+    public long nextTxTime(long now, int piste, int interval) {
+        if (interval <= 0) {
+            return now;
+        }
+        int j = maxJitter(interval);
+
+        /* Allow for 'now' being the time of a message which was sent
+           early due to jitter, so that the same slot is not used twice */
+        long offset = slotOffset(piste, interval);
+        long slotStart = (now + j) - Math.floorMod((now + j) - offset, (long) interval);
+        long next = slotStart + interval;
+        if (j > 0) {
+            synchronized (random) {
+                next += random.nextInt(2*j + 1) - j;
+            }
+        }
+        return (next > now) ? next : now;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    public int getJitter() {
+        return jitter;
+    }
+}
@@ -0,0 +1,22 @@
+package com.robinterry.fencingboxapp;
+
+import android.content.Context;
+import android.graphics.Typeface;
+
+/* Typefaces loaded from the assets. Each is loaded once for the whole
+   process, rather than by each activity, display and renderer which uses
+   it - loading one means reading and parsing the font file. */
+
+@SuppressWarnings("ALL")
+public class Typefaces {
+    private static final String DIGITAL_FONT = "font/DSEG7Classic-Bold.ttf";
+    private static Typeface digital = null;
+
+    /* The seven segment typeface used for the scores and clock */
+    public static synchronized Typeface digital(Context context) {
+        if (digital == null) {
+            digital = Typeface.createFromAsset(context.getApplicationContext().getAssets(), DIGITAL_FONT);
+        }
+        return digital;
+    }
+}
@@ -0,0 +1,60 @@
+package com.robinterry.fencingboxapp;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.view.View;
+import android.view.WindowManager;
+import android.util.Log;
+
+/* Import constant values */
+import com.robinterry.constants.C;
+
+/* Shows the scoreboards of every piste received at once, for a large
+   screen in the hall */
+
+@SuppressWarnings("ALL")
+public class WallDisplayActivity extends Activity {
+
+    private static final String TAG = WallDisplayActivity.class.getSimpleName();
+    private WallDisplayView wall = null;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        FencingBoxList boxList = FencingBoxActivity.boxList;
+        if (boxList == null) {
+            Log.e(TAG, "No pistes to display");
+            finish();
+            return;
+        }
+        wall = new WallDisplayView(this, boxList, Typefaces.digital(this));
+        setContentView(wall);
+        getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        getWindow().getDecorView().setSystemUiVisibility(
+                View.SYSTEM_UI_FLAG_LAYOUT_STABLE
+                        | View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION
+                        | View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN
+                        | View.SYSTEM_UI_FLAG_HIDE_NAVIGATION
+                        | View.SYSTEM_UI_FLAG_FULLSCREEN
+                        | View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (wall != null) {
+            if (C.DEBUG) {
+                Log.d(TAG, "Wall display started");
+            }
+            wall.start();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        if (wall != null) {
+            wall.stop();
+        }
+        super.onPause();
+    }
+}
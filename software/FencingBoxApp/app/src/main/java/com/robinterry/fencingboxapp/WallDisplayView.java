@@ -0,0 +1,213 @@
+package com.robinterry.fencingboxapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.os.SystemClock;
+import android.view.View;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.robinterry.constants.C;
+
+/* The scoreboards of every piste received, laid out in a grid.
+
+   Each piste has a tile, drawn by a ScoreboardRenderer into a bitmap of its
+   own. On each frame the state of every piste is compared with what its
+   tile shows, and only the tiles which have changed are drawn again and
+   invalidated - the other tiles are copied from their bitmaps as they are.
+   The grid is laid out again when a piste is added.
+
+   The tiles are only checked when something could have changed: on the
+   next frame after a new box is put in the box list, and on a tick - when
+   the next running clock is due to change, or every WALL_TICK_INTERVAL to
+   show pistes which have gone offline. */
+
+@SuppressWarnings("ALL")
+public class WallDisplayView extends View {
+    /* Width to height of a tile */
+    private static final float TILE_ASPECT = 4f/3f;
+    /* Gap in pixels between the tiles */
+    private static final int TILE_GAP = 2;
+
+    private static class Tile {
+        int piste;
+        final Rect rect = new Rect();
+        Bitmap bitmap;
+        Canvas canvas;
+        /* What the tile shows */
+        final ScoreboardSnapshot shown = new ScoreboardSnapshot();
+        boolean dirty = true;
+    }
+
+    private final FencingBoxList boxList;
+    private final ScoreboardRenderer renderer;
+    private Tile[] tiles = new Tile[0];
+    private long layoutMask = -1;
+    private volatile boolean running = false;
+    /* A check is posted for the next frame, after a box has changed */
+    private final AtomicBoolean changePosted = new AtomicBoolean(false);
+    /* Number of times the tiles have been checked, for measuring */
+    private int updates = 0;
+
+    /* Called on the RX thread */
+    private final FencingBoxList.Listener listener = new FencingBoxList.Listener() {
+        @Override
+        public void onBoxChanged(int piste) {
+            if (running && !changePosted.getAndSet(true)) {
+                postOnAnimation(changed);
+            }
+        }
+    };
+
+    private final Runnable changed = new Runnable() {
+        @Override
+        public void run() {
+            changePosted.set(false);
+            refresh();
+        }
+    };
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    public WallDisplayView(Context context, FencingBoxList boxList, Typeface face) {
+        super(context);
+        this.boxList = boxList;
+        this.renderer = new ScoreboardRenderer(face);
+        setBackgroundColor(Color.BLACK);
+    }
+
+    /* Start and stop checking the pistes */
+    public void start() {
+        if (!running) {
+            running = true;
+            boxList.addListener(listener);
+            changePosted.set(true);
+            postOnAnimation(changed);
+        }
+    }
+
+    public void stop() {
+        running = false;
+        boxList.removeListener(listener);
+        removeCallbacks(changed);
+        removeCallbacks(tick);
+        changePosted.set(false);
+    }
+
+    public int getUpdates() {
+        return updates;
+    }
+
+    /* Check the tiles, and set the tick for the next clock change */
+    private void refresh() {
+        if (running) {
+            removeCallbacks(tick);
+            postDelayed(tick, update());
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        layoutMask = -1;
+        update();
+    }
+
+    /* The number of columns which gives the largest tiles */
+    private static int columnsFor(int n, int w, int h) {
+        int best = 1;
+        float bestSize = 0;
+        for (int cols = 1; cols <= n; cols++) {
+            int rows = (n + cols - 1)/cols;
+            float size = Math.min((float) w/cols/TILE_ASPECT, (float) h/rows);
+            if (size > bestSize) {
+                bestSize = size;
+                best = cols;
+            }
+        }
+        return best;
+    }
+
+    private void layoutTiles(FencingBoxList.Snapshot snap) {
+        int w = getWidth(), h = getHeight();
+        int n = snap.size();
+        layoutMask = snap.mask;
+        if (n == 0 || w == 0 || h == 0) {
+            tiles = new Tile[0];
+            return;
+        }
+        int cols = columnsFor(n, w, h);
+        int rows = (n + cols - 1)/cols;
+        int tileH = Math.min((int) (w/cols/TILE_ASPECT), h/rows);
+        int tileW = (int) (tileH*TILE_ASPECT);
+        int left = (w - cols*tileW)/2, top = (h - rows*tileH)/2;
+
+        renderer.setSize(tileW - TILE_GAP, tileH - TILE_GAP);
+        Tile[] t = new Tile[n];
+        for (int i = 0; i < n; i++) {
+            t[i] = new Tile();
+            t[i].piste = snap.piste(i);
+            int x = left + (i % cols)*tileW, y = top + (i / cols)*tileH;
+            t[i].rect.set(x, y, x + renderer.getWidth(), y + renderer.getHeight());
+
+            /* Reuse the bitmaps of the old tiles, as they are the same size if the grid is */
+            Tile old = (i < tiles.length) ? tiles[i] : null;
+            if (old != null && old.bitmap.getWidth() == renderer.getWidth() && old.bitmap.getHeight() == renderer.getHeight()) {
+                t[i].bitmap = old.bitmap;
+                t[i].canvas = old.canvas;
+            } else {
+                t[i].bitmap = Bitmap.createBitmap(renderer.getWidth(), renderer.getHeight(), Bitmap.Config.ARGB_8888);
+                t[i].canvas = new Canvas(t[i].bitmap);
+            }
+        }
+        tiles = t;
+        invalidate();
+    }
+
+    /* Compare each tile with its piste, and invalidate the tiles which have
+       changed - returns the time in milliseconds until a clock shown changes */
+    private int update() {
+        updates++;
+        FencingBoxList.Snapshot snap = boxList.snapshot();
+        if (snap.mask != layoutMask) {
+            layoutTiles(snap);
+        }
+        long now = SystemClock.elapsedRealtime();
+        long next = C.WALL_TICK_INTERVAL;
+        for (Tile t : tiles) {
+            Box b = boxList.getBox(t.piste);
+            if (b == null) {
+                continue;
+            }
+            RemoteClock c = boxList.getClock(t.piste);
+            if (t.shown.update(b, c, boxList.isStale(t.piste, now), now)) {
+                t.dirty = true;
+                invalidate(t.rect);
+            }
+            /* Redrawn no faster than the clock is on the main display */
+            next = RemoteClock.nextCheck(c, now, next);
+        }
+        return (int) next;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        for (Tile t : tiles) {
+            if (t.dirty) {
+                renderer.draw(t.canvas, t.shown.box, t.shown.clock, t.shown.offline);
+                t.dirty = false;
+            }
+            canvas.drawBitmap(t.bitmap, t.rect.left, t.rect.top, null);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.robinterry.fencingboxapp;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import com.robinterry.constants.C;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays a minute of messages from many pistes through FencingBoxList, and
+ * runs the box monitor's redraw of the piste being displayed (ShownBox) on
+ * them, switching piste now and then. This is a model of the display: it
+ * counts the parts of the display redrawn (the Box.CHANGED bits passed to
+ * FencingBoxDisplay.displayBox) rather than the views actually invalidated,
+ * both when the whole box is redrawn each time a new box is in the list (as
+ * before) and when only the changed parts are. Also checks that redrawing
+ * only the changed parts always ends up showing the same as a full redraw.
+ */
+public class DisplayChangeTest {
+    private static final int PISTES = 30;
+    private static final int DURATION = 60000;
+    private static final int TX_INTERVAL = C.TX_INTERVAL_ACTIVE;
+    private static final int MONITOR_INTERVAL = C.BOX_MONITOR_INTERVAL;
+    private static final int SWITCH_INTERVAL = 10000;
+    private static final int PARTS = Integer.bitCount(Box.CHANGED_ALL);
+
+    /* What one part of the display shows for this box */
+    private static String show(Box b, int part) {
+        switch (1 << part) {
+            case Box.CHANGED_CLOCK:
+                return b.timeMins + ":" + b.timeSecs;
+            case Box.CHANGED_SCORE:
+                return b.scoreA + " " + b.scoreB;
+            case Box.CHANGED_HIT:
+                return b.hitA + " " + b.hitB;
+            case Box.CHANGED_PRIORITY:
+                return b.priIndicator + " " + b.priA + " " + b.priB;
+            case Box.CHANGED_CARD_A:
+                return String.valueOf(b.cardA);
+            case Box.CHANGED_CARD_B:
+                return String.valueOf(b.cardB);
+            case Box.CHANGED_PCARD_A:
+                return String.valueOf(b.pCard[0]);
+            case Box.CHANGED_PCARD_B:
+                return String.valueOf(b.pCard[1]);
+            case Box.CHANGED_PASSIVITY:
+                return b.passivityActive ? String.valueOf(b.passivityTimer) : "piste " + b.piste;
+            case Box.CHANGED_PERIOD:
+            default:
+                return String.valueOf(b.period);
+        }
+    }
+
+    /* A bout on one piste - the clock counts down while running, and now
+       and again there is a hit, which lights up for a while and scores */
+    private static class Bout {
+        final int piste;
+        final Random r;
+        int index = 0;
+        int clock = 180000;
+        boolean running = true;
+        int scoreA = 0, scoreB = 0;
+        int hitA = 0, hitB = 0;
+        long hitUntil = 0;
+        long nextEvent;
+        long last = 0;
+        int period = 1;
+        char cardA = '-', cardB = '-';
+
+        Bout(int piste, Random r) {
+            this.piste = piste;
+            this.r = r;
+            nextEvent = 5000 + r.nextInt(20000);
+        }
+
+        void advance(long now) {
+            if (running) {
+                clock = (int) Math.max(0, clock - (now - last));
+            }
+            last = now;
+            if (hitUntil != 0 && now >= hitUntil) {
+                hitA = hitB = 0;
+                hitUntil = 0;
+                running = true;
+            }
+            if (now >= nextEvent) {
+                /* A hit stops the clock and lights up for a couple of seconds */
+                if (r.nextBoolean()) {
+                    hitA = 1;
+                    scoreA++;
+                } else {
+                    hitB = 1;
+                    scoreB++;
+                }
+                if (r.nextInt(10) == 0) {
+                    cardA = 'y';
+                }
+                running = false;
+                hitUntil = now + 2000;
+                nextEvent = now + 5000 + r.nextInt(20000);
+            }
+            if (clock == 0) {
+                clock = 180000;
+                period++;
+            }
+        }
+
+        byte[] message() {
+            int t = (clock + 999)/1000;
+            String msg = String.format("%04d|%02d|%d|S%c%c:%02d:%02dT%02d:%02d:%02dP-:-C%c--:%c--V-:-K%c",
+                    index, piste, period,
+                    (hitA != 0) ? 'h' : '-', (hitB != 0) ? 'h' : '-', scoreA, scoreB,
+                    t/60, t % 60, ((clock + 9)/10) % 100,
+                    cardA, cardB, running ? 'y' : '-');
+            index = (index + 1) % (C.MAX_MSGINDEX + 1);
+            return msg.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    @Test
+    public void changesFrom_clockHundredthsOnly() {
+        Box a = new Box(1), b = new Box(1);
+        b.timeHund = "42";
+        assertEquals(0, b.changesFrom(a));
+        b.timeSecs = "59";
+        assertEquals(Box.CHANGED_CLOCK, b.changesFrom(a));
+        b.scoreA = "01";
+        b.hitA = Box.Hit.OnTarget;
+        assertEquals(Box.CHANGED_CLOCK | Box.CHANGED_SCORE | Box.CHANGED_HIT, b.changesFrom(a));
+        b.rxOk = false;
+        assertEquals(Box.CHANGED_ALL, b.changesFrom(a));
+        assertEquals(Box.CHANGED_ALL, b.changesFrom(null));
+    }
+
+    @Test
+    public void replay() {
+        Random r = new Random(3);
+        FencingBoxList list = new FencingBoxList(null, new Box(), 0);
+        ShownBox shownBox = new ShownBox();
+        Bout[] bouts = new Bout[PISTES+1];
+        long[] nextTx = new long[PISTES+1];
+        String[] shown = new String[PARTS];
+        for (int p = 1; p <= PISTES; p++) {
+            bouts[p] = new Bout(p, r);
+            nextTx[p] = r.nextInt(TX_INTERVAL);
+        }
+
+        Box lastBox = null;
+        long messages = 0, fullParts = 0, changedParts = 0, switches = 0;
+        for (long now = 0; now < DURATION; now++) {
+            for (int p = 1; p <= PISTES; p++) {
+                if (now < nextTx[p]) {
+                    continue;
+                }
+                bouts[p].advance(now);
+                byte[] msg = bouts[p].message();
+                nextTx[p] += TX_INTERVAL;
+                list.updateBox(msg, 0, msg.length, null, false, now);
+                messages++;
+            }
+
+            if (now > 0 && now % SWITCH_INTERVAL == 0) {
+                list.nextBox();
+                switches++;
+            }
+
+            /* The box monitor */
+            if (now % MONITOR_INTERVAL == 0 && !list.empty()) {
+                Box b = list.currentBox();
+
+                /* Every new box in the list used to be redrawn in full */
+                if (b != lastBox) {
+                    fullParts += PARTS;
+                    lastBox = b;
+                }
+
+                int changes = shownBox.show(b);
+                changedParts += Integer.bitCount(changes);
+                for (int i = 0; i < PARTS; i++) {
+                    if ((changes & (1 << i)) != 0) {
+                        shown[i] = show(b, i);
+                    }
+                }
+
+                /* Whatever was redrawn, the display should be the same as a full redraw */
+                for (int i = 0; i < PARTS; i++) {
+                    assertEquals("piste " + b.piste + " part " + i, show(b, i), shown[i]);
+                }
+            }
+        }
+
+        double secs = DURATION / 1000.0;
+        System.out.println(String.format("%d pistes, %.0f messages/s, %d piste switches", PISTES, messages / secs, switches));
+        System.out.println(String.format("full redraw:    %7.1f parts redrawn/s", fullParts / secs));
+        System.out.println(String.format("changed parts:  %7.1f parts redrawn/s", changedParts / secs));
+
+        /* The clock changes once a second and the rest much less often, so
+           most of the redraws should go */
+        assertTrue(changedParts * 4 < fullParts);
+    }
+}
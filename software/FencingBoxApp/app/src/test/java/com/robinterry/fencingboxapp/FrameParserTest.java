@@ -0,0 +1,345 @@
+package com.robinterry.fencingboxapp;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import com.robinterry.constants.C;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that FrameParser reads the network messages the same way as the
+ * string-based parser it replaced, and compares their throughput and the
+ * memory allocated per message.
+ */
+public class FrameParserTest {
+    private static final int PISTES = 30;
+    private static final int MESSAGES = 1000;
+    private static final int ROUNDS = 200;
+
+    private static final char[] HITS = { '-', 'h', 'o', 'p' };
+    private static final char[] PRIORITY = { '-', 'y', '?' };
+    private static final char[] PASSIVITY = { '-', '0', '1', '2' };
+
+    /* Make up a set of messages for many pistes, with every field changing */
+    private static String[] makeMessages(Random r) {
+        String[] msgs = new String[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            char pri = PRIORITY[r.nextInt(PRIORITY.length)];
+            msgs[i] = String.format("%04d|%02d|%d|S%c%c:%02d:%02dT%02d:%02d:%02dP%c:%cC%c%c%c:%c%c%cV%c:%c",
+                    i % (C.MAX_MSGINDEX+1), 1 + i % PISTES, 1 + r.nextInt(9),
+                    HITS[r.nextInt(HITS.length)], HITS[r.nextInt(HITS.length)],
+                    r.nextInt(16), r.nextInt(16),
+                    r.nextInt(4), r.nextInt(60), r.nextInt(100),
+                    pri, (pri == '?') ? '?' : PRIORITY[r.nextInt(2)],
+                    r.nextBoolean() ? 'y' : '-', r.nextBoolean() ? 'r' : '-', r.nextBoolean() ? 's' : '-',
+                    r.nextBoolean() ? 'y' : '-', r.nextBoolean() ? 'r' : '-', r.nextBoolean() ? 's' : '-',
+                    PASSIVITY[r.nextInt(PASSIVITY.length)], PASSIVITY[r.nextInt(PASSIVITY.length)]);
+        }
+        return msgs;
+    }
+
+    @Test
+    public void parse_example() {
+        byte[] msg = "2345|01|1|Sh-:02:01T02:25:00P-:-Cy--:-r-V1:-Ky".getBytes(StandardCharsets.US_ASCII);
+        Box b = new Box();
+        assertTrue(FrameParser.parse(msg, 0, msg.length, b));
+        assertTrue(b.clockRunning);
+        assertEquals(2345, b.msgIndex);
+        assertEquals(1, (int) b.piste);
+        assertEquals(Box.Hit.OnTarget, b.hitA);
+        assertEquals(Box.Hit.None, b.hitB);
+        assertEquals("02", b.scoreA);
+        assertEquals("01", b.scoreB);
+        assertEquals("y--", b.sCardA);
+        assertEquals("-r-", b.sCardB);
+        assertEquals(FencingBoxActivity.PassivityCard.Red1, b.pCard[0]);
+        assertEquals(FencingBoxActivity.PassivityCard.None, b.pCard[1]);
+    }
+
+    @Test
+    public void parse_withoutClockRunning() {
+        byte[] msg = "2345|01|1|Sh-:02:01T02:25:00P-:-Cy--:-r-V1:-".getBytes(StandardCharsets.US_ASCII);
+        Box b = new Box();
+        b.clockRunning = true;
+        assertTrue(FrameParser.parse(msg, 0, msg.length, b));
+        assertFalse(b.clockRunning);
+        assertEquals("25", b.timeSecs);
+    }
+
+    @Test
+    public void parse_rejectsBadMessages() {
+        Box b = new Box();
+        String[] bad = {
+                "",
+                "0001|01S--:--:--",
+                "0001|01|1|Xh-:02:01T02:25:00P-:-Cy--:-r-V1:-",
+                "0001|31|1|Sh-:02:01T02:25:00P-:-Cy--:-r-V1:-",
+                "00x1|01|1|Sh-:02:01T02:25:00P-:-Cy--:-r-V1:-",
+                "0001|01|1|Sh-:02:01T02:25:00P-:-Cy--:-r-X1:-",
+        };
+        for (String s : bad) {
+            byte[] msg = s.getBytes(StandardCharsets.US_ASCII);
+            assertFalse(s, FrameParser.parse(msg, 0, msg.length, b));
+        }
+    }
+
+    @Test
+    public void parse_sameAsLegacy() {
+        String[] msgs = makeMessages(new Random(1));
+        Box b = new Box();
+        for (String s : msgs) {
+            Box legacy = LegacyParser.parse(s);
+            assertNotNull(s, legacy);
+            byte[] msg = s.getBytes(StandardCharsets.US_ASCII);
+            assertTrue(s, FrameParser.parse(msg, 0, msg.length, b));
+            assertEquals(s, legacy.msgIndex, b.msgIndex);
+            assertEquals(s, legacy.piste, b.piste);
+            assertEquals(s, legacy.period, b.period);
+            assertEquals(s, legacy.hitA, b.hitA);
+            assertEquals(s, legacy.hitB, b.hitB);
+            assertEquals(s, legacy.scoreA, b.scoreA);
+            assertEquals(s, legacy.scoreB, b.scoreB);
+            assertEquals(s, legacy.timeMins, b.timeMins);
+            assertEquals(s, legacy.timeSecs, b.timeSecs);
+            assertEquals(s, legacy.timeHund, b.timeHund);
+            assertEquals(s, legacy.priIndicator, b.priIndicator);
+            assertEquals(s, legacy.priA, b.priA);
+            assertEquals(s, legacy.priB, b.priB);
+            assertEquals(s, legacy.sCardA, b.sCardA);
+            assertEquals(s, legacy.sCardB, b.sCardB);
+            assertEquals(s, legacy.cardA, b.cardA);
+            assertEquals(s, legacy.cardB, b.cardB);
+            assertEquals(s, legacy.pCard[0], b.pCard[0]);
+            assertEquals(s, legacy.pCard[1], b.pCard[1]);
+        }
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    @Test
+    public void benchmark() {
+        String[] msgs = makeMessages(new Random(2));
+
+        /* The legacy parser is given the datagram bytes, as it was in the RX thread */
+        byte[][] data = new byte[msgs.length][];
+        for (int i = 0; i < msgs.length; i++) {
+            data[i] = msgs[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        Box[] slots = new Box[PISTES+1];
+        for (int i = 1; i <= PISTES; i++) {
+            slots[i] = new Box(i);
+        }
+
+        /* Warm up both parsers */
+        int sink = 0;
+        for (int n = 0; n < ROUNDS/4; n++) {
+            for (byte[] d : data) {
+                sink += LegacyParser.parse(new String(d, 0, d.length)).msgIndex;
+                sink += FrameParser.parse(d, 0, d.length, slots[FrameParser.pisteOf(d, 0, d.length)]) ? 1 : 0;
+            }
+        }
+
+        long legacyAlloc = allocatedBytes();
+        long t0 = System.nanoTime();
+        for (int n = 0; n < ROUNDS; n++) {
+            for (byte[] d : data) {
+                sink += LegacyParser.parse(new String(d, 0, d.length)).msgIndex;
+            }
+        }
+        long legacyTime = System.nanoTime() - t0;
+        legacyAlloc = allocatedBytes() - legacyAlloc;
+
+        long newAlloc = allocatedBytes();
+        t0 = System.nanoTime();
+        for (int n = 0; n < ROUNDS; n++) {
+            for (byte[] d : data) {
+                sink += FrameParser.parse(d, 0, d.length, slots[FrameParser.pisteOf(d, 0, d.length)]) ? 1 : 0;
+            }
+        }
+        long newTime = System.nanoTime() - t0;
+        newAlloc = allocatedBytes() - newAlloc;
+
+        double count = (double) ROUNDS * MESSAGES;
+        System.out.println(String.format("legacy parser: %8.0f messages/s, %6.1f bytes/message",
+                count * 1e9 / legacyTime, legacyAlloc / count));
+        System.out.println(String.format("frame parser:  %8.0f messages/s, %6.1f bytes/message",
+                count * 1e9 / newTime, newAlloc / count));
+        assertTrue(sink != 0);
+
+        /* Steady state parsing should allocate nothing (allowing for the
+           odd allocation by the JVM itself) */
+        if (newAlloc >= 0) {
+            assertTrue("frame parser allocated " + newAlloc + " bytes", newAlloc / count < 1.0);
+        }
+    }
+
+    /* The string parser from FencingBoxList.updateBox(String, String), as it was */
+    private static class LegacyParser {
+        static FencingBoxActivity.PassivityCard getPassivity(String c) {
+            if (c.contains("-")) {
+                return FencingBoxActivity.PassivityCard.None;
+            } else if (c.contains("0")) {
+                return FencingBoxActivity.PassivityCard.Yellow;
+            } else if (c.contains("1")) {
+                return FencingBoxActivity.PassivityCard.Red1;
+            } else if (c.contains("2")) {
+                return FencingBoxActivity.PassivityCard.Red2;
+            } else {
+                return FencingBoxActivity.PassivityCard.None;
+            }
+        }
+
+        static Box parse(String msg) {
+            int offset = 0;
+            Box newBox = new Box();
+            try {
+                newBox.msgIndex = Integer.valueOf(msg.substring(offset, offset+4));
+                offset += 4;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (msg.charAt(offset) != '|') {
+                return null;
+            }
+            offset++;
+            try {
+                newBox.piste = Integer.valueOf(msg.substring(offset, offset+2));
+                offset += 2;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (msg.charAt(offset) != '|') {
+                return null;
+            }
+            offset++;
+            try {
+                newBox.period = Integer.valueOf(msg.substring(offset, offset+1));
+                offset++;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (msg.charAt(offset) != '|') {
+                return null;
+            }
+            offset++;
+            try {
+                if (msg.charAt(offset) != 'S') {
+                    return null;
+                }
+                offset++;
+                String hA = msg.substring(offset, offset+1);
+                offset++;
+                String hB = msg.substring(offset, offset+1);
+                offset += 2;
+                switch (hA) {
+                    case "h":
+                    case "p":
+                        newBox.hitA = Box.Hit.OnTarget;
+                        break;
+                    case "o":
+                        newBox.hitA = Box.Hit.OffTarget;
+                        break;
+                    default:
+                        newBox.hitA = Box.Hit.None;
+                        break;
+                }
+                switch (hB) {
+                    case "h":
+                    case "p":
+                        newBox.hitB = Box.Hit.OnTarget;
+                        break;
+                    case "o":
+                        newBox.hitB = Box.Hit.OffTarget;
+                        break;
+                    default:
+                        newBox.hitB = Box.Hit.None;
+                        break;
+                }
+                newBox.scoreA = msg.substring(offset, offset+2);
+                offset += 3;
+                newBox.scoreB = msg.substring(offset, offset+2);
+                offset += 2;
+                if (msg.charAt(offset) != 'T') {
+                    return null;
+                }
+                offset++;
+                String minStr = msg.substring(offset, offset+2);
+                offset += 3;
+                String secStr = msg.substring(offset, offset+2);
+                offset += 3;
+                String hundStr = msg.substring(offset, offset+2);
+                offset += 2;
+                newBox.timeMins = minStr;
+                newBox.timeSecs = secStr;
+                newBox.timeHund = hundStr;
+                if (msg.charAt(offset) != 'P') {
+                    return null;
+                }
+                offset++;
+                String pA = msg.substring(offset, offset+1);
+                offset += 2;
+                String pB = msg.substring(offset, offset+1);
+                offset++;
+                if (pA.contains("?") && pB.contains("?")) {
+                    newBox.priIndicator = true;
+                } else {
+                    newBox.priIndicator = false;
+                    newBox.priA = pA.contains("y");
+                    newBox.priB = pB.contains("y");
+                }
+                if (msg.charAt(offset) != 'C') {
+                    return null;
+                }
+                offset++;
+                newBox.sCardA = msg.substring(offset, offset+3);
+                offset += 4;
+                newBox.sCardB = msg.substring(offset, offset+3);
+                offset += 3;
+                if (newBox.sCardA.contains("y")) {
+                    newBox.cardA |= Box.yellowCardBit;
+                }
+                if (newBox.sCardA.contains("r")) {
+                    newBox.cardA |= Box.redCardBit;
+                }
+                if (newBox.sCardA.contains("s")) {
+                    newBox.cardA |= Box.shortCircuitBit;
+                }
+                if (newBox.sCardB.contains("y")) {
+                    newBox.cardB |= Box.yellowCardBit;
+                }
+                if (newBox.sCardB.contains("r")) {
+                    newBox.cardB |= Box.redCardBit;
+                }
+                if (newBox.sCardB.contains("s")) {
+                    newBox.cardB |= Box.shortCircuitBit;
+                }
+                if (msg.charAt(offset) != 'V') {
+                    return null;
+                }
+                offset++;
+                String cA = msg.substring(offset, offset+1);
+                offset += 2;
+                String cB = msg.substring(offset, offset+1);
+                offset++;
+                newBox.pCard[0] = getPassivity(cA);
+                newBox.pCard[1] = getPassivity(cB);
+            } catch (StringIndexOutOfBoundsException e) {
+                return null;
+            }
+            newBox.passivityActive = false;
+            newBox.passivityTimer = 0;
+            return newBox;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.robinterry.fencingboxapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the frame timing histograms - which bucket a time falls in at and
+ * either side of each bound, the percentiles including one in the last
+ * bucket, and the count over the frame budget - and that the summary never
+ * shows a percentile in the last bucket as under a time.
+ */
+public class FrameStatsTest {
+    private static final int LAST = FrameStats.BUCKETS.length;
+
+    private static int bucketOf(double ms) {
+        FrameStats.Histogram h = new FrameStats.Histogram();
+        h.add(ms);
+        for (int i = 0; i <= LAST; i++) {
+            if (h.getBucket(i) == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void bucketEdges() {
+        assertEquals(0, bucketOf(0));
+        for (int i = 0; i < LAST; i++) {
+            int bound = FrameStats.BUCKETS[i];
+            /* The bounds are upper bounds, so a time on one is in the next bucket */
+            assertEquals(i, bucketOf(bound - 0.001));
+            assertEquals(i+1, bucketOf(bound));
+            assertEquals(i+1, bucketOf(bound + 0.001));
+        }
+        assertEquals(LAST, bucketOf(100000));
+    }
+
+    @Test
+    public void percentiles() {
+        FrameStats.Histogram h = new FrameStats.Histogram();
+        assertEquals(0, h.percentile(0.95));
+        assertEquals("-", h.percentileLabel(0.95));
+
+        /* 95 frames of 10ms and 5 of 30ms */
+        for (int i = 0; i < 95; i++) {
+            h.add(10);
+        }
+        for (int i = 0; i < 5; i++) {
+            h.add(30);
+        }
+        assertEquals(12, h.percentile(0.5));
+        assertEquals(12, h.percentile(0.95));
+        assertEquals("<12ms", h.percentileLabel(0.95));
+        assertEquals(33, h.percentile(0.96));
+        assertEquals(33, h.percentile(1));
+        assertEquals(12, h.percentile(0));
+    }
+
+    @Test
+    public void percentileInTheLastBucket() {
+        FrameStats.Histogram h = new FrameStats.Histogram();
+        for (int i = 0; i < 10; i++) {
+            h.add(600.2);
+        }
+        int top = FrameStats.BUCKETS[LAST-1];
+        /* No upper bound to give, so the longest time */
+        assertEquals(601, h.percentile(0.95));
+        assertEquals(">=" + top + "ms", h.percentileLabel(0.95));
+
+        FrameStats stats = new FrameStats();
+        for (int i = 0; i < 10; i++) {
+            stats.addFrame(600000000L);
+            stats.addLatency(700000000L);
+            stats.addQueueDelay(800);
+        }
+        String summary = stats.summary();
+        assertFalse(summary, summary.contains("p95 <"));
+        assertEquals(3, summary.split("p95 >=" + top + "ms", -1).length - 1);
+    }
+
+    @Test
+    public void countOverTheBudget() {
+        FrameStats.Histogram h = new FrameStats.Histogram();
+        h.add(16.9);
+        h.add(FrameStats.FRAME_BUDGET);
+        h.add(19);
+        h.add(40);
+        h.add(1000);
+        assertEquals(4, h.countOver(FrameStats.FRAME_BUDGET));
+        assertEquals(5, h.countOver(0));
+        assertEquals(5, h.countOver(FrameStats.BUCKETS[0]));
+        assertEquals(1, h.countOver(FrameStats.BUCKETS[LAST-1]));
+        assertEquals(0, h.countOver(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        FrameStats stats = new FrameStats();
+        stats.addFrame(20000000L);
+        stats.reset();
+        long[] buckets = new long[LAST+1];
+        stats.getFrameBuckets(buckets);
+        for (long n : buckets) {
+            assertEquals(0, n);
+        }
+        assertTrue(stats.summary().startsWith("frames 0 "));
+    }
+}
@@ -0,0 +1,408 @@
+package com.robinterry.fencingboxapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.robinterry.constants.C;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the app's periodic loops - the system monitor, box monitor, remote
+ * clock monitor, spectator screen, video overlay, frame stats probe and
+ * network thread - as IdleLoops posted to a simulated handler, and counts
+ * the callbacks that the handler runs in a minute of a bout and in a minute
+ * once idle. The clock monitor is given its delay by RemoteClock.nextCheck()
+ * from a clock fed by the messages of a piste whose clock is running, as the
+ * app does. The network thread wakes for the full message at the rate for
+ * the phase of the box, and for its NetworkTimers, with a subscription to
+ * renew (as a display client or the hub has). Also
+ * checks that the first event after going idle runs every loop straight
+ * away, and that waking a loop never leaves two runs of it waiting.
+ */
+public class IdlePolicyTest {
+    private static final int MINUTE = 60000;
+
+    /* A handler on a simulated clock, which counts the callbacks it runs */
+    private static class SimHandler implements IdleLoop.Scheduler {
+        private static class Posted {
+            final Runnable r;
+            final long at;
+            final long seq;
+
+            Posted(Runnable r, long at, long seq) {
+                this.r = r;
+                this.at = at;
+                this.seq = seq;
+            }
+        }
+
+        final List<Posted> queue = new ArrayList<>();
+        long now = 0;
+        long seq = 0;
+        int callbacks = 0;
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        @Override
+        public void postDelayed(Runnable r, long delayMillis) {
+            queue.add(new Posted(r, now + delayMillis, seq++));
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            for (int i = queue.size() - 1; i >= 0; i--) {
+                if (queue.get(i).r == r) {
+                    queue.remove(i);
+                }
+            }
+        }
+
+        /* The callbacks waiting for this runnable, and when they are due */
+        List<Long> pending(Runnable r) {
+            List<Long> at = new ArrayList<>();
+            for (Posted p : queue) {
+                if (p.r == r) {
+                    at.add(p.at);
+                }
+            }
+            return at;
+        }
+
+        /* Runs the callbacks due before 'end', then sets the time to 'end' */
+        void runUntil(long end) {
+            while (true) {
+                Posted first = null;
+                for (Posted p : queue) {
+                    if (first == null || p.at < first.at || (p.at == first.at && p.seq < first.seq)) {
+                        first = p;
+                    }
+                }
+                if (first == null || first.at >= end) {
+                    break;
+                }
+                queue.remove(first);
+                now = Math.max(now, first.at);
+                callbacks++;
+                first.r.run();
+            }
+            now = end;
+        }
+    }
+
+    private static class Loop extends IdleLoop {
+        final String name;
+        final int idleInterval;
+
+        Loop(String name, IdlePolicy idle, SimHandler handler, int active, int idleInterval) {
+            super(idle, handler, active, idleInterval);
+            this.name = name;
+            this.idleInterval = idleInterval;
+        }
+
+        @Override
+        protected void tick(long now) {
+            /* The work itself is not needed to count the wakeups */
+        }
+
+        /* The most times the loop should run in a minute while idle */
+        int idleLimit() {
+            return MINUTE/idleInterval + 1;
+        }
+    }
+
+    /* The network thread, which waits until the earliest of its timers */
+    private static class NetworkLoop extends Loop {
+        final NetworkTimers timers = new NetworkTimers();
+        final TxRateProfile txRate = new TxRateProfile();
+        TxRateProfile.Phase phase = TxRateProfile.Phase.Active;
+        long nextFull = 0;
+        int subscriptions = 0;
+        int timeRequests = 0;
+
+        NetworkLoop(IdlePolicy idle, SimHandler handler) {
+            super("network", idle, handler, C.TX_INTERVAL_ACTIVE, C.TX_INTERVAL_MAX);
+            timers.setIdlePolicy(idle);
+        }
+
+        @Override
+        protected void tick(long now) {
+            if (now >= nextFull) {
+                nextFull = now + txRate.getInterval(phase);
+            }
+            timers.linkStatsDue(now);
+            if (timers.subscriptionDue(now)) {
+                timers.subscribed(now);
+                subscriptions++;
+            }
+            if (timers.timeSyncDue(now, C.NETTIME_INTERVAL)) {
+                timeRequests++;
+            }
+        }
+
+        @Override
+        protected long nextDelay(long now) {
+            return Math.max(0, timers.next(nextFull, true) - now);
+        }
+
+        @Override
+        int idleLimit() {
+            return MINUTE/txRate.getInterval(phase) + MINUTE/C.IDLE_SUBSCRIPTION_REFRESH
+                    + MINUTE/C.IDLE_NETTIME_INTERVAL + MINUTE/C.IDLE_LINK_STATS_INTERVAL + 4;
+        }
+    }
+
+    private static class Sim implements IdlePolicy.Listener {
+        final SimHandler handler = new SimHandler();
+        final IdlePolicy policy;
+        final RemoteClock clock = new RemoteClock();
+        final List<Loop> loops = new ArrayList<>();
+        final List<Boolean> changes = new ArrayList<>();
+        final Loop clockMonitor;
+        final NetworkLoop network;
+        int shownClock = -1;
+
+        Sim(long quietPeriod) {
+            policy = new IdlePolicy(quietPeriod, 0);
+            policy.addListener(this);
+            loops.add(new Loop("system monitor", policy, handler,
+                    C.SYSTEM_MONITOR_INTERVAL, C.IDLE_SYSTEM_MONITOR_INTERVAL));
+            loops.add(new Loop("box monitor", policy, handler,
+                    C.BOX_MONITOR_INTERVAL, C.IDLE_BOX_MONITOR_INTERVAL));
+            clockMonitor = new Loop("clock monitor", policy, handler,
+                    C.CLOCK_TICK_INTERVAL, C.IDLE_CLOCK_REFRESH_INTERVAL) {
+                @Override
+                protected long nextDelay(long now) {
+                    return RemoteClock.nextCheck(clock, now, super.nextDelay(now));
+                }
+            };
+            loops.add(clockMonitor);
+            loops.add(new Loop("spectator", policy, handler,
+                    C.SPECTATOR_REFRESH_INTERVAL, C.IDLE_SPECTATOR_REFRESH_INTERVAL));
+            loops.add(new Loop("overlay", policy, handler,
+                    1000/C.OVERLAY_FPS, C.IDLE_OVERLAY_INTERVAL));
+            loops.add(new Loop("frame stats probe", policy, handler,
+                    C.FRAME_STATS_PROBE_INTERVAL, C.IDLE_FRAME_STATS_PROBE_INTERVAL));
+            network = new NetworkLoop(policy, handler);
+            loops.add(network);
+            for (Loop l : loops) {
+                l.start(0);
+            }
+        }
+
+        @Override
+        public void onIdleChanged(boolean idle) {
+            changes.add(idle);
+        }
+
+        /* A message from the piste being displayed, with its clock - the
+           clock monitor is run when what is shown changes, as the box list
+           tells it. This device's own box is in the same phase. */
+        void message(int clockValue, boolean running) {
+            clock.update(clockValue, running, handler.now);
+            network.phase = running ? TxRateProfile.Phase.Active : TxRateProfile.Phase.Break;
+            if (clockValue != shownClock) {
+                shownClock = clockValue;
+                clockMonitor.runNow();
+            }
+        }
+
+        /* The callbacks run by each loop until 'end' */
+        int[] runUntil(long end) {
+            int[] before = runs();
+            handler.runUntil(end);
+            int[] after = runs();
+            for (int i = 0; i < after.length; i++) {
+                after[i] -= before[i];
+            }
+            return after;
+        }
+
+        int[] runs() {
+            int[] n = new int[loops.size()];
+            for (int i = 0; i < n.length; i++) {
+                n[i] = loops.get(i).getRuns();
+            }
+            return n;
+        }
+    }
+
+    private static int total(int[] n) {
+        int t = 0;
+        for (int i : n) {
+            t += i;
+        }
+        return t;
+    }
+
+    @Test
+    public void wakeupsPerMinute() {
+        Sim sim = new Sim(C.IDLE_QUIET_PERIOD);
+
+        /* A minute of a bout - the clock running down, with a message at
+           the active rate, and a hit or key every few seconds */
+        int[] active = new int[sim.loops.size()];
+        int clockValue = 3*60000;
+        int subscriptions = sim.network.subscriptions;
+        int timeRequests = sim.network.timeRequests;
+        for (long t = 0; t < MINUTE; t += C.TX_INTERVAL_ACTIVE) {
+            int[] n = sim.runUntil(t);
+            for (int i = 0; i < n.length; i++) {
+                active[i] += n[i];
+            }
+            if (t % 5000 == 0) {
+                sim.policy.activity(t);
+            }
+            sim.message(((clockValue - (int) t + 999)/1000)*1000, true);
+        }
+        int[] n = sim.runUntil(MINUTE);
+        for (int i = 0; i < n.length; i++) {
+            active[i] += n[i];
+        }
+        int activeSubscriptions = sim.network.subscriptions - subscriptions;
+        int activeTimeRequests = sim.network.timeRequests - timeRequests;
+
+        /* Then the clock is stopped, and nothing happens until well past
+           the quiet period */
+        sim.message(sim.shownClock, false);
+        long idleStart = MINUTE + C.IDLE_QUIET_PERIOD + C.IDLE_CLOCK_REFRESH_INTERVAL;
+        sim.runUntil(idleStart);
+        assertTrue(sim.policy.isIdle(sim.handler.now));
+        int callbacksBefore = sim.handler.callbacks;
+        subscriptions = sim.network.subscriptions;
+        timeRequests = sim.network.timeRequests;
+        int[] idle = sim.runUntil(idleStart + MINUTE);
+        assertEquals(total(idle), sim.handler.callbacks - callbacksBefore);
+        int idleSubscriptions = sim.network.subscriptions - subscriptions;
+        int idleTimeRequests = sim.network.timeRequests - timeRequests;
+
+        StringBuilder report = new StringBuilder("Callbacks per minute, active/idle:");
+        for (int i = 0; i < sim.loops.size(); i++) {
+            Loop l = sim.loops.get(i);
+            report.append(String.format(" %s %d/%d,", l.name, active[i], idle[i]));
+            assertTrue(l.name + " ran " + idle[i] + " times while idle",
+                    idle[i] <= l.idleLimit());
+        }
+        report.append(String.format(" total %d/%d", total(active), total(idle)));
+        System.out.println(report);
+        System.out.println(String.format("Subscriptions per minute %d/%d, network time requests %d/%d",
+                activeSubscriptions, idleSubscriptions, activeTimeRequests, idleTimeRequests));
+
+        /* The network thread renews the subscription and asks for the time at
+           the idle intervals, which the other devices still allow for */
+        assertTrue(activeSubscriptions >= MINUTE/C.SUBSCRIPTION_REFRESH);
+        assertTrue(idleSubscriptions <= MINUTE/C.IDLE_SUBSCRIPTION_REFRESH + 1);
+        assertTrue(activeTimeRequests >= MINUTE/C.NETTIME_INTERVAL);
+        assertTrue(idleTimeRequests <= MINUTE/C.IDLE_NETTIME_INTERVAL + 1);
+        assertTrue(C.SUBSCRIPTION_LIFETIME > 2*C.IDLE_SUBSCRIPTION_REFRESH);
+        assertTrue(C.NETTIME_REFERENCE_TIMEOUT > 2*C.IDLE_NETTIME_INTERVAL);
+
+        /* The clock monitor only runs when the clock shown is due to change
+           or a message changes it, not every CLOCK_REFRESH_INTERVAL */
+        int clockRuns = active[sim.loops.indexOf(sim.clockMonitor)];
+        assertTrue("clock monitor ran " + clockRuns + " times", clockRuns <= 2*MINUTE/1000 + 1);
+        assertTrue(clockRuns*10 < MINUTE/C.CLOCK_REFRESH_INTERVAL);
+        assertTrue(total(idle)*10 < total(active));
+    }
+
+    @Test
+    public void wakesInstantly() {
+        Sim sim = new Sim(10000);
+        sim.runUntil(15000);
+        assertTrue(sim.policy.isIdle(sim.handler.now));
+        assertEquals(1, sim.changes.size());
+        assertTrue(sim.changes.get(0));
+
+        /* A hit part way through the idle intervals - every loop runs at once */
+        long hit = 15500;
+        sim.runUntil(hit);
+        sim.policy.activity(hit);
+        assertEquals(2, sim.changes.size());
+        assertFalse(sim.changes.get(1));
+        for (Loop l : sim.loops) {
+            List<Long> pending = sim.handler.pending(l);
+            assertEquals(l.name, 1, pending.size());
+            assertEquals(l.name, hit, (long) pending.get(0));
+        }
+
+        /* And then run at their active intervals */
+        int[] n = sim.runUntil(hit + 1000);
+        assertEquals(1000/C.SPECTATOR_REFRESH_INTERVAL, n[sim.loops.indexOf(findLoop(sim, "spectator"))]);
+        assertEquals(1000/C.BOX_MONITOR_INTERVAL, n[sim.loops.indexOf(findLoop(sim, "box monitor"))]);
+        assertFalse(sim.policy.isIdle(sim.handler.now));
+    }
+
+    private static Loop findLoop(Sim sim, String name) {
+        for (Loop l : sim.loops) {
+            if (l.name.equals(name)) {
+                return l;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    @Test
+    public void wokenWhileRunningOnlyWaitsOnce() {
+        final Sim sim = new Sim(10000);
+        sim.runUntil(15000);
+        assertTrue(sim.policy.isIdle(sim.handler.now));
+
+        /* A loop which is running when the event comes in */
+        Loop loop = new Loop("woken", sim.policy, sim.handler, 100, 1000) {
+            @Override
+            protected void tick(long now) {
+                if (getRuns() == 1) {
+                    sim.policy.activity(now);
+                }
+            }
+        };
+        loop.start(0);
+        sim.runUntil(15001);
+        assertEquals(1, sim.handler.pending(loop).size());
+        for (Loop l : sim.loops) {
+            assertEquals(l.name, 1, sim.handler.pending(l).size());
+        }
+
+        /* It carries on at its active interval, not twice as often */
+        int before = loop.getRuns();
+        sim.runUntil(16001);
+        assertEquals(10, loop.getRuns() - before);
+    }
+
+    @Test
+    public void stoppedLoopIsNotWoken() {
+        Sim sim = new Sim(10000);
+        Loop spectator = findLoop(sim, "spectator");
+        sim.runUntil(15000);
+        spectator.stop();
+        assertTrue(sim.handler.pending(spectator).isEmpty());
+        sim.policy.activity(15000);
+        assertTrue(sim.handler.pending(spectator).isEmpty());
+        int runs = spectator.getRuns();
+        sim.runUntil(20000);
+        assertEquals(runs, spectator.getRuns());
+    }
+
+    @Test
+    public void activityOnlyNotifiesOnChange() {
+        Sim sim = new Sim(10000);
+        for (long t = 0; t < 60000; t += 1000) {
+            sim.policy.activity(t);
+            sim.runUntil(t + 1000);
+        }
+        assertTrue(sim.changes.isEmpty());
+    }
+
+    @Test
+    public void noQuietPeriodNeverIdle() {
+        Sim sim = new Sim(0);
+        sim.runUntil(10*MINUTE);
+        assertFalse(sim.policy.isIdle(sim.handler.now));
+        assertTrue(sim.changes.isEmpty());
+    }
+}
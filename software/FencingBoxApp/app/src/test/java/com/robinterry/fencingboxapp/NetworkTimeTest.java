@@ -0,0 +1,155 @@
+package com.robinterry.fencingboxapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import com.robinterry.constants.C;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exchanges network time messages between a reference and another node over
+ * a simulated network, with a random delay each way, and checks the other
+ * node's offset, drift and error bound against the true difference between
+ * the two clocks.
+ */
+public class NetworkTimeTest {
+    private static final int REFERENCE = 0x100;
+    private static final int NODE = 0x200;
+
+    private static class Sim {
+        final NetworkTime ref = new NetworkTime(REFERENCE);
+        final NetworkTime node = new NetworkTime(NODE);
+        final Random r;
+        final double initialOffset;
+        final double driftPpm;
+        final int minDelay, maxJitter;
+        /* True time, which is the reference's clock */
+        double t = 100000;
+        double worstError = 0;
+        int boundExceeded = 0;
+
+        Sim(double initialOffset, double driftPpm, int minDelay, int maxJitter, long seed) {
+            this.initialOffset = initialOffset;
+            this.driftPpm = driftPpm;
+            this.minDelay = minDelay;
+            this.maxJitter = maxJitter;
+            this.r = new Random(seed);
+        }
+
+        /* The node's clock at true time 't' */
+        long local(double t) {
+            return Math.round(t * (1 + driftPpm/1e6) + initialOffset);
+        }
+
+        double delay() {
+            return minDelay + r.nextDouble() * maxJitter;
+        }
+
+        /* The node's error in the network time at true time 't' */
+        double error(double t) {
+            return node.toNetwork(local(t)) - t;
+        }
+
+        /* One round of the exchange - the reference announces itself, and
+           the node asks for the time */
+        void exchange() {
+            node.receive(ref.buildRequest(Math.round(t)), local(t + delay()));
+            long t1 = local(t);
+            String request = node.buildRequest(t1);
+            double t2 = t + delay();
+            String response = ref.receive(request, Math.round(t2));
+            if (response != null) {
+                node.receive(response, local(t2 + delay()));
+            }
+        }
+
+        /* Run for 'ms', checking the error against the bound after each exchange */
+        void run(long ms) {
+            double end = t + ms;
+            while (t < end) {
+                exchange();
+                t += node.getInterval();
+                if (node.isSynchronised()) {
+                    double e = Math.abs(error(t));
+                    worstError = Math.max(worstError, e);
+                    if (e > node.getErrorBound(local(t)) + 0.5) {
+                        boundExceeded++;
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void notSynchronisedUntilReferenceHeard() {
+        NetworkTime node = new NetworkTime(NODE);
+        assertTrue(node.isReference());
+        assertEquals(0, node.getErrorBound(1000));
+
+        /* Once a reference is heard, there is no estimate until it replies */
+        node.receive(new NetworkTime(REFERENCE).buildRequest(1000), 1000);
+        assertFalse(node.isReference());
+        assertFalse(node.isSynchronised());
+        assertEquals(-1, node.getErrorBound(1000));
+    }
+
+    @Test
+    public void offsetWithoutDrift() {
+        Sim sim = new Sim(-123456.4, 0, 1, 14, 1);
+        sim.run(60000);
+        System.out.println(String.format("No drift: offset %.1fms, error %.2fms (worst %.2fms), bound %dms, round trip %dms",
+                sim.node.getOffset(sim.local(sim.t)), sim.error(sim.t), sim.worstError,
+                sim.node.getErrorBound(sim.local(sim.t)), sim.node.getRoundTrip()));
+        assertEquals(REFERENCE, sim.node.getReference());
+        assertTrue(sim.node.isSynchronised());
+        assertEquals(123456.4, sim.node.getOffset(sim.local(sim.t)), 2.0);
+        assertTrue(Math.abs(sim.error(sim.t)) <= sim.node.getErrorBound(sim.local(sim.t)));
+        assertEquals(0, sim.boundExceeded);
+    }
+
+    @Test
+    public void driftIsMeasured() {
+        Sim sim = new Sim(5000, 50, 1, 14, 2);
+        sim.run(10*60000);
+        System.out.println(String.format("50ppm drift: drift %.1fppm, error %.2fms (worst %.2fms), bound %dms",
+                sim.node.getDriftPpm(), sim.error(sim.t), sim.worstError,
+                sim.node.getErrorBound(sim.local(sim.t))));
+
+        /* The node's clock runs fast, so the offset to the network time falls -
+           with up to 15ms each way, the offsets the drift is measured from
+           are only good to a few milliseconds, so the drift is rough */
+        assertEquals(-50, sim.node.getDriftPpm(), 25);
+        assertTrue(Math.abs(sim.error(sim.t)) <= sim.node.getErrorBound(sim.local(sim.t)));
+        assertEquals(0, sim.boundExceeded);
+    }
+
+    @Test
+    public void errorBoundGrowsWithoutSamples() {
+        Sim sim = new Sim(0, C.NETTIME_MAX_DRIFT_PPM, 1, 14, 3);
+        sim.run(10*60000);
+        long now = sim.local(sim.t);
+        int bound = sim.node.getErrorBound(now);
+
+        /* The reference stops answering - the bound allows for the most
+           drift there could be since the last sample */
+        int later = sim.node.getErrorBound(now + 100000);
+        assertEquals(bound + 100000L*C.NETTIME_MAX_DRIFT_PPM/1000000, later, 1);
+        assertTrue(Math.abs(sim.error(sim.t + 100000)) <= later);
+    }
+
+    @Test
+    public void jitterWidensTheBound() {
+        Sim quiet = new Sim(0, 0, 1, 2, 4);
+        Sim busy = new Sim(0, 0, 1, 60, 4);
+        quiet.run(60000);
+        busy.run(60000);
+        System.out.println(String.format("Jitter 2ms: bound %dms worst %.2fms, jitter 60ms: bound %dms worst %.2fms",
+                quiet.node.getErrorBound(quiet.local(quiet.t)), quiet.worstError,
+                busy.node.getErrorBound(busy.local(busy.t)), busy.worstError));
+        assertTrue(quiet.node.getErrorBound(quiet.local(quiet.t)) <= busy.node.getErrorBound(busy.local(busy.t)));
+        assertEquals(0, quiet.boundExceeded);
+        assertEquals(0, busy.boundExceeded);
+    }
+}
@@ -0,0 +1,81 @@
+package com.robinterry.fencingboxapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import com.robinterry.constants.C;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a piste sending at the slowest transmit rate is not taken to
+ * have gone between its messages. The timeouts are checked against every
+ * transmit interval, and a repeater is run through TxScheduler from the
+ * active rate down to the economy idle rate, losing one message now and
+ * then, into the hub and a sequence window.
+ */
+public class PisteTimeoutTest {
+    private static final int PISTE = 7;
+    private static final int[] INTERVALS = {
+        C.TX_INTERVAL_ACTIVE, C.TX_INTERVAL_BREAK, C.TX_INTERVAL_IDLE,
+        C.TX_INTERVAL_BREAK_ECONOMY, C.TX_INTERVAL_IDLE_ECONOMY
+    };
+    private static final int[] TIMEOUTS = {
+        C.PISTE_STALE_TIMEOUT, C.HUB_PISTE_TIMEOUT, C.SEQ_RESET_TIMEOUT
+    };
+
+    @Test
+    public void timeoutsOutlastTheSlowestInterval() {
+        for (int interval : INTERVALS) {
+            assertTrue(interval <= C.TX_INTERVAL_MAX);
+        }
+        /* A lost message must not be enough to lose the piste */
+        for (int timeout : TIMEOUTS) {
+            assertTrue(timeout > 2*C.TX_INTERVAL_MAX);
+        }
+    }
+
+    @Test
+    public void economyPisteStaysLive() {
+        TxScheduler schedule = new TxScheduler(C.TX_SLOTS, C.TX_JITTER, new Random(1));
+        FencingBoxHub hub = new FencingBoxHub();
+        SequenceWindow window = new SequenceWindow();
+        Random r = new Random(2);
+        long start = 1000000;
+        long end = start + 10*60000;
+        long next = start;
+        long lastRx = 0;
+        long longestGap = 0;
+        boolean lostLast = false;
+        int index = 0;
+
+        for (long now = start; now < end; now += 10) {
+            if (now >= next) {
+                /* Active for the first minute, then the slowest rate */
+                int interval = (now < start + 60000) ? C.TX_INTERVAL_ACTIVE : C.TX_INTERVAL_IDLE_ECONOMY;
+                String msg = String.format("%04d|%02d|1|S00:00T03:00:00P-:-C---:---V-:-", index, PISTE);
+                index = (index + 1) % (C.MAX_MSGINDEX+1);
+                next = schedule.nextTxTime(now, PISTE, interval);
+
+                /* Lose one message in ten, but never two running */
+                boolean lose = !lostLast && r.nextInt(10) == 0;
+                lostLast = lose;
+                if (!lose) {
+                    hub.ingest(msg, now);
+                    window.accept(index, now);
+                    if (lastRx != 0) {
+                        longestGap = Math.max(longestGap, now - lastRx);
+                    }
+                    lastRx = now;
+                }
+            }
+            assertTrue("hub lost the piste at " + (now - start) + "ms",
+                    (hub.liveMask(now) & (1L << PISTE)) != 0);
+            assertTrue(now - lastRx < C.PISTE_STALE_TIMEOUT);
+        }
+        System.out.println(String.format("Longest gap between messages %dms, timeouts %dms",
+                longestGap, C.PISTE_STALE_TIMEOUT));
+        assertEquals(0, window.getResets());
+    }
+}
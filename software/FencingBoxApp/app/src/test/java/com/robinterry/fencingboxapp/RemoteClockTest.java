@@ -0,0 +1,172 @@
+package com.robinterry.fencingboxapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import com.robinterry.constants.C;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a box's clock down and halts it, sending the clock to a display at
+ * the active transmit interval with a random network delay and some messages
+ * lost. The sender says that the clock is running as the repeater does - until
+ * CLOCK_RUNNING_TIMEOUT after its last tick. The display's clock must move on
+ * between the messages, but never run more than CLOCK_MAX_OVERRUN below the
+ * time the box last showed, nor go back up by more than that after a halt.
+ */
+public class RemoteClockTest {
+    private static final int START = 3*60000;
+
+    /* The box's clock as shown, in milliseconds - rounded up to the second,
+       or to the hundredth under ten seconds */
+    private static int shown(int t) {
+        return RemoteClock.isHundActive(t) ? ((t + 9)/10)*10 : ((t + 999)/1000)*1000;
+    }
+
+    /* The lowest time which the box shows as 'value' */
+    private static int low(int value) {
+        return Math.max(0, value - ((value <= C.CLOCK_HUND_LIMIT) ? 10 : 1000));
+    }
+
+    private static class Sim {
+        final RemoteClock clock = new RemoteClock();
+        final Random r;
+        final long haltAt, haltFor;
+        final int loss;
+        /* The box's actual clock, and the last time that it ticked */
+        int actual = START;
+        long lastTick = 0;
+        int lastValue = -1;
+        /* Furthest the clock ran below the time the box last showed, and
+           furthest it went back up */
+        int maxOverrun = 0, maxRise = 0;
+        /* Times the clock as shown changed with and without a message */
+        int changesOnMessage = 0, changesBetween = 0;
+
+        Sim(long haltAt, long haltFor, int loss, long seed) {
+            this.haltAt = haltAt;
+            this.haltFor = haltFor;
+            this.loss = loss;
+            this.r = new Random(seed);
+        }
+
+        void run(long ms) {
+            int lastClock = -1, lastDisplayed = -1;
+            int pendingValue = -1;
+            boolean pendingRunning = false;
+            long pendingAt = 0, nextTx = 0;
+            for (long now = 1; now <= ms; now++) {
+                boolean halted = now >= haltAt && now < haltAt + haltFor;
+                if (!halted && actual > 0) {
+                    int before = shown(actual);
+                    actual--;
+                    if (shown(actual) != before) {
+                        lastTick = now;
+                    }
+                }
+                if (now >= nextTx) {
+                    nextTx = now + C.TX_INTERVAL_ACTIVE;
+                    boolean running = lastTick != 0 && (now - lastTick) < C.CLOCK_RUNNING_TIMEOUT;
+                    if (r.nextInt(100) >= loss) {
+                        pendingValue = shown(actual);
+                        pendingRunning = running;
+                        pendingAt = now + 1 + r.nextInt(20);
+                    }
+                }
+                boolean message = false;
+                if (pendingValue >= 0 && now >= pendingAt) {
+                    clock.update(pendingValue, pendingRunning, now);
+                    lastValue = pendingValue;
+                    pendingValue = -1;
+                    message = true;
+                }
+                if (clock.isValid()) {
+                    int t = clock.get(now);
+                    maxOverrun = Math.max(maxOverrun, low(lastValue) - t);
+                    if (lastClock >= 0) {
+                        maxRise = Math.max(maxRise, t - lastClock);
+                    }
+                    int displayed = shown(t);
+                    if (lastDisplayed >= 0 && displayed != lastDisplayed) {
+                        if (message) {
+                            changesOnMessage++;
+                        } else {
+                            changesBetween++;
+                        }
+                    }
+                    lastClock = t;
+                    lastDisplayed = displayed;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void overrunOfAHaltIsBounded() {
+        /* Halt part way through a second, for longer than the sender goes on
+           saying that the clock is running */
+        for (long haltAt : new long[] { 20100, 20500, 20900 }) {
+            Sim sim = new Sim(haltAt, 5000, 10, haltAt);
+            sim.run(40000);
+            System.out.println(String.format("Halt at %dms: overrun %dms, back up %dms",
+                    haltAt, sim.maxOverrun, sim.maxRise));
+            assertTrue(sim.maxOverrun <= C.CLOCK_MAX_OVERRUN);
+            assertTrue(sim.maxRise <= C.CLOCK_MAX_OVERRUN);
+        }
+    }
+
+    @Test
+    public void overrunOfAHaltIsBoundedInHundredths() {
+        Sim sim = new Sim(START - 5000, 3000, 10, 2);
+        sim.run(START);
+        assertTrue(sim.maxOverrun <= C.CLOCK_MAX_OVERRUN);
+        assertTrue(sim.maxRise <= C.CLOCK_MAX_OVERRUN);
+    }
+
+    @Test
+    public void advancesBetweenMessages() {
+        RemoteClock c = new RemoteClock();
+        assertEquals(-1, c.untilChange(0));
+        c.update(90000, true, 1000);
+        /* Shows the next second when it is due, without a message */
+        assertEquals(90000, shown(c.get(1500)));
+        assertEquals(500, c.untilChange(1500));
+        assertEquals(89000, shown(c.get(2000)));
+        /* But goes no further than the overrun below the time the box showed */
+        assertEquals(89000 - C.CLOCK_MAX_OVERRUN + 1, c.get(5000));
+        assertEquals(-1, c.untilChange(5000));
+        /* A message showing the time it has run on to lets it go on */
+        c.update(89000, true, 5000);
+        assertTrue(c.untilChange(5000) >= 0);
+
+        /* Stopped while it had run on - it goes back up to the lowest time
+           which shows as the box does, and stays there */
+        c = new RemoteClock();
+        c.update(30000, true, 0);
+        int ranOn = c.get(2000);
+        assertEquals(29000, shown(ranOn));
+        c.update(30000, false, 2000);
+        assertEquals(29001, c.get(2000));
+        assertTrue(c.get(2000) - ranOn <= C.CLOCK_MAX_OVERRUN);
+        c.update(30000, false, 2250);
+        assertEquals(29001, c.get(3000));
+        assertEquals(-1, c.untilChange(3000));
+    }
+
+    @Test
+    public void followsTheBoxWhileRunning() {
+        /* No halt - the display is never more than a second behind the box,
+           and mostly moves on to the next second between the messages */
+        Sim sim = new Sim(Long.MAX_VALUE, 0, 10, 3);
+        sim.run(60000);
+        int displayed = shown(sim.clock.get(60000));
+        System.out.println(String.format("Clock changed %d times between messages, %d on a message",
+                sim.changesBetween, sim.changesOnMessage));
+        assertTrue(displayed >= shown(sim.actual));
+        assertTrue(displayed - shown(sim.actual) <= 1000);
+        assertTrue(sim.changesBetween > sim.changesOnMessage);
+        assertTrue(sim.maxRise <= C.CLOCK_MAX_OVERRUN);
+    }
+}
@@ -0,0 +1,81 @@
+package com.robinterry.fencingboxapp;
+
+import org.junit.Test;
+
+import com.robinterry.constants.C;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the sequence window against a box which restarts part way through
+ * - it sends up to index 500 at the active rate, restarts at index 0 a few
+ * seconds later and carries on at the same rate. The new messages are all
+ * "late" to begin with, and must be taken back once nothing has been
+ * accepted for SEQ_RESET_TIMEOUT, not held off by the messages dropped.
+ */
+public class SequenceWindowTest {
+    private static final int LAST_INDEX = 500;
+    private static final int RESTART_GAP = 3000;
+
+    /* Runs the restart, and returns the time after it until a message is
+       accepted again (or -1 if none is within a minute) */
+    private static long restart(SequenceWindow w, boolean relayed) {
+        long now = 0;
+        for (int i = 0; i <= LAST_INDEX; i++) {
+            now += C.TX_INTERVAL_ACTIVE;
+            assertTrue(relayed ? w.acceptRelayed(i, now) : w.accept(i, now));
+        }
+        long restartAt = now + RESTART_GAP;
+        for (int i = 0; now < restartAt + 60000; i++) {
+            now = restartAt + (long) i*C.TX_INTERVAL_ACTIVE;
+            if (relayed ? w.acceptRelayed(i, now) : w.accept(i, now)) {
+                return now - restartAt;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void takesBackABoxWhichRestarts() {
+        SequenceWindow w = new SequenceWindow();
+        long after = restart(w, false);
+        System.out.println(String.format("Restarted box taken back after %dms (timeout %dms)",
+                after, C.SEQ_RESET_TIMEOUT));
+        assertTrue(after >= 0);
+        assertTrue(after <= C.SEQ_RESET_TIMEOUT);
+        assertEquals(1, w.getResets());
+    }
+
+    @Test
+    public void takesBackARelayedBoxWhichRestarts() {
+        SequenceWindow w = new SequenceWindow();
+        long after = restart(w, true);
+        assertTrue(after >= 0);
+        assertTrue(after <= C.SEQ_RESET_TIMEOUT);
+    }
+
+    @Test
+    public void duplicatesDoNotPutOffTheTimeout() {
+        SequenceWindow w = new SequenceWindow();
+        assertTrue(w.accept(10, 0));
+        /* The same message again and again, then a lower index after the timeout */
+        for (long t = 1000; t <= C.SEQ_RESET_TIMEOUT; t += 1000) {
+            assertFalse(w.accept(10, t));
+        }
+        assertTrue(w.accept(5, C.SEQ_RESET_TIMEOUT + 1));
+        assertEquals(5, w.getNewest());
+    }
+
+    @Test
+    public void lateMessagesAreDroppedWithinTheTimeout() {
+        SequenceWindow w = new SequenceWindow();
+        assertTrue(w.accept(100, 0));
+        assertTrue(w.accept(102, 250));
+        assertFalse(w.accept(101, 300));
+        assertFalse(w.accept(102, 350));
+        assertEquals(1, w.getReordered());
+        assertEquals(1, w.getDuplicate());
+        assertEquals(0, w.getLost());
+        assertEquals(0, w.getResets());
+    }
+}
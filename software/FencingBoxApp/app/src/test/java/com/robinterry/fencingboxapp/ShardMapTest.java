@@ -0,0 +1,108 @@
+package com.robinterry.fencingboxapp;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import com.robinterry.constants.C;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks which zone groups each kind of device joins, and counts the
+ * datagrams delivered to a display client (set to every zone) at a venue
+ * of 30 pistes in three zones - first with no hub, then while a hub is
+ * sending, then after the hub stops. Only the groups the display has
+ * joined are delivered to it. It works out the groups it wants as the
+ * network thread does, which is woken when the hub is first heard and
+ * when it goes quiet.
+ */
+public class ShardMapTest {
+    private static final int PISTES = 30;
+    private static final long HUB_START = 10000;
+    private static final long HUB_STOP = 40000;
+    private static final long END = 60000;
+
+    @Test
+    public void zonesJoined() throws Exception {
+        ShardMap map = new ShardMap("1-10,11-20,21-30");
+        int all = (1 << 1) | (1 << 2) | (1 << 3);
+        assertEquals(all, map.allZones());
+        /* The hub always joins every zone, and a repeater none */
+        assertEquals(all, map.wantedZones(true, false, false, 0));
+        assertEquals(all, map.wantedZones(true, false, true, 2));
+        assertEquals(0, map.wantedZones(false, true, false, 0));
+        /* A display client joins its zone, or every zone, unless a hub is sending */
+        assertEquals(all, map.wantedZones(false, false, false, 0));
+        assertEquals(1 << 2, map.wantedZones(false, false, false, 2));
+        assertEquals(0, map.wantedZones(false, false, false, 4));
+        assertEquals(0, map.wantedZones(false, false, true, 0));
+        assertEquals(0, map.wantedZones(false, false, true, 2));
+    }
+
+    private static String pisteMessage(int piste, int index) {
+        return String.format("%04d|%02d|1|S00:00T03:00:00P-:-C---:---V-:-", index, piste);
+    }
+
+    @Test
+    public void displayOnlyGetsTheHubWhileItIsAlive() throws Exception {
+        ShardMap map = new ShardMap("1-10,11-20,21-30");
+        FencingBoxHub hub = new FencingBoxHub();
+        long lastHubRx = 0;
+        int joined = 0;
+        long nextHubFrame = HUB_START;
+        int index = 0;
+        /* Datagrams delivered to the display before, while and after the hub is sending */
+        int[] piste = new int[3];
+        int[] hubFrames = new int[3];
+        long firstPisteRxAfterHub = 0;
+
+        for (long now = 0; now < END; now++) {
+            int period = (now < HUB_START) ? 0 : (now < HUB_STOP) ? 1 : 2;
+            boolean hubAlive = lastHubRx != 0 && (now - lastHubRx) < C.HUB_TIMEOUT;
+            joined = map.wantedZones(false, false, hubAlive, 0);
+
+            /* Each repeater sends at the active rate, in its own slot */
+            for (int p = 1; p <= PISTES; p++) {
+                if (now % C.TX_INTERVAL_ACTIVE == p*(C.TX_INTERVAL_ACTIVE/PISTES)) {
+                    String msg = pisteMessage(p, index++ % (C.MAX_MSGINDEX+1));
+                    if (now >= HUB_START && now < HUB_STOP) {
+                        hub.ingest(msg, now);
+                    }
+                    if ((joined & (1 << map.zoneOf(p))) != 0) {
+                        piste[period]++;
+                        if (period == 2 && firstPisteRxAfterHub == 0) {
+                            firstPisteRxAfterHub = now;
+                        }
+                    }
+                }
+            }
+
+            /* The hub sends on the control group, which every device joins */
+            if (now >= HUB_START && now < HUB_STOP && now >= nextHubFrame) {
+                List<String> frames = hub.buildFrames(now);
+                hubFrames[period] += frames.size();
+                if (!frames.isEmpty()) {
+                    lastHubRx = now;
+                }
+                nextHubFrame = now + C.HUB_INTERVAL;
+            }
+        }
+
+        System.out.println(String.format("Datagrams delivered to a display - " +
+                "no hub: %d piste; hub sending: %d piste, %d hub; hub stopped: %d piste",
+                piste[0], piste[1], hubFrames[1], piste[2]));
+
+        /* Every piste at the active rate with no hub */
+        assertEquals(PISTES*HUB_START/C.TX_INTERVAL_ACTIVE, piste[0]);
+        /* While the hub is sending, only the piste messages sent before its
+           first frame are delivered */
+        assertTrue(hubFrames[1] > 0);
+        assertTrue(piste[1] <= PISTES*C.HUB_INTERVAL/C.TX_INTERVAL_ACTIVE);
+        assertTrue(piste[1] + hubFrames[1] < piste[0]*(HUB_STOP - HUB_START)/HUB_START/10);
+        /* When the hub stops, the zones are joined again once it has gone quiet */
+        assertTrue(firstPisteRxAfterHub > 0);
+        assertTrue(firstPisteRxAfterHub <= HUB_STOP + C.HUB_TIMEOUT + C.TX_INTERVAL_ACTIVE);
+        assertTrue(piste[2] >= PISTES*(END - HUB_STOP - C.HUB_TIMEOUT - C.TX_INTERVAL_ACTIVE)/C.TX_INTERVAL_ACTIVE);
+    }
+}
@@ -0,0 +1,179 @@
+package com.robinterry.fencingboxapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.robinterry.constants.C;
+
+import static org.junit.Assert.*;
+
+/**
+ * Simulation of the multicast transmit schedule of many repeaters sharing one
+ * Wifi channel, comparing the old free-running 250ms loop with the slotted,
+ * jittered schedule from TxScheduler. Reports the number of overlapping
+ * (colliding) transmissions and the delivery latency once the channel has
+ * serialised them. The slotted schedule has the app's C.TX_SLOTS slots, so
+ * beyond that many senders the repeaters share slots. Each device's clock
+ * is out by up to CLOCK_ERROR, the worst error of the network time in
+ * NetworkTimeTest, and the slotted schedule is also swept over larger
+ * errors, up to those of unsynchronised wall clocks.
+ */
+public class TxSchedulerTest {
+    private static final int INTERVAL = 250;
+    /* Airtime in ms of one ~100 byte multicast frame at the basic rate, including overhead */
+    private static final double AIRTIME = 1.5;
+    /* Random backoff in ms when a sender finds the channel busy */
+    private static final double BACKOFF = 0.3;
+    /* Error in ms of each device's clock, once synchronised to the network time */
+    private static final double CLOCK_ERROR = 5.0;
+    /* Clock errors in ms for the sweep */
+    private static final double[] CLOCK_ERRORS = { 0, 10, 50, 200 };
+    private static final int DURATION = 60000;
+
+    private static class Result {
+        int sent;
+        int collisions;
+        double meanLatency;
+        double p99Latency;
+
+        public String toString() {
+            return String.format("sent %6d, collisions %6d (%5.1f%%), latency mean %6.3fms p99 %6.3fms",
+                    sent, collisions, 100.0 * collisions / sent, meanLatency, p99Latency);
+        }
+    }
+
+    /* The old transmit loop: send, then sleep for the interval (which overruns by up to 2ms) */
+    private Result simulateFree(int senders, boolean aligned, Random r) {
+        List<Double> tx = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            double t = aligned ? r.nextDouble() : r.nextDouble() * INTERVAL;
+            while (t < DURATION) {
+                tx.add(t);
+                t += INTERVAL + r.nextDouble() * 2.0;
+            }
+        }
+        return channel(tx, r);
+    }
+
+    /* The slotted schedule as the app runs it, with C.TX_SLOTS slots, so
+       that with more senders than slots some share a slot */
+    private Result simulateSlotted(int senders, double maxClockError, Random r) {
+        TxScheduler sched = new TxScheduler(C.TX_SLOTS, C.TX_JITTER, r);
+        List<Double> tx = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            double clockError = (r.nextDouble() * 2.0 - 1.0) * maxClockError;
+            long now = r.nextInt(INTERVAL);
+            while (now < DURATION) {
+                long next = sched.nextTxTime(now, i + 1, INTERVAL);
+                tx.add(next + clockError + r.nextDouble() * 0.5);
+                now = next;
+            }
+        }
+        return channel(tx, r);
+    }
+
+    private Result channel(List<Double> tx, Random r) {
+        double[] t = new double[tx.size()];
+        for (int i = 0; i < t.length; i++) {
+            t[i] = tx.get(i);
+        }
+        Arrays.sort(t);
+
+        Result res = new Result();
+        res.sent = t.length;
+
+        /* A transmission collides if it would overlap another in the air */
+        for (int i = 0; i < t.length; i++) {
+            boolean overlap = (i > 0 && t[i] - t[i-1] < AIRTIME)
+                    || (i+1 < t.length && t[i+1] - t[i] < AIRTIME);
+            if (overlap) {
+                res.collisions++;
+            }
+        }
+
+        /* Carrier sense serialises the transmissions, at the cost of latency */
+        double[] latency = new double[t.length];
+        double busyUntil = 0.0, total = 0.0;
+        for (int i = 0; i < t.length; i++) {
+            double start = t[i];
+            if (busyUntil > start) {
+                start = busyUntil + r.nextDouble() * BACKOFF;
+            }
+            busyUntil = start + AIRTIME;
+            latency[i] = busyUntil - t[i];
+            total += latency[i];
+        }
+        Arrays.sort(latency);
+        res.meanLatency = total / t.length;
+        res.p99Latency = latency[(int) (latency.length * 0.99)];
+        return res;
+    }
+
+    private void compare(int senders, boolean beatsFree) {
+        Result aligned = simulateFree(senders, true, new Random(1));
+        Result free = simulateFree(senders, false, new Random(2));
+        Result slotted = simulateSlotted(senders, CLOCK_ERROR, new Random(3));
+        System.out.println(senders + " senders, aligned: " + aligned);
+        System.out.println(senders + " senders, free:    " + free);
+        System.out.println(senders + " senders, slotted: " + slotted);
+        assertTrue(slotted.collisions < aligned.collisions);
+        if (beatsFree) {
+            assertTrue(slotted.collisions <= free.collisions);
+        }
+        assertTrue(slotted.p99Latency <= aligned.p99Latency);
+    }
+
+    @Test
+    public void slotOffsets_spreadAcrossInterval() {
+        TxScheduler sched = new TxScheduler(30, 0, new Random(0));
+        assertEquals(0, sched.slotOffset(1, 250));
+        assertEquals(8, sched.slotOffset(2, 250));
+        assertEquals(241, sched.slotOffset(30, 250));
+        assertEquals(0, sched.slotOffset(31, 250));
+    }
+
+    @Test
+    public void nextTxTime_isInOwnSlot() {
+        TxScheduler sched = new TxScheduler(30, 0, new Random(0));
+        assertEquals(1008, sched.nextTxTime(1000, 2, 250));
+        assertEquals(1258, sched.nextTxTime(1008, 2, 250));
+        assertEquals(1250, sched.nextTxTime(1001, 1, 250));
+    }
+
+    @Test
+    public void simulate30Senders() {
+        compare(C.TX_SLOTS, true);
+    }
+
+    /* The slots only help while the clocks agree to well within a slot
+       (8ms) - with larger errors the senders do no better than free-running */
+    @Test
+    public void clockErrorSweep() {
+        Result free = simulateFree(C.TX_SLOTS, false, new Random(2));
+        Result[] slotted = new Result[CLOCK_ERRORS.length];
+        for (int i = 0; i < CLOCK_ERRORS.length; i++) {
+            slotted[i] = simulateSlotted(C.TX_SLOTS, CLOCK_ERRORS[i], new Random(3));
+            System.out.println(String.format("%d senders, clock error %3.0fms: %s",
+                    C.TX_SLOTS, CLOCK_ERRORS[i], slotted[i]));
+        }
+        System.out.println(C.TX_SLOTS + " senders, free:               " + free);
+        assertEquals(0, slotted[0].collisions);
+        for (int i = 0; i < CLOCK_ERRORS.length; i++) {
+            if (CLOCK_ERRORS[i] >= 10) {
+                assertTrue(slotted[i].collisions*4 > free.collisions*3);
+            }
+        }
+    }
+
+    /* More senders than slots, so several repeaters share each slot and
+       collide in it more often than free-running senders would, but still
+       much less than senders which line up */
+    @Test
+    public void simulate100Senders() {
+        compare(100, false);
+    }
+}